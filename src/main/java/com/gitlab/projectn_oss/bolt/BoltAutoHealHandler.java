@@ -17,6 +17,11 @@ import java.util.Map;
  */
 public class BoltAutoHealHandler implements RequestHandler<Map<String,String>, Map<String,String>> {
 
+    static {
+        // prime the SDK during the Lambda init phase, if enabled.
+        BoltStartupMetrics.primeIfEnabled();
+    }
+
     /**
      * handleRequest is the handler function that is invoked by AWS Lambda to process an incoming event for
      * performing auto-heal tests.
@@ -32,11 +37,31 @@ public class BoltAutoHealHandler implements RequestHandler<Map<String,String>, M
     @Override
     public Map<String,String> handleRequest(Map<String,String> event, Context context) {
 
+        long handlerStartTime = System.nanoTime();
+        boolean coldStart = BoltStartupMetrics.beginInvocation();
+
+        Map<String,String> respMap = autoHeal(event);
+
+        // report startup phases only if requested, so that the response format doesn't change on cold starts.
+        if (BoltStartupMetrics.isRequested(event.get("startupMetrics"))) {
+            BoltStartupMetrics.report(coldStart, System.nanoTime() - handlerStartTime)
+                    .forEach((phase, value) -> respMap.put("startup_" + phase, value));
+        }
+        return respMap;
+    }
+
+    /**
+     * Retrieves the object from Bolt repeatedly until it succeeds and returns the time taken to do so.
+     * @param event incoming event object
+     * @return time taken to auto-heal
+     */
+    private Map<String,String> autoHeal(Map<String,String> event) {
+
         String bucket = event.get("bucket");
         String key = event.get("key");
 
         // Bolt client.
-        S3Client boltS3 = BoltS3Client.builder().build();
+        S3Client boltS3 = BoltStartupMetrics.time("boltClientBuild", () -> S3ClientFactory.bolt(event));
 
         // Attempt to retrieve object repeatedly until it succeeds, which would indicate successful
         // auto-healing of the object.
@@ -0,0 +1,67 @@
+package com.gitlab.projectn_oss.bolt;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import java.util.Map;
+
+/**
+ * BoltS3OpsBatchHandler is a Handler class that encapsulates the handler function handleRequest, which sends a
+ * batch of S3 API operations to Bolt / S3 and is called by AWS Lambda when the function is invoked.
+ */
+public class BoltS3OpsBatchHandler implements RequestHandler<Map<String,Object>, Map<String,Object>> {
+
+    static {
+        // prime the SDK during the Lambda init phase, if enabled.
+        BoltStartupMetrics.primeIfEnabled();
+    }
+
+    /**
+     * handleRequest is the handler function that is invoked by AWS Lambda to process an incoming batch event.
+     *
+     * handleRequest accepts the following input parameters as part of the event:
+     * 1) sdkType - Endpoint to which requests are sent. The following values are supported:
+     *    S3 - The Requests are sent to S3.
+     *    Bolt - The Requests are sent to Bolt, whose endpoint is configured via 'BOLT_URL' environment variable
+     *    Bolt_Failover - The Requests are sent to Bolt, or to S3 while a circuit breaker finds Bolt degraded (failing
+     *    or slow requests)
+     *
+     * 2) bucket - default bucket name of the operations
+     *
+     * 3) parallelism - max. number of operations in flight at a time (default 8)
+     *
+     * 4) operations - list of operations, each accepting the same parameters (requestType, bucket, key, value)
+     *    as an event of BoltS3OpsHandler
+     *
+     * 5) startupMetrics - if true, the startup phases (see BoltStartupMetrics) are included in the response, under
+     *    startup
+     *
+     * Following is an example of an event that can be used to invoke the handler function.
+     * a) Upload an object to Bolt, retrieve the metadata of another object and the MD5 hash of a third one:
+     *     {"sdkType": "BOLT", "bucket": "<bucket>", "parallelism": "4", "operations": [
+     *         {"requestType": "put_object", "key": "<key1>", "value": "<value>"},
+     *         {"requestType": "head_object", "key": "<key2>"},
+     *         {"requestType": "get_object", "key": "<key3>"}]}
+     *
+     * Operations of a batch run concurrently, so an operation must not depend on the result of another
+     * operation of the same batch.
+     *
+     * @param event incoming event object
+     * @param context Lambda execution environment context object
+     * @return per-operation results, in order, and timing of the batch from BoltS3OpsClient
+     */
+    @Override
+    public Map<String,Object> handleRequest(Map<String,Object> event, Context context) {
+
+        long handlerStartTime = System.nanoTime();
+        boolean coldStart = BoltStartupMetrics.beginInvocation();
+
+        BoltS3OpsClient boltS3OpsClient = new BoltS3OpsClient();
+        Map<String,Object> respMap = boltS3OpsClient.processBatchEvent(event);
+
+        // report startup phases only if requested, so that the response format doesn't change on cold starts.
+        if (BoltStartupMetrics.isRequested(event.get("startupMetrics"))) {
+            respMap.put("startup", BoltStartupMetrics.report(coldStart, System.nanoTime() - handlerStartTime));
+        }
+        return respMap;
+    }
+}
@@ -1,17 +1,23 @@
 package com.gitlab.projectn_oss.bolt;
 
-import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
-import javax.xml.bind.DatatypeConverter;
-import java.io.ByteArrayOutputStream;
-import java.security.MessageDigest;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * BoltS3OpsClient processes AWS Lambda events that are received by the handler function
@@ -33,9 +39,14 @@ public class BoltS3OpsClient {
     // endpoints supported
     enum SdkType {
         BOLT,
-        S3
+        S3,
+        // Bolt, failing over to S3 while Bolt is degraded (see CircuitBreakerS3Client).
+        BOLT_FAILOVER
     }
 
+    // Bolt client with S3 failover, shared across invocations so that the breaker state survives warm starts.
+    private static CircuitBreakerS3Client failoverClient;
+
     private S3Client s3;
 
     public BoltS3OpsClient() {
@@ -48,30 +59,178 @@ public class BoltS3OpsClient {
      * @param event incoming Lambda event object
      * @return result of the requested operation returned by the endpoint (sdkType)
      */
-    public Map<String, String> processEvent(Map<String, String> event) {
+    public Map<String, Object> processEvent(Map<String, String> event) {
 
         BoltS3OpsClient.RequestType requestType = RequestType.valueOf(event.get("requestType").toUpperCase());
-        String sdkTypeStr = event.get("sdkType");
+
+        // create an S3/Bolt Client depending on the 'sdkType'
+        createClient(event.get("sdkType"), event);
+
+        Map<String, Object> respMap = execute(requestType, event);
+        if (s3 instanceof CircuitBreakerS3Client) {
+            respMap.put("circuitBreaker", ((CircuitBreakerS3Client) s3).getStats());
+        }
+        return respMap;
+    }
+
+    /**
+     * processBatchEvent extracts the parameters (sdkType, bucket, parallelism, operations) from the event and
+     * sends each of the operations to Bolt/S3 over a single shared client, with up to `parallelism` operations
+     * in flight at a time. Each operation accepts the same parameters as an event passed to processEvent, and
+     * inherits the bucket of the batch if it does not specify one.
+     * @param event incoming Lambda event object
+     * @return per-operation results, in the order of the operations, and timing of the whole batch.
+     */
+    public Map<String, Object> processBatchEvent(Map<String, Object> event) {
+
+        Object sdkTypeObj = event.get("sdkType");
+        Object bucketObj = event.get("bucket");
+        Object parallelismObj = event.get("parallelism");
+        int parallelism = (parallelismObj != null && !parallelismObj.toString().isEmpty()) ?
+                Integer.parseInt(parallelismObj.toString()) : 8;
+        if (parallelism < 1) {
+            parallelism = 1;
+        }
+
+        List<Map<String, String>> operations = new ArrayList<>();
+        Object operationsObj = event.get("operations");
+        if (operationsObj instanceof List) {
+            for (Object opObj : (List<?>) operationsObj) {
+                Map<String, String> op = new HashMap<>();
+                if (bucketObj != null) {
+                    op.put("bucket", bucketObj.toString());
+                }
+                if (opObj instanceof Map) {
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) opObj).entrySet()) {
+                        if (entry.getValue() != null) {
+                            op.put(entry.getKey().toString(), entry.getValue().toString());
+                        }
+                    }
+                }
+                operations.add(op);
+            }
+        }
+
+        // create a single S3/Bolt Client, shared by all operations of the batch.
+        Map<String, String> clientConfig = new HashMap<>();
+        for (Map.Entry<String, Object> entry : event.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                clientConfig.put(entry.getKey(), (String) entry.getValue());
+            }
+        }
+        createClient(sdkTypeObj != null ? sdkTypeObj.toString() : null, clientConfig);
+
+        List<Callable<Map<String, Object>>> tasks = new ArrayList<>();
+        for (Map<String, String> op : operations) {
+            tasks.add(() -> {
+                long opStartTime = System.nanoTime();
+                Map<String, Object> opRespMap;
+                try {
+                    opRespMap = execute(RequestType.valueOf(op.get("requestType").toUpperCase()), op);
+                } catch (Exception e) {
+                    String msg = e.toString();
+                    System.err.println(msg);
+                    opRespMap = new HashMap<>();
+                    opRespMap.put("errorMessage", msg);
+                }
+                long opEndTime = System.nanoTime();
+
+                Map<String, Object> result = new HashMap<>(opRespMap);
+                result.put("requestType", op.get("requestType"));
+                result.put("key", op.get("key"));
+                result.put("opElapsed", String.format("%.2f ms", (opEndTime - opStartTime) / 1e6));
+                return result;
+            });
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        int failed = 0;
+        long batchStartTime = System.nanoTime();
+        if (!tasks.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+            try {
+                for (Future<Map<String, Object>> future : executor.invokeAll(tasks)) {
+                    Map<String, Object> result = future.get();
+                    if (result.containsKey("errorMessage")) {
+                        failed++;
+                    }
+                    results.add(result);
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                String msg = e.toString();
+                System.err.println(msg);
+                return new HashMap<String, Object>() {{
+                    put("errorMessage", msg);
+                }};
+            } finally {
+                executor.shutdown();
+            }
+        }
+        long batchTime = System.nanoTime() - batchStartTime;
+
+        Map<String, Object> batchStats = new HashMap<>();
+        batchStats.put("numOps", String.valueOf(results.size()));
+        batchStats.put("succeeded", String.valueOf(results.size() - failed));
+        batchStats.put("failed", String.valueOf(failed));
+        batchStats.put("parallelism", String.valueOf(parallelism));
+        batchStats.put("elapsed", String.format("%.2f ms", batchTime / 1e6));
+        batchStats.put("throughput", String.format("%.2f ops/sec",
+                batchTime > 0 ? results.size() * 1e9 / batchTime : 0.0));
+
+        return new HashMap<String, Object>() {{
+            put("results", results);
+            put("batch", batchStats);
+        }};
+    }
+
+    /**
+     * Creates an S3/Bolt Client depending on the 'sdkType'. If sdkType is not specified, creates an S3 Client.
+     * @param sdkTypeStr endpoint to which requests are sent
+     * @param event retry policy and timeouts of each endpoint (see S3ClientFactory)
+     */
+    private void createClient(String sdkTypeStr, Map<String, String> event) {
         BoltS3OpsClient.SdkType sdkType = (sdkTypeStr != null && !sdkTypeStr.isEmpty()) ?
                 SdkType.valueOf(sdkTypeStr.toUpperCase()) : null;
 
-        // create an S3/Bolt Client depending on the 'sdkType'
-        // If sdkType is not specified, create an S3 Client.
         if (sdkType == null || sdkType == SdkType.S3) {
-            s3 = S3Client.builder().build();
+            s3 = BoltStartupMetrics.time("s3ClientBuild", () -> S3ClientFactory.s3(event));
         } else if (sdkType == SdkType.BOLT) {
-            s3 = BoltS3Client.builder().build();
+            s3 = BoltStartupMetrics.time("boltClientBuild", () -> S3ClientFactory.bolt(event));
+        } else if (sdkType == SdkType.BOLT_FAILOVER) {
+            s3 = getFailoverClient(event);
         }
+    }
 
-        // Perform an S3 / Bolt operation based on the input 'requestType'
-        Map<String,String> respMap;
+    /**
+     * Returns the shared Bolt client with S3 failover, creating it on first use.
+     * @param event retry policy and timeouts of each endpoint, of the first event only
+     * @return Bolt client with S3 failover
+     */
+    private static synchronized CircuitBreakerS3Client getFailoverClient(Map<String, String> event) {
+        if (failoverClient == null) {
+            failoverClient = new CircuitBreakerS3Client(
+                    BoltStartupMetrics.time("boltClientBuild", () -> S3ClientFactory.bolt(event)),
+                    BoltStartupMetrics.time("s3ClientBuild", () -> S3ClientFactory.s3(event)));
+        }
+        return failoverClient;
+    }
+
+    /**
+     * Performs an S3 / Bolt operation based on the input 'requestType'.
+     * @param requestType type of request / operation to be performed
+     * @param event operation parameters (bucket, key, value, prefix, startAfter, maxKeys)
+     * @return result of the requested operation returned by the endpoint (sdkType)
+     */
+    private Map<String, Object> execute(RequestType requestType, Map<String, String> event) {
+
+        Map<String,Object> respMap;
         try {
             switch (requestType) {
                 case GET_OBJECT:
                     respMap = getObject(event.get("bucket"), event.get("key"));
                     break;
                 case LIST_OBJECTS_V2:
-                    respMap = listObjectsV2(event.get("bucket"));
+                    respMap = listObjectsV2(event);
                     break;
                 case HEAD_OBJECT:
                     respMap = headObject(event.get("bucket"), event.get("key"));
@@ -96,85 +255,197 @@ public class BoltS3OpsClient {
             String msg = e.awsErrorDetails().errorMessage();
             String code = e.awsErrorDetails().errorCode();
             System.err.println(msg);
-            respMap = new HashMap<String, String>() {{
+            respMap = new HashMap<String, Object>() {{
                 put("errorMessage", msg);
                 put("errorCode", code);
             }};
         } catch (Exception e) {
             String msg = e.toString();
             System.err.println(msg);
-            respMap = new HashMap<String, String>() {{
+            respMap = new HashMap<String, Object>() {{
                 put("errorMessage", msg);
             }};
         }
+
+        // attempts of the (last) request of the operation, and time spent in failed attempts and backoff.
+        respMap.put("attempts", String.valueOf(PerfAttemptInterceptor.lastAttempts()));
+        respMap.put("retryTime", String.format("%.2f ms", PerfAttemptInterceptor.lastRetryNanos() / 1e6));
         return respMap;
     }
 
     /**
      * Gets the object from Bolt/S3, computes and returns the object's MD5 hash. If the object is gzip encoded, object
-     * is decompressed before computing its MD5.
+     * is decompressed before computing its MD5. The object is streamed through the digest, so that objects larger than
+     * the available heap can be retrieved, and the bytes read, time to first byte, elapsed time and throughput of the
+     * download are returned along with the MD5 hash.
      * @param bucket bucket name
      * @param key key name
-     * @return md5 hash of the object
+     * @return md5 hash of the object and download statistics
      * @throws Exception
      */
-    private Map<String, String> getObject(String bucket, String key) throws Exception {
+    private Map<String, Object> getObject(String bucket, String key) throws Exception {
         GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(bucket).key(key).build();
 
+        ObjectDigest md = new ObjectDigest(ObjectDigest.Algorithm.MD5);
+        long bytesRead;
+        long decompressedBytes;
+        long firstByteTime;
+        long getObjEndTime;
+
         // Get Object.
-        ResponseBytes<GetObjectResponse> respBytes = s3.getObjectAsBytes(getObjectRequest);
-
-        // Parse the MD5 of the returned object
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        String md5;
-
-        // If Object is gzip encoded, compute MD5 on the decompressed object.
-        String encoding = respBytes.response().contentEncoding();
-        System.out.println("Encoding:" + encoding);
-        if ((encoding != null && encoding.equalsIgnoreCase("gzip")) ||
-                key.endsWith(".gz")) {
-
-            // MD5 of the object after gzip decompression.
-            GZIPInputStream gis = new GZIPInputStream(respBytes.asInputStream());
-            ByteArrayOutputStream output = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int len;
-
-            while ((len = gis.read(buffer)) > 0) {
-                output.write(buffer, 0, len);
+        long getObjStartTime = System.nanoTime();
+        try (ResponseInputStream<GetObjectResponse> resp = s3.getObject(getObjectRequest)) {
+            // count the bytes received (compressed, for gzip encoded objects), which don't always have a
+            // Content-Length (e.g. chunked responses).
+            CountingInputStream counted = new CountingInputStream(resp);
+            PushbackInputStream body = new PushbackInputStream(counted, 1);
+
+            // time to first byte of the body, not just the headers.
+            int firstByte = body.read();
+            firstByteTime = System.nanoTime();
+            if (firstByte != -1) {
+                body.unread(firstByte);
             }
 
-            md.update(output.toByteArray());
-            md5 = DatatypeConverter.printHexBinary(md.digest()).toUpperCase();
-            output.close();
-            gis.close();
-        } else {
-            md.update(respBytes.asByteArray());
-            md5 = DatatypeConverter.printHexBinary(md.digest()).toUpperCase();
+            // If Object is gzip encoded, compute MD5 on the decompressed object.
+            boolean gzip = ObjectDigest.isGzip(resp.response(), key);
+            decompressedBytes = md.update(body, gzip);
+            bytesRead = counted.getCount();
+            getObjEndTime = System.nanoTime();
         }
+        String md5 = md.digest();
+
+        double elapsedMs = (getObjEndTime - getObjStartTime) / 1e6;
+        double ttfbMs = (firstByteTime - getObjStartTime) / 1e6;
+        double throughput = elapsedMs > 0 ? (bytesRead / (1024.0 * 1024.0)) / (elapsedMs / 1000.0) : 0.0;
+        long objBytesRead = bytesRead;
+        long objDecompressedBytes = decompressedBytes;
 
-        Map<String,String> map = new HashMap<String, String>() {{
+        Map<String,Object> map = new HashMap<String, Object>() {{
             put("md5", md5);
+            put("bytesRead", String.valueOf(objBytesRead));
+            put("decompressedBytes", String.valueOf(objDecompressedBytes));
+            put("timeToFirstByte", String.format("%.2f ms", ttfbMs));
+            put("elapsed", String.format("%.2f ms", elapsedMs));
+            put("throughput", String.format("%.2f MB/s", throughput));
         }};
         return map;
     }
 
     /**
-     * Returns a list of 1000 objects from the given bucket in Bolt/S3
-     * @param bucket bucket name
-     * @return list of first 1000 objects
+     * Lists objects from the given bucket in Bolt/S3, following continuation tokens across pages. The following
+     * parameters are accepted as part of the event:
+     * 1) bucket - bucket name
+     * 2) prefix - only keys starting with prefix are listed
+     * 3) startAfter - listing starts after this key
+     * 4) continuationToken - listing resumes from the token returned by a previous truncated listing
+     * 5) maxKeys - max. number of keys to be returned across pages (default 1000)
+     * 6) aggregate - if true, streams through every page and returns only the object count and total size,
+     *    without holding the keys in memory; maxKeys is ignored
+     * @param event listing parameters
+     * @return key, size and etag of each object, or aggregates of all objects
      * @throws Exception
      */
-    private Map<String, String> listObjectsV2(String bucket) throws Exception {
+    private Map<String, Object> listObjectsV2(Map<String, String> event) throws Exception {
+
+        String prefix = event.get("prefix");
+        String startAfter = event.get("startAfter");
+        String continuationToken = event.get("continuationToken");
+        String maxKeysStr = event.get("maxKeys");
+        int maxKeys = (maxKeysStr != null && !maxKeysStr.isEmpty()) ? Integer.parseInt(maxKeysStr) : 1000;
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Invalid maxKeys " + maxKeysStr + ", expected a positive number");
+        }
+        boolean aggregate = Boolean.parseBoolean(event.get("aggregate"));
 
-        ListObjectsV2Request req = ListObjectsV2Request.builder().bucket(bucket).build();
-        ListObjectsV2Response resp;
+        ListObjectsV2Request.Builder reqBuilder = ListObjectsV2Request.builder().bucket(event.get("bucket"));
+        if (prefix != null && !prefix.isEmpty()) {
+            reqBuilder.prefix(prefix);
+        }
+        if (startAfter != null && !startAfter.isEmpty()) {
+            reqBuilder.startAfter(startAfter);
+        }
+        if (continuationToken != null && !continuationToken.isEmpty()) {
+            reqBuilder.continuationToken(continuationToken);
+        }
 
-        resp = s3.listObjectsV2(req);
+        if (aggregate) {
+            return listObjectsV2Aggregate(reqBuilder.maxKeys(1000).build());
+        }
 
-        List<S3Object> objects = resp.contents();
-        Map<String,String> map = new HashMap<String, String>() {{
-            put("objects", objects.toString());
+        List<Map<String, String>> objects = new ArrayList<>();
+        ListObjectsV2Response resp;
+        int pages = 0;
+        do {
+            resp = s3.listObjectsV2(reqBuilder.maxKeys(Math.min(1000, maxKeys - objects.size())).build());
+            pages++;
+            for (S3Object object : resp.contents()) {
+                Map<String, String> objMap = new HashMap<>();
+                objMap.put("key", object.key());
+                objMap.put("size", String.valueOf(object.size()));
+                objMap.put("etag", object.eTag());
+                objects.add(objMap);
+            }
+            reqBuilder.continuationToken(resp.nextContinuationToken());
+        } while (resp.isTruncated() && objects.size() < maxKeys);
+
+        boolean isTruncated = resp.isTruncated();
+        String nextContinuationToken = resp.nextContinuationToken();
+        int numPages = pages;
+        Map<String,Object> map = new HashMap<String, Object>() {{
+            put("objects", objects);
+            put("keyCount", String.valueOf(objects.size()));
+            put("pages", String.valueOf(numPages));
+            put("isTruncated", String.valueOf(isTruncated));
+            if (isTruncated) {
+                put("nextContinuationToken", nextContinuationToken);
+            }
+        }};
+        return map;
+    }
+
+    /**
+     * Streams through every page of the listing in Bolt/S3, one page at a time, and returns the number of objects,
+     * their total size and the listing rate.
+     * @param req list objects request of the first page
+     * @return object count and total size of the listed objects
+     * @throws Exception
+     */
+    private Map<String, Object> listObjectsV2Aggregate(ListObjectsV2Request req) throws Exception {
+
+        long keyCount = 0;
+        long totalBytes = 0;
+        long minSize = Long.MAX_VALUE;
+        long maxSize = 0;
+        long pages = 0;
+
+        long listObjStartTime = System.nanoTime();
+        for (ListObjectsV2Response page : s3.listObjectsV2Paginator(req)) {
+            pages++;
+            for (S3Object object : page.contents()) {
+                long size = object.size();
+                keyCount++;
+                totalBytes += size;
+                minSize = Math.min(minSize, size);
+                maxSize = Math.max(maxSize, size);
+            }
+        }
+        long listObjTime = System.nanoTime() - listObjStartTime;
+
+        long numKeys = keyCount;
+        long numBytes = totalBytes;
+        long numPages = pages;
+        long minObjSize = keyCount > 0 ? minSize : 0;
+        long maxObjSize = maxSize;
+        Map<String,Object> map = new HashMap<String, Object>() {{
+            put("keyCount", String.valueOf(numKeys));
+            put("totalBytes", String.valueOf(numBytes));
+            put("minSize", String.valueOf(minObjSize));
+            put("maxSize", String.valueOf(maxObjSize));
+            put("pages", String.valueOf(numPages));
+            put("elapsed", String.format("%.2f ms", listObjTime / 1e6));
+            put("throughput", String.format("%.2f keys/sec",
+                    listObjTime > 0 ? numKeys * 1e9 / listObjTime : 0.0));
         }};
         return map;
     }
@@ -186,12 +457,12 @@ public class BoltS3OpsClient {
      * @return object metadata
      * @throws Exception
      */
-    private Map<String, String> headObject(String bucket, String key) throws Exception {
+    private Map<String, Object> headObject(String bucket, String key) throws Exception {
 
         HeadObjectRequest headObjectRequest = HeadObjectRequest.builder().bucket(bucket).key(key).build();
 
         HeadObjectResponse res = s3.headObject(headObjectRequest);
-        Map<String,String> map = new HashMap<String,String>() {{
+        Map<String,Object> map = new HashMap<String,Object>() {{
             put( "Expiration", res.expiration());
             put( "lastModified", res.lastModified().toString() );
             put( "ContentLength", res.contentLength().toString() );
@@ -208,7 +479,7 @@ public class BoltS3OpsClient {
      * @return list of buckets
      * @throws Exception
      */
-    private Map<String, String> listBuckets() throws Exception {
+    private Map<String, Object> listBuckets() throws Exception {
 
         ListBucketsRequest listBucketsRequest = ListBucketsRequest.builder().build();
         ListBucketsResponse resp;
@@ -216,7 +487,7 @@ public class BoltS3OpsClient {
         resp = s3.listBuckets(listBucketsRequest);
 
         List<Bucket> buckets = resp.buckets();
-        Map<String,String> map = new HashMap<String, String>() {{
+        Map<String,Object> map = new HashMap<String, Object>() {{
             put("buckets", buckets.toString());
         }};
         return map;
@@ -228,7 +499,7 @@ public class BoltS3OpsClient {
      * @return status code and Region if the bucket exists
      * @throws Exception
      */
-    private Map<String, String> headBucket(String bucket) throws Exception {
+    private Map<String, Object> headBucket(String bucket) throws Exception {
 
         HeadBucketRequest headBucketRequest = HeadBucketRequest.builder().bucket(bucket).build();
 
@@ -236,7 +507,7 @@ public class BoltS3OpsClient {
         Map<String, List<String>> resHeaders = res.sdkHttpResponse().headers();
         String bucketRegion = resHeaders.get("x-amz-bucket-region") != null ?
                 resHeaders.get("x-amz-bucket-region").get(0) : "";
-        Map<String,String> map = new HashMap<String, String>() {{
+        Map<String,Object> map = new HashMap<String, Object>() {{
             put("statusCode", String.valueOf(res.sdkHttpResponse().statusCode()));
             put("statusText", res.sdkHttpResponse().statusText().orElse(""));
             put("region", bucketRegion);
@@ -252,12 +523,12 @@ public class BoltS3OpsClient {
      * @return metadata of object
      * @throws Exception
      */
-    private Map<String, String> putObject(String bucket, String key, String value) throws Exception {
+    private Map<String, Object> putObject(String bucket, String key, String value) throws Exception {
 
         PutObjectRequest putObjectRequest = PutObjectRequest.builder().bucket(bucket).key(key).build();
 
         PutObjectResponse res = s3.putObject(putObjectRequest, RequestBody.fromString(value));
-        Map<String,String> map = new HashMap<String,String>() {{
+        Map<String,Object> map = new HashMap<String,Object>() {{
            put("ETag", res.eTag());
            put( "Expiration", res.expiration());
            put( "VersionId", res.versionId());
@@ -272,15 +543,56 @@ public class BoltS3OpsClient {
      * @return status code
      * @throws Exception
      */
-    private Map<String, String> deleteObject(String bucket, String key) throws Exception {
+    private Map<String, Object> deleteObject(String bucket, String key) throws Exception {
 
         DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest.builder().bucket(bucket).key(key).build();
 
         DeleteObjectResponse res = s3.deleteObject(deleteObjectRequest);
-        Map<String,String> map = new HashMap<String,String>() {{
+        Map<String,Object> map = new HashMap<String,Object>() {{
             put("statusCode", String.valueOf(res.sdkHttpResponse().statusCode()));
             put("statusText", res.sdkHttpResponse().statusText().orElse(""));
         }};
         return map;
     }
+
+    /**
+     * CountingInputStream counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
 }
@@ -2,6 +2,7 @@ package com.gitlab.projectn_oss.bolt;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -10,6 +11,11 @@ import java.util.Map;
  */
 public class BoltS3OpsHandler implements RequestHandler<Map<String,String>, Map<String,String>> {
 
+    static {
+        // prime the SDK during the Lambda init phase, if enabled.
+        BoltStartupMetrics.primeIfEnabled();
+    }
+
     /**
      * handlerRequest is the handler function that is invoked by AWS Lambda to process an incoming event.
      *
@@ -17,13 +23,15 @@ public class BoltS3OpsHandler implements RequestHandler<Map<String,String>, Map<
      * 1) sdkType - Endpoint to which request is sent. The following values are supported:
      *    S3 - The Request is sent to S3.
      *    Bolt - The Request is sent to Bolt, whose endpoint is configured via 'BOLT_URL' environment variable
+     *    Bolt_Failover - The Request is sent to Bolt, or to S3 while a circuit breaker finds Bolt degraded (failing
+     *    or slow requests); the breaker state and metrics are included in the response
      *
      * 2) requestType - type of request / operation to be performed. The following requests are supported:
-     *    a) list_objects_v2 - list objects
+     *    a) list_objects_v2 - list objects (key, size, etag), following pages up to maxKeys
      *    b) list_buckets - list buckets
      *    c) head_object - head object
      *    d) head_bucket - head bucket
-     *    e) get_object - get object (md5 hash)
+     *    e) get_object - get object (md5 hash, bytes read, time to first byte, elapsed time, throughput)
      *    f) put_object - upload object
      *    g) delete_object - delete object
      *
@@ -31,10 +39,31 @@ public class BoltS3OpsHandler implements RequestHandler<Map<String,String>, Map<
      *
      * 4) key - key name
      *
+     * 5) prefix, startAfter, continuationToken, maxKeys, aggregate - listing parameters (list_objects_v2 only).
+     *    maxKeys is the max. number of keys returned across pages (positive, default 1000). If aggregate is true,
+     *    every page is streamed through and only the object count and total size are returned.
+     *
+     * 6) s3RetryMode, s3MaxAttempts, s3BackoffBaseMs, s3MaxBackoffMs, s3ApiCallTimeoutMs, s3AttemptTimeoutMs and the
+     *    same parameters prefixed by bolt - retry policy and timeouts of each endpoint (see S3ClientFactory). The
+     *    response includes the attempts of the request and the time spent in retries (attempts, retryTime).
+     *
+     * 7) startupMetrics - if true, the startup phases (see BoltStartupMetrics) are included in the response, as
+     *    startup_<phase> entries
+     *
+     * The response is a flat map of strings; structured values (e.g. the objects of list_objects_v2 and the
+     * circuitBreaker metrics) are returned as JSON text.
+     *
      * Following are examples of events, for various requests, that can be used to invoke the handler function.
      * a) Listing first 1000 objects from Bolt bucket:
      *     {"requestType": "list_objects_v2", "sdkType": "BOLT", "bucket": "<bucket>"}
      *
+     *    Listing up to 5000 objects under a prefix from Bolt bucket:
+     *     {"requestType": "list_objects_v2", "sdkType": "BOLT", "bucket": "<bucket>", "prefix": "<prefix>",
+     *      "maxKeys": "5000"}
+     *
+     *    Counting objects and their total size in Bolt bucket:
+     *     {"requestType": "list_objects_v2", "sdkType": "BOLT", "bucket": "<bucket>", "aggregate": "true"}
+     *
      * b) Listing buckets from S3:
      *     {"requestType": "list_buckets", "sdkType": "S3"}
      *
@@ -60,7 +89,19 @@ public class BoltS3OpsHandler implements RequestHandler<Map<String,String>, Map<
     @Override
     public Map<String,String> handleRequest(Map<String,String> event, Context context) {
 
+        long handlerStartTime = System.nanoTime();
+        boolean coldStart = BoltStartupMetrics.beginInvocation();
+
         BoltS3OpsClient boltS3OpsClient = new BoltS3OpsClient();
-        return boltS3OpsClient.processEvent(event);
+        Map<String,String> respMap = new HashMap<>();
+        boltS3OpsClient.processEvent(event).forEach((name, value) ->
+                respMap.put(name, value instanceof String ? (String) value : PerfJson.encode(value)));
+
+        // report startup phases only if requested, so that the response format doesn't change on cold starts.
+        if (BoltStartupMetrics.isRequested(event.get("startupMetrics"))) {
+            BoltStartupMetrics.report(coldStart, System.nanoTime() - handlerStartTime)
+                    .forEach((phase, value) -> respMap.put("startup_" + phase, value));
+        }
+        return respMap;
     }
 }
@@ -1,15 +1,34 @@
 package com.gitlab.projectn_oss.bolt;
 
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * BoltS3Perf processes AWS Lambda events that are received by the handler function
@@ -26,9 +45,21 @@ public class BoltS3Perf {
         GET_OBJECT_TTFB,
         GET_OBJECT_PASSTHROUGH,
         GET_OBJECT_PASSTHROUGH_TTFB,
+        DELETE_OBJECTS_BATCH,
+        READ_AFTER_WRITE,
+        GET_OBJECT_WARMUP,
+        GET_OBJECT_HEDGED,
+        CIRCUIT_BREAKER_FAILOVER,
+        GET_OBJECT_CACHED,
+        PUT_OBJECT_GZIP,
+        MIXED_WORKLOAD,
+        SIZE_SWEEP,
         ALL
     }
 
+    // scale of throughputs (objects/ms) recorded in histograms, which record integer values.
+    static final double TP_HISTOGRAM_SCALE = 1000.0;
+
     // Bolt and S3 Clients.
     private S3Client s3;
     private S3Client boltS3;
@@ -39,13 +70,40 @@ public class BoltS3Perf {
     private int objLength;
     // type of perf to be performed.
     private RequestType requestType;
+    // max. number of keys in a single DeleteObjects request.
+    private int deleteBatchSize;
+    // number of DeleteObjects requests in flight at a time.
+    private int batchesInFlight;
+    // index of this worker and number of workers, when run by BoltS3PerfCoordinator.
+    private int workerIndex;
+    private int workerCount;
+    // include raw (mergeable) histograms in the performance statistics, when run by BoltS3PerfCoordinator.
+    private boolean emitHistograms;
 
     // list of keys for Perf tests.
     private List<String> keys;
+    // generator of key names for Perf tests.
+    private PerfKeyGenerator keyGenerator;
+    // report throughput per key prefix (for key strategies other than sequential).
+    private boolean perPrefixStats;
+    // time (System.currentTimeMillis()) by which the current phase of the test has to stop, 0 if none.
+    private long deadline;
+    // whether a phase of the test was cut short by the deadline.
+    private boolean partial;
+    // number of keys the last put / delete phase processed before its deadline.
+    private int keysProcessed;
+    // max. number of keys that fit the time budget, if auto-sized.
+    private int maxKeysFit = Integer.MAX_VALUE;
+    // drains response bodies (drainBufferSize).
+    private PerfBodyDrain bodyDrain = new PerfBodyDrain(PerfBodyDrain.DEFAULT_BUFFER_SIZE);
 
-    public BoltS3Perf() {
-        s3 = S3Client.builder().build();
-        boltS3 = BoltS3Client.builder().build();
+    /**
+     * Creates the S3 and Bolt clients of the perf tests.
+     * @param event perf parameters, incl. the retry policy and timeouts of each endpoint (see S3ClientFactory)
+     */
+    public BoltS3Perf(Map<String, String> event) {
+        s3 = BoltStartupMetrics.time("s3ClientBuild", () -> S3ClientFactory.s3(event));
+        boltS3 = BoltStartupMetrics.time("boltClientBuild", () -> S3ClientFactory.bolt(event));
     }
 
     /**
@@ -73,20 +131,81 @@ public class BoltS3Perf {
         objLength = (objLengthStr != null && !objLengthStr.isEmpty()) ?
                 Integer.parseInt(objLengthStr) : 100;
 
+        // update DeleteObjects batch size (max 1000 keys per request) and batches in flight, if passed in as input.
+        String deleteBatchSizeStr = event.get("deleteBatchSize");
+        deleteBatchSize = (deleteBatchSizeStr != null && !deleteBatchSizeStr.isEmpty()) ?
+                Integer.parseInt(deleteBatchSizeStr) : 100;
+        if (deleteBatchSize > 1000) {
+            deleteBatchSize = 1000;
+        } else if (deleteBatchSize < 1) {
+            deleteBatchSize = 1;
+        }
+
+        String batchesInFlightStr = event.get("batchesInFlight");
+        batchesInFlight = (batchesInFlightStr != null && !batchesInFlightStr.isEmpty()) ?
+                Integer.parseInt(batchesInFlightStr) : 1;
+        if (batchesInFlight < 1) {
+            batchesInFlight = 1;
+        }
+
+        // update worker index and count, if run as a worker of BoltS3PerfCoordinator.
+        String workerIndexStr = event.get("workerIndex");
+        workerIndex = (workerIndexStr != null && !workerIndexStr.isEmpty()) ?
+                Integer.parseInt(workerIndexStr) : 0;
+        String workerCountStr = event.get("workerCount");
+        workerCount = (workerCountStr != null && !workerCountStr.isEmpty()) ?
+                Integer.parseInt(workerCountStr) : 1;
+        emitHistograms = workerCountStr != null && !workerCountStr.isEmpty();
+
+        // stop before the deadline, if passed in (by BoltS3PerfHandler, from the remaining time of the invocation).
+        String deadlineStr = event.get("deadline");
+        deadline = (deadlineStr != null && !deadlineStr.isEmpty()) ? Long.parseLong(deadlineStr) : 0;
+        boolean autoSize = Boolean.parseBoolean(event.get("autoSize"));
+        Map<String, String> autoSizeStats = null;
+
         HashMap<String, Map<String, Map<String, String>>> respMap = null;
         try {
+            bodyDrain = PerfBodyDrain.fromEvent(event);
+            keyGenerator = new PerfKeyGenerator(event);
+            perPrefixStats = keyGenerator.getKeyStrategy() != PerfKeyGenerator.KeyStrategy.SEQUENTIAL;
+            boolean readOnly = requestType == RequestType.GET_OBJECT ||
+                    requestType == RequestType.GET_OBJECT_WARMUP ||
+                    requestType == RequestType.GET_OBJECT_HEDGED ||
+                    requestType == RequestType.GET_OBJECT_CACHED ||
+                    requestType == RequestType.GET_OBJECT_PASSTHROUGH ||
+                    requestType == RequestType.GET_OBJECT_TTFB ||
+                    requestType == RequestType.GET_OBJECT_PASSTHROUGH_TTFB;
+
+            // manifest keys are real objects, which the other modes would overwrite and delete.
+            if (keyGenerator.getKeyStrategy() == PerfKeyGenerator.KeyStrategy.MANIFEST && !readOnly) {
+                throw new IllegalArgumentException("keyStrategy 'manifest' is only supported by the get_object " +
+                        "modes, not by " + requestType.name().toLowerCase());
+            }
 
             // If Put, Delete, All Object then generate key names
-            // If Get Object (including passthrough), list objects (up to numKeys) to get key names.
+            // If Get Object (including passthrough), list objects (up to numKeys) to get key names, unless the
+            // keys are replayed from a manifest.
+            // Each worker of BoltS3PerfCoordinator handles numKeys keys, its share of the keys of all workers.
+            int allKeys = numKeys * workerCount;
             if (requestType == RequestType.PUT_OBJECT ||
+                    requestType == RequestType.PUT_OBJECT_GZIP ||
+                    requestType == RequestType.MIXED_WORKLOAD ||
+                    requestType == RequestType.SIZE_SWEEP ||
                     requestType == RequestType.DELETE_OBJECT ||
+                    requestType == RequestType.DELETE_OBJECTS_BATCH ||
+                    requestType == RequestType.READ_AFTER_WRITE ||
                     requestType == RequestType.ALL) {
-                keys = generateKeyNames(numKeys);
-            } else if (requestType == RequestType.GET_OBJECT ||
-                    requestType == RequestType.GET_OBJECT_PASSTHROUGH ||
-                    requestType == RequestType.GET_OBJECT_TTFB ||
-                    requestType == RequestType.GET_OBJECT_PASSTHROUGH_TTFB) {
-                keys = listObjectsV2(event.get("bucket"));
+                keys = keyGenerator.generate(allKeys, s3);
+            } else if (readOnly) {
+                keys = keyGenerator.getKeyStrategy() == PerfKeyGenerator.KeyStrategy.MANIFEST ?
+                        keyGenerator.generate(allKeys, s3) : listObjectsV2(event.get("bucket"), allKeys);
+            }
+            if (keys != null) {
+                keys = partitionKeys(keys);
+            }
+            if (autoSize && deadline > 0 && keys != null && !keys.isEmpty() &&
+                    requestType != RequestType.MIXED_WORKLOAD && requestType != RequestType.SIZE_SWEEP) {
+                autoSizeStats = autoSizeKeys(event.get("bucket"));
             }
 
             switch (requestType) {
@@ -107,6 +226,33 @@ public class BoltS3Perf {
                 case GET_OBJECT_PASSTHROUGH_TTFB:
                     respMap = getObjectPassthroughPerf(event.get("bucket"));
                     break;
+                case DELETE_OBJECTS_BATCH:
+                    respMap = deleteObjectsBatchPerf(event.get("bucket"));
+                    break;
+                case READ_AFTER_WRITE:
+                    respMap = readAfterWritePerf(event.get("bucket"), event);
+                    break;
+                case GET_OBJECT_WARMUP:
+                    respMap = getObjectWarmupPerf(event.get("bucket"), event);
+                    break;
+                case GET_OBJECT_HEDGED:
+                    respMap = getObjectHedgedPerf(event.get("bucket"), event);
+                    break;
+                case CIRCUIT_BREAKER_FAILOVER:
+                    respMap = circuitBreakerFailoverPerf(event);
+                    break;
+                case GET_OBJECT_CACHED:
+                    respMap = getObjectCachedPerf(event.get("bucket"), event);
+                    break;
+                case PUT_OBJECT_GZIP:
+                    respMap = putObjectGzipPerf(event.get("bucket"), event);
+                    break;
+                case MIXED_WORKLOAD:
+                    respMap = mixedWorkloadPerf(event.get("bucket"), event);
+                    break;
+                case SIZE_SWEEP:
+                    respMap = sizeSweepPerf(event.get("bucket"), event);
+                    break;
                 case ALL:
                     respMap = allPerf(event.get("bucket"));
                     break;
@@ -114,6 +260,19 @@ public class BoltS3Perf {
                     respMap = new HashMap<>();
                     break;
             }
+
+            // mark the statistics as partial, if a phase was cut short by the deadline.
+            if (deadline > 0) {
+                Map<String, String> deadlineStats = new HashMap<>();
+                deadlineStats.put("partial", String.valueOf(partial));
+                deadlineStats.put("remainingTime", String.format("%d ms", deadline - System.currentTimeMillis()));
+                if (autoSizeStats != null) {
+                    deadlineStats.putAll(autoSizeStats);
+                }
+                respMap.put("deadline", new HashMap<String, Map<String, String>>() {{
+                    put("summary", deadlineStats);
+                }});
+            }
         } catch (S3Exception e) {
             String msg = e.awsErrorDetails().errorMessage();
             String code = e.awsErrorDetails().errorCode();
@@ -158,23 +317,41 @@ public class BoltS3Perf {
      * @throws Exception
      */
     private HashMap<String, Map<String, Map<String, String>>> listObjectsV2Perf(String bucket) throws Exception {
-        List<Long> s3ListObjTimes = new ArrayList<>();
-        List<Long> boltListObjTimes = new ArrayList<>();
-        List<Double> s3ListObjTp = new ArrayList<>();
-        List<Double> boltListObjTp = new ArrayList<>();
+        PerfSampleRecorder s3ListObjTimes = new PerfSampleRecorder(10);
+        PerfSampleRecorder boltListObjTimes = new PerfSampleRecorder(10);
+        PerfSampleRecorder s3ListObjTp = new PerfSampleRecorder(10);
+        PerfSampleRecorder boltListObjTp = new PerfSampleRecorder(10);
+        PerfJvmStats s3ListObjJvm = new PerfJvmStats();
+        PerfJvmStats boltListObjJvm = new PerfJvmStats();
+        PerfOutcomes s3ListObjOutcomes = new PerfOutcomes(10);
+        PerfOutcomes boltListObjOutcomes = new PerfOutcomes(10);
 
         ListObjectsV2Request req = ListObjectsV2Request.builder()
                 .bucket(bucket)
                 .maxKeys(1000)
                 .build();
 
-        // list 1000 objects from S3, 10 times.
+        // list 1000 objects from S3, 10 times, in the first half of the remaining time.
+        long listDeadline = deadline;
+        deadline = phaseDeadline(listDeadline, 2);
         for (int i = 1; i <= 10 ; i++) {
+            if (pastDeadline()) {
+                break;
+            }
+            s3ListObjJvm.begin();
             long listObjStartTime = System.currentTimeMillis();
 
             ListObjectsV2Response resp;
-            resp = s3.listObjectsV2(req);
+            try {
+                resp = s3.listObjectsV2(req);
+            } catch (SdkException e) {
+                s3ListObjJvm.end();
+                s3ListObjOutcomes.failure(e, System.currentTimeMillis() - listObjStartTime);
+                continue;
+            }
             long listObjEndTime = System.currentTimeMillis();
+            s3ListObjJvm.end();
+            s3ListObjOutcomes.success(listObjEndTime - listObjStartTime);
 
             // calc latency
             long listObjV2Time = listObjEndTime - listObjStartTime;
@@ -186,12 +363,25 @@ public class BoltS3Perf {
         }
 
         // list 1000 objects from Bolt, 10 times.
+        deadline = listDeadline;
         for (int i = 1; i <= 10 ; i++) {
+            if (pastDeadline()) {
+                break;
+            }
+            boltListObjJvm.begin();
             long listObjStartTime = System.currentTimeMillis();
 
             ListObjectsV2Response resp;
-            resp = boltS3.listObjectsV2(req);
+            try {
+                resp = boltS3.listObjectsV2(req);
+            } catch (SdkException e) {
+                boltListObjJvm.end();
+                boltListObjOutcomes.failure(e, System.currentTimeMillis() - listObjStartTime);
+                continue;
+            }
             long listObjEndTime = System.currentTimeMillis();
+            boltListObjJvm.end();
+            boltListObjOutcomes.success(listObjEndTime - listObjStartTime);
 
             // calc latency
             long listObjV2Time = listObjEndTime - listObjStartTime;
@@ -204,11 +394,13 @@ public class BoltS3Perf {
 
         // calc s3 perf stats.
         Map<String, Map<String, String>> s3ListObjPerfStats = computePerfStats(s3ListObjTimes, s3ListObjTp,
-                null);
+                null, s3ListObjJvm);
+        s3ListObjPerfStats.put("outcomes", s3ListObjOutcomes.toMap());
 
         // calc bolt perf stats.
         Map<String, Map<String, String>> boltListObjPerfStats = computePerfStats(boltListObjTimes, boltListObjTp,
-                null);
+                null, boltListObjJvm);
+        boltListObjPerfStats.put("outcomes", boltListObjOutcomes.toMap());
 
         return new HashMap<String, Map<String, Map<String, String>>>() {{
            put("s3_list_objects_v2_perf_stats", s3ListObjPerfStats);
@@ -223,11 +415,22 @@ public class BoltS3Perf {
      * @throws Exception
      */
     private HashMap<String, Map<String, Map<String, String>>> putObjectPerf(String bucket) throws Exception {
-        List<Long> s3PutObjTimes = new ArrayList<>();
-        List<Long> boltPutObjTimes = new ArrayList<>();
+        PerfSampleRecorder s3PutObjTimes = new PerfSampleRecorder(keys.size());
+        PerfSampleRecorder boltPutObjTimes = new PerfSampleRecorder(keys.size());
+        Map<String, long[]> s3PutObjPrefixes = new HashMap<>();
+        Map<String, long[]> boltPutObjPrefixes = new HashMap<>();
+        PerfJvmStats s3PutObjJvm = new PerfJvmStats();
+        PerfJvmStats boltPutObjJvm = new PerfJvmStats();
+        PerfOutcomes s3PutObjOutcomes = new PerfOutcomes(keys.size());
+        PerfOutcomes boltPutObjOutcomes = new PerfOutcomes(keys.size());
 
         // Upload objects to Bolt / S3.
+        keysProcessed = 0;
         for (String key: keys) {
+            if (pastDeadline()) {
+                break;
+            }
+            keysProcessed++;
             String value = generate(objLength);
 
             PutObjectRequest putObjectRequest = PutObjectRequest
@@ -237,38 +440,289 @@ public class BoltS3Perf {
                     .build();
 
             // upload object to S3.
+            s3PutObjJvm.begin();
             long putObjStartTime = System.currentTimeMillis();
-            PutObjectResponse resp = s3.putObject(putObjectRequest, RequestBody.fromString(value));
-            long putObjEndTime = System.currentTimeMillis();
-
-            // calc latency
-            long putObjTime = putObjEndTime - putObjStartTime;
-            s3PutObjTimes.add(putObjTime);
+            try {
+                s3.putObject(putObjectRequest, RequestBody.fromString(value));
+                long putObjEndTime = System.currentTimeMillis();
+                s3PutObjJvm.end();
+                s3PutObjOutcomes.success(putObjEndTime - putObjStartTime);
+
+                // calc latency
+                long putObjTime = putObjEndTime - putObjStartTime;
+                s3PutObjTimes.add(putObjTime);
+                recordPrefix(s3PutObjPrefixes, key, putObjTime);
+            } catch (SdkException e) {
+                s3PutObjJvm.end();
+                s3PutObjOutcomes.failure(e, System.currentTimeMillis() - putObjStartTime);
+            }
 
             // upload object to Bolt.
+            boltPutObjJvm.begin();
             putObjStartTime = System.currentTimeMillis();
-            resp = boltS3.putObject(putObjectRequest, RequestBody.fromString(value));
-            putObjEndTime = System.currentTimeMillis();
-
-            // calc latency
-            putObjTime = putObjEndTime - putObjStartTime;
-            boltPutObjTimes.add(putObjTime);
+            try {
+                boltS3.putObject(putObjectRequest, RequestBody.fromString(value));
+                long putObjEndTime = System.currentTimeMillis();
+                boltPutObjJvm.end();
+                boltPutObjOutcomes.success(putObjEndTime - putObjStartTime);
+
+                // calc latency
+                long putObjTime = putObjEndTime - putObjStartTime;
+                boltPutObjTimes.add(putObjTime);
+                recordPrefix(boltPutObjPrefixes, key, putObjTime);
+            } catch (SdkException e) {
+                boltPutObjJvm.end();
+                boltPutObjOutcomes.failure(e, System.currentTimeMillis() - putObjStartTime);
+            }
         }
 
         // calc s3 perf stats.
         Map<String, Map<String, String>> s3PutObjPerfStats = computePerfStats(s3PutObjTimes, null,
-                null);
+                null, s3PutObjJvm);
+        s3PutObjPerfStats.put("outcomes", s3PutObjOutcomes.toMap());
 
         // calc bolt perf stats.
         Map<String, Map<String, String>> boltPutObjPerfStats = computePerfStats(boltPutObjTimes, null,
-                null);
+                null, boltPutObjJvm);
+        boltPutObjPerfStats.put("outcomes", boltPutObjOutcomes.toMap());
 
         return new HashMap<String, Map<String, Map<String, String>>>() {{
             put("s3_put_obj_perf_stats", s3PutObjPerfStats);
             put("bolt_put_obj_perf_stats", boltPutObjPerfStats);
+            if (perPrefixStats) {
+                put("s3_put_obj_prefix_stats", prefixPerfStats(s3PutObjPrefixes));
+                put("bolt_put_obj_prefix_stats", prefixPerfStats(boltPutObjPrefixes));
+            }
         }};
     }
 
+    /**
+     * Measures the Put Object performance (latency, throughput) of Bolt / S3 for gzip compressed vs. raw uploads, and
+     * the Get Object performance of the uploaded objects, at several compression ratios. For each ratio, each key is
+     * uploaded raw (as <key>-r<ratio>) and gzip compressed (as <key>-r<ratio>.gz, with Content-Encoding gzip).
+     * Payloads of objLength bytes are generated so that gzip compresses them by about the ratio (a 1/ratio share of
+     * random bytes, the rest zeros), and are compressed before the timed upload. After all keys of a ratio were
+     * uploaded, they are read back, decompressing gzip objects, so that raw and compressed objects are compared by
+     * the data they deliver (MB/s of uncompressed data). Failed uploads and gets are recorded as outcomes, and don't
+     * stop the test. Uploaded objects are deleted afterwards.
+     * @param bucket bucket name
+     * @param event perf parameters (compressionRatios)
+     * @return Put / Get Object performance statistics of raw and compressed objects, per compression ratio
+     * @throws Exception
+     */
+    private HashMap<String, Map<String, Map<String, String>>> putObjectGzipPerf(String bucket,
+                                                                               Map<String, String> event)
+            throws Exception {
+        String[] ratios = stringParam(event, "compressionRatios", "1,2,4,8").split(",");
+        S3Client[] clients = {s3, boltS3};
+        String[] endpoints = {"s3", "bolt"};
+        String[] variants = {"raw", "gzip"};
+
+        HashMap<String, Map<String, Map<String, String>>> respMap = new HashMap<>();
+        Map<String, Map<String, String>> summary = new HashMap<>();
+        // the ratios share the remaining time equally, as do the uploads, gets and cleanup of a ratio. Deleting the
+        // objects costs about as many requests as uploading them, so the cleanup fits in the share left for it.
+        long gzipDeadline = deadline;
+        for (int r = 0; r < ratios.length; r++) {
+            int ratio = Math.max(Integer.parseInt(ratios[r].trim()), 1);
+            long ratioDeadline = phaseDeadline(gzipDeadline, ratios.length - r);
+            PerfSampleRecorder[][] putObjTimes = new PerfSampleRecorder[2][2];
+            PerfSampleRecorder[][] getObjTimes = new PerfSampleRecorder[2][2];
+            PerfJvmStats[][] putObjJvm = new PerfJvmStats[2][2];
+            PerfJvmStats[][] getObjJvm = new PerfJvmStats[2][2];
+            PerfOutcomes[][] putObjOutcomes = new PerfOutcomes[2][2];
+            PerfOutcomes[][] getObjOutcomes = new PerfOutcomes[2][2];
+            // uncompressed bytes of the successful uploads / gets.
+            long[][] putObjBytes = new long[2][2];
+            long[][] getObjBytes = new long[2][2];
+            for (int e = 0; e < 2; e++) {
+                for (int v = 0; v < 2; v++) {
+                    putObjTimes[e][v] = new PerfSampleRecorder(keys.size());
+                    getObjTimes[e][v] = new PerfSampleRecorder(keys.size());
+                    putObjJvm[e][v] = new PerfJvmStats();
+                    getObjJvm[e][v] = new PerfJvmStats();
+                    putObjOutcomes[e][v] = new PerfOutcomes(keys.size());
+                    getObjOutcomes[e][v] = new PerfOutcomes(keys.size());
+                }
+            }
+            PerfSampleRecorder[] objSizes = {new PerfSampleRecorder(keys.size()), new PerfSampleRecorder(keys.size())};
+            long compressTimeNanos = 0;
+            List<String> uploadedKeys = new ArrayList<>();
+            List<String> putKeys = new ArrayList<>();
+
+            try {
+                // Upload raw and compressed objects to S3 / Bolt.
+                deadline = phaseDeadline(ratioDeadline, 3);
+                for (String key : keys) {
+                    if (pastDeadline()) {
+                        break;
+                    }
+                    putKeys.add(key);
+                    byte[] raw = compressiblePayload(objLength, ratio);
+                    long compressStartTime = System.nanoTime();
+                    byte[] gzip = gzip(raw);
+                    compressTimeNanos += System.nanoTime() - compressStartTime;
+                    objSizes[0].add(raw.length);
+                    objSizes[1].add(gzip.length);
+
+                    for (int v = 0; v < 2; v++) {
+                        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                                .bucket(bucket)
+                                .key(gzipPerfKey(key, ratio, v == 1))
+                                .contentEncoding(v == 1 ? "gzip" : null)
+                                .build();
+                        uploadedKeys.add(putObjectRequest.key());
+                        for (int e = 0; e < 2; e++) {
+                            RequestBody body = RequestBody.fromBytes(v == 1 ? gzip : raw);
+                            putObjJvm[e][v].begin();
+                            long putObjStartTime = System.currentTimeMillis();
+                            try {
+                                clients[e].putObject(putObjectRequest, body);
+                            } catch (SdkException ex) {
+                                putObjJvm[e][v].end();
+                                putObjOutcomes[e][v].failure(ex, System.currentTimeMillis() - putObjStartTime);
+                                continue;
+                            }
+                            long putObjEndTime = System.currentTimeMillis();
+                            putObjJvm[e][v].end();
+                            putObjOutcomes[e][v].success(putObjEndTime - putObjStartTime);
+                            putObjTimes[e][v].add(putObjEndTime - putObjStartTime);
+                            putObjBytes[e][v] += raw.length;
+                        }
+                    }
+                }
+
+                // Get the uploaded objects from S3 / Bolt.
+                deadline = phaseDeadline(ratioDeadline, 2);
+                for (String key : putKeys) {
+                    if (pastDeadline()) {
+                        break;
+                    }
+                    for (int v = 0; v < 2; v++) {
+                        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                                .bucket(bucket)
+                                .key(gzipPerfKey(key, ratio, v == 1))
+                                .build();
+                        for (int e = 0; e < 2; e++) {
+                            getObjJvm[e][v].begin();
+                            long getObjStartTime = System.currentTimeMillis();
+                            ResponseInputStream<GetObjectResponse> resp = null;
+                            long bytesRead;
+                            try {
+                                resp = clients[e].getObject(getObjectRequest);
+                                // closing the gzip stream releases the native memory of its inflater.
+                                try (InputStream data = v == 1 ?
+                                        new GZIPInputStream(resp, ObjectDigest.GZIP_BUFFER_SIZE) : resp) {
+                                    bytesRead = drain(data);
+                                }
+                            } catch (SdkException | IOException ex) {
+                                getObjJvm[e][v].end();
+                                getObjOutcomes[e][v].failure(ex, System.currentTimeMillis() - getObjStartTime);
+                                if (resp != null) {
+                                    resp.abort();
+                                }
+                                continue;
+                            }
+                            long getObjEndTime = System.currentTimeMillis();
+                            getObjJvm[e][v].end();
+                            getObjOutcomes[e][v].success(getObjEndTime - getObjStartTime);
+                            getObjTimes[e][v].add(getObjEndTime - getObjStartTime);
+                            getObjBytes[e][v] += bytesRead;
+                        }
+                    }
+                }
+            } finally {
+                // clean up the uploaded objects.
+                deleteObjectsQuietly(s3, bucket, uploadedKeys);
+                deleteObjectsQuietly(boltS3, bucket, uploadedKeys);
+            }
+
+            // calc perf stats, and throughput of uncompressed data.
+            Map<String, String> ratioSummary = new HashMap<>();
+            for (int e = 0; e < 2; e++) {
+                for (int v = 0; v < 2; v++) {
+                    Map<String, Map<String, String>> putPerfStats =
+                            computePerfStats(putObjTimes[e][v], null, objSizes[v], putObjJvm[e][v]);
+                    putPerfStats.put("outcomes", putObjOutcomes[e][v].toMap());
+                    respMap.put(endpoints[e] + "_put_obj_" + variants[v] + "_r" + ratio + "_perf_stats", putPerfStats);
+                    Map<String, Map<String, String>> getPerfStats =
+                            computePerfStats(getObjTimes[e][v], null, objSizes[0], getObjJvm[e][v]);
+                    getPerfStats.put("outcomes", getObjOutcomes[e][v].toMap());
+                    respMap.put(endpoints[e] + "_get_obj_" + variants[v] + "_r" + ratio + "_perf_stats", getPerfStats);
+                    ratioSummary.put(endpoints[e] + "PutThroughput" + (v == 1 ? "Gzip" : "Raw"),
+                            mbPerSec(putObjBytes[e][v], putObjTimes[e][v].sum()));
+                    ratioSummary.put(endpoints[e] + "GetThroughput" + (v == 1 ? "Gzip" : "Raw"),
+                            mbPerSec(getObjBytes[e][v], getObjTimes[e][v].sum()));
+                }
+            }
+            ratioSummary.put("compressionRatio", String.format("%.2f",
+                    objSizes[1].sum() > 0 ? objSizes[0].sum() / objSizes[1].sum() : 0.0));
+            ratioSummary.put("rawBytes", String.format("%.2f bytes", objSizes[0].mean()));
+            ratioSummary.put("gzipBytes", String.format("%.2f bytes", objSizes[1].mean()));
+            ratioSummary.put("compressTime", String.format("%.2f ms",
+                    putKeys.isEmpty() ? 0.0 : compressTimeNanos / 1e6 / putKeys.size()));
+            summary.put("r" + ratio, ratioSummary);
+        }
+        deadline = gzipDeadline;
+
+        respMap.put("put_obj_gzip_summary", summary);
+        return respMap;
+    }
+
+    /**
+     * Returns the key of an object of the compressed-upload perf test.
+     * @param key generated key
+     * @param ratio target compression ratio
+     * @param gzip whether the object is gzip compressed
+     * @return key name
+     */
+    private static String gzipPerfKey(String key, int ratio, boolean gzip) {
+        return key + "-r" + ratio + (gzip ? ".gz" : "");
+    }
+
+    /**
+     * Generates data that gzip compresses by about the given ratio: each 1 KB block starts with a 1/ratio share of
+     * random bytes, followed by zeros.
+     * @param length data length
+     * @param ratio target compression ratio
+     * @return generated data
+     */
+    private static byte[] compressiblePayload(int length, int ratio) {
+        byte[] data = new byte[length];
+        Random random = new Random();
+        int randomPerBlock = Math.max(1024 / ratio, 1);
+        byte[] block = new byte[randomPerBlock];
+        for (int off = 0; off < length; off += 1024) {
+            random.nextBytes(block);
+            System.arraycopy(block, 0, data, off, Math.min(randomPerBlock, length - off));
+        }
+        return data;
+    }
+
+    /**
+     * Compresses data with gzip.
+     * @param data data to be compressed
+     * @return compressed data
+     * @throws IOException
+     */
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out, ObjectDigest.GZIP_BUFFER_SIZE)) {
+            gzipOut.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Computes the throughput of a number of bytes transferred in a given time.
+     * @param bytes number of bytes
+     * @param elapsed elapsed time in ms
+     * @return throughput in MB/s
+     */
+    private static String mbPerSec(double bytes, double elapsed) {
+        return String.format("%.2f MB/s", elapsed > 0 ? (bytes / (1024.0 * 1024.0)) / (elapsed / 1000.0) : 0.0);
+    }
+
     /**
      * Measures the Delete Object performance (latency, throughput) of Bolt/S3.
      * @param bucket bucket name
@@ -276,11 +730,22 @@ public class BoltS3Perf {
      * @throws Exception
      */
     private HashMap<String, Map<String, Map<String, String>>> deleteObjectPerf(String bucket) throws Exception {
-        List<Long> s3DelObjTimes = new ArrayList<>();
-        List<Long> boltDelObjTimes = new ArrayList<>();
+        PerfSampleRecorder s3DelObjTimes = new PerfSampleRecorder(keys.size());
+        PerfSampleRecorder boltDelObjTimes = new PerfSampleRecorder(keys.size());
+        Map<String, long[]> s3DelObjPrefixes = new HashMap<>();
+        Map<String, long[]> boltDelObjPrefixes = new HashMap<>();
+        PerfJvmStats s3DelObjJvm = new PerfJvmStats();
+        PerfJvmStats boltDelObjJvm = new PerfJvmStats();
+        PerfOutcomes s3DelObjOutcomes = new PerfOutcomes(keys.size());
+        PerfOutcomes boltDelObjOutcomes = new PerfOutcomes(keys.size());
 
         // Delete objects from Bolt / S3.
+        keysProcessed = 0;
         for (String key: keys) {
+            if (pastDeadline()) {
+                break;
+            }
+            keysProcessed++;
             DeleteObjectRequest deleteObjectRequest =
                     DeleteObjectRequest
                             .builder()
@@ -289,35 +754,625 @@ public class BoltS3Perf {
                             .build();
 
             // Delete object from S3.
+            s3DelObjJvm.begin();
             long delObjStartTime = System.currentTimeMillis();
-            DeleteObjectResponse resp = s3.deleteObject(deleteObjectRequest);
-            long delObjEndTime = System.currentTimeMillis();
-
-            // calc latency
-            long delObjTime = delObjEndTime - delObjStartTime;
-            s3DelObjTimes.add(delObjTime);
+            try {
+                s3.deleteObject(deleteObjectRequest);
+                long delObjEndTime = System.currentTimeMillis();
+                s3DelObjJvm.end();
+                s3DelObjOutcomes.success(delObjEndTime - delObjStartTime);
+
+                // calc latency
+                long delObjTime = delObjEndTime - delObjStartTime;
+                s3DelObjTimes.add(delObjTime);
+                recordPrefix(s3DelObjPrefixes, key, delObjTime);
+            } catch (SdkException e) {
+                s3DelObjJvm.end();
+                s3DelObjOutcomes.failure(e, System.currentTimeMillis() - delObjStartTime);
+            }
 
             // Delete object from Bolt.
+            boltDelObjJvm.begin();
             delObjStartTime = System.currentTimeMillis();
-            resp = boltS3.deleteObject(deleteObjectRequest);
-            delObjEndTime = System.currentTimeMillis();
-
-            // calc latency
-            delObjTime = delObjEndTime - delObjStartTime;
-            boltDelObjTimes.add(delObjTime);
+            try {
+                boltS3.deleteObject(deleteObjectRequest);
+                long delObjEndTime = System.currentTimeMillis();
+                boltDelObjJvm.end();
+                boltDelObjOutcomes.success(delObjEndTime - delObjStartTime);
+
+                // calc latency
+                long delObjTime = delObjEndTime - delObjStartTime;
+                boltDelObjTimes.add(delObjTime);
+                recordPrefix(boltDelObjPrefixes, key, delObjTime);
+            } catch (SdkException e) {
+                boltDelObjJvm.end();
+                boltDelObjOutcomes.failure(e, System.currentTimeMillis() - delObjStartTime);
+            }
         }
 
         // calc s3 perf stats.
         Map<String, Map<String, String>> s3DelObjPerfStats = computePerfStats(s3DelObjTimes, null,
-                null);
+                null, s3DelObjJvm);
+        s3DelObjPerfStats.put("outcomes", s3DelObjOutcomes.toMap());
 
         // calc bolt perf stats.
         Map<String, Map<String, String>> boltDelObjPerfStats = computePerfStats(boltDelObjTimes, null,
-                null);
+                null, boltDelObjJvm);
+        boltDelObjPerfStats.put("outcomes", boltDelObjOutcomes.toMap());
 
         return new HashMap<String, Map<String, Map<String, String>>>() {{
             put("s3_del_obj_perf_stats", s3DelObjPerfStats);
             put("bolt_del_obj_perf_stats", boltDelObjPerfStats);
+            if (perPrefixStats) {
+                put("s3_del_obj_prefix_stats", prefixPerfStats(s3DelObjPrefixes));
+                put("bolt_del_obj_prefix_stats", prefixPerfStats(boltDelObjPrefixes));
+            }
+        }};
+    }
+
+    /**
+     * Measures the batched Delete Objects performance (latency, throughput) of Bolt / S3 and compares it
+     * with deleting the same keys one at a time. Keys are uploaded before each delete pass, so that both
+     * the per-key and batched passes delete existing objects. Both passes keep `batchesInFlight` requests
+     * outstanding, so that they differ only by batching. If there is a deadline, the four passes share the remaining
+     * time equally, and each pass deletes only the keys uploaded in the first half of its share (see deletePass).
+     * @param bucket bucket name
+     * @return Delete Objects (batch) performance statistics.
+     * @throws Exception
+     */
+    private HashMap<String, Map<String, Map<String, String>>> deleteObjectsBatchPerf(String bucket) throws Exception {
+        int numBatches = (keys.size() + deleteBatchSize - 1) / deleteBatchSize;
+        PerfSampleRecorder s3BatchTimes = new PerfSampleRecorder(numBatches);
+        PerfSampleRecorder boltBatchTimes = new PerfSampleRecorder(numBatches);
+        PerfSampleRecorder s3BatchTp = new PerfSampleRecorder(numBatches);
+        PerfSampleRecorder boltBatchTp = new PerfSampleRecorder(numBatches);
+        PerfOutcomes s3PerKeyOutcomes = new PerfOutcomes(keys.size());
+        PerfOutcomes boltPerKeyOutcomes = new PerfOutcomes(keys.size());
+        PerfOutcomes s3BatchOutcomes = new PerfOutcomes(numBatches);
+        PerfOutcomes boltBatchOutcomes = new PerfOutcomes(numBatches);
+
+        long[] s3PerKeyResult;
+        long[] s3BatchResult;
+        long[] boltPerKeyResult;
+        long[] boltBatchResult;
+        long batchDeadline = deadline;
+        try {
+            // Delete objects from S3, one key at a time and then in batches.
+            s3PerKeyResult = deletePass(s3, bucket, phaseDeadline(batchDeadline, 4), null, null, s3PerKeyOutcomes);
+            s3BatchResult = deletePass(s3, bucket, phaseDeadline(batchDeadline, 3), s3BatchTimes, s3BatchTp,
+                    s3BatchOutcomes);
+
+            // Delete objects from Bolt, one key at a time and then in batches.
+            boltPerKeyResult = deletePass(boltS3, bucket, phaseDeadline(batchDeadline, 2), null, null,
+                    boltPerKeyOutcomes);
+            boltBatchResult = deletePass(boltS3, bucket, batchDeadline, boltBatchTimes, boltBatchTp,
+                    boltBatchOutcomes);
+        } finally {
+            deadline = batchDeadline;
+        }
+
+        // calc s3 perf stats.
+        Map<String, Map<String, String>> s3DelObjsPerfStats = computePerfStats(s3BatchTimes, s3BatchTp,
+                null, null);
+        s3DelObjsPerfStats.put("outcomes", s3BatchOutcomes.toMap());
+        s3DelObjsPerfStats.put("perKeyOutcomes", s3PerKeyOutcomes.toMap());
+
+        // calc bolt perf stats.
+        Map<String, Map<String, String>> boltDelObjsPerfStats = computePerfStats(boltBatchTimes, boltBatchTp,
+                null, null);
+        boltDelObjsPerfStats.put("outcomes", boltBatchOutcomes.toMap());
+        boltDelObjsPerfStats.put("perKeyOutcomes", boltPerKeyOutcomes.toMap());
+
+        // keys deleted per second, per-key vs batched.
+        double s3PerKeyRate = keysPerSec(s3PerKeyResult[2] - s3PerKeyResult[1], s3PerKeyResult[0]);
+        double s3BatchRate = keysPerSec(s3BatchResult[2] - s3BatchResult[1], s3BatchResult[0]);
+        double boltPerKeyRate = keysPerSec(boltPerKeyResult[2] - boltPerKeyResult[1], boltPerKeyResult[0]);
+        double boltBatchRate = keysPerSec(boltBatchResult[2] - boltBatchResult[1], boltBatchResult[0]);
+
+        Map<String, String> summary = new HashMap<>();
+        summary.put("batchSize", String.valueOf(deleteBatchSize));
+        summary.put("batchesInFlight", String.valueOf(batchesInFlight));
+        summary.put("perKeyInFlight", String.valueOf(batchesInFlight));
+        summary.put("s3PerKey", String.format("%.2f keys/sec", s3PerKeyRate));
+        summary.put("s3PerKeyKeys", String.valueOf(s3PerKeyResult[2]));
+        summary.put("s3PerKeyErrors", String.valueOf(s3PerKeyResult[1]));
+        summary.put("s3Batch", String.format("%.2f keys/sec", s3BatchRate));
+        summary.put("s3BatchKeys", String.valueOf(s3BatchResult[2]));
+        summary.put("s3BatchErrors", String.valueOf(s3BatchResult[1]));
+        summary.put("s3BatchSpeedup", String.format("%.2f", s3PerKeyRate > 0 ? s3BatchRate / s3PerKeyRate : 0.0));
+        summary.put("boltPerKey", String.format("%.2f keys/sec", boltPerKeyRate));
+        summary.put("boltPerKeyKeys", String.valueOf(boltPerKeyResult[2]));
+        summary.put("boltPerKeyErrors", String.valueOf(boltPerKeyResult[1]));
+        summary.put("boltBatch", String.format("%.2f keys/sec", boltBatchRate));
+        summary.put("boltBatchKeys", String.valueOf(boltBatchResult[2]));
+        summary.put("boltBatchErrors", String.valueOf(boltBatchResult[1]));
+        summary.put("boltBatchSpeedup",
+                String.format("%.2f", boltPerKeyRate > 0 ? boltBatchRate / boltPerKeyRate : 0.0));
+
+        Map<String, Map<String, String>> keysDeleted = new HashMap<String, Map<String, String>>() {{
+            put("keysDeleted", summary);
+        }};
+
+        return new HashMap<String, Map<String, Map<String, String>>>() {{
+            put("s3_del_objs_batch_perf_stats", s3DelObjsPerfStats);
+            put("bolt_del_objs_batch_perf_stats", boltDelObjsPerfStats);
+            put("del_objs_batch_summary", keysDeleted);
+        }};
+    }
+
+    /**
+     * Uploads the perf keys to Bolt / S3 and deletes them again, one key at a time, or in batches if batch statistics
+     * are given. The upload stops at half of the time remaining until the deadline of the pass, and only the keys
+     * uploaded are deleted, so that the other half is left for deleting them; if the upload fails, the keys uploaded
+     * so far are deleted, without measuring performance.
+     * @param client Bolt / S3 client
+     * @param bucket bucket name
+     * @param passDeadline deadline of the pass, 0 if none
+     * @param batchTimes latency of each successful DeleteObjects request, null to delete one key at a time
+     * @param batchTp throughput (keys/ms) of each successful DeleteObjects request, null to delete one key at a time
+     * @param outcomes outcome of each DeleteObject(s) request
+     * @return elapsed time in ms, number of keys that failed to delete, and number of keys uploaded and deleted.
+     * @throws Exception
+     */
+    private long[] deletePass(S3Client client, String bucket, long passDeadline, PerfSampleRecorder batchTimes,
+                              PerfSampleRecorder batchTp, PerfOutcomes outcomes) throws Exception {
+        List<String> allKeys = keys;
+        try {
+            deadline = phaseDeadline(passDeadline, 2);
+            try {
+                uploadObjects(client, bucket);
+            } catch (RuntimeException e) {
+                deleteObjectsQuietly(client, bucket, keys.subList(0, keysProcessed));
+                throw e;
+            }
+            keys = allKeys.subList(0, keysProcessed);
+            deadline = passDeadline;
+
+            long[] result = batchTimes == null ? deleteObjectsPerKey(client, bucket, batchesInFlight, outcomes) :
+                    deleteObjectsInBatches(client, bucket, batchTimes, batchTp, outcomes);
+            return new long[] {result[0], result[1], keys.size()};
+        } finally {
+            keys = allKeys;
+        }
+    }
+
+    /**
+     * Deletes the perf keys from Bolt / S3, one DeleteObject request per key, with up to `concurrency` requests
+     * outstanding at a time. A failed delete is recorded as an outcome, and doesn't stop the pass.
+     * @param client Bolt / S3 client
+     * @param bucket bucket name
+     * @param concurrency number of DeleteObject requests in flight
+     * @param outcomes outcome of each DeleteObject request
+     * @return elapsed time in ms and number of keys that failed to delete.
+     * @throws Exception
+     */
+    private long[] deleteObjectsPerKey(S3Client client, String bucket, int concurrency, PerfOutcomes outcomes)
+            throws Exception {
+        List<Callable<Long>> deletes = new ArrayList<>();
+        for (String key: keys) {
+            DeleteObjectRequest deleteObjectRequest =
+                    DeleteObjectRequest
+                            .builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .build();
+            // outcomes are recorded on the thread that sent the request, which holds its attempts (see
+            // PerfAttemptInterceptor), one thread at a time.
+            deletes.add(() -> {
+                long delObjStartTime = System.currentTimeMillis();
+                try {
+                    client.deleteObject(deleteObjectRequest);
+                } catch (SdkException e) {
+                    synchronized (outcomes) {
+                        outcomes.failure(e, System.currentTimeMillis() - delObjStartTime);
+                    }
+                    return 1L;
+                }
+                synchronized (outcomes) {
+                    outcomes.success(System.currentTimeMillis() - delObjStartTime);
+                }
+                return 0L;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(concurrency, 1));
+        long errors = 0;
+        try {
+            long delObjsStartTime = System.currentTimeMillis();
+            List<Future<Long>> results = executor.invokeAll(deletes);
+            long elapsed = System.currentTimeMillis() - delObjsStartTime;
+
+            for (Future<Long> result : results) {
+                errors += result.get();
+            }
+            return new long[] {elapsed, errors};
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Deletes the perf keys from Bolt / S3 using DeleteObjects requests of up to `deleteBatchSize` keys,
+     * with up to `batchesInFlight` requests outstanding at a time. A failed request is recorded as an outcome (and
+     * all of its keys as failed to delete), and doesn't stop the pass.
+     * @param client Bolt / S3 client
+     * @param bucket bucket name
+     * @param batchTimes latency of each successful DeleteObjects request
+     * @param batchTp throughput (keys/ms) of each successful DeleteObjects request
+     * @param outcomes outcome of each DeleteObjects request
+     * @return elapsed time in ms and number of keys that failed to delete.
+     * @throws Exception
+     */
+    private long[] deleteObjectsInBatches(S3Client client, String bucket,
+                                          PerfSampleRecorder batchTimes,
+                                          PerfSampleRecorder batchTp,
+                                          PerfOutcomes outcomes) throws Exception {
+        List<Callable<long[]>> batches = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i += deleteBatchSize) {
+            List<ObjectIdentifier> objectIds = new ArrayList<>();
+            for (String key : keys.subList(i, Math.min(i + deleteBatchSize, keys.size()))) {
+                objectIds.add(ObjectIdentifier.builder().key(key).build());
+            }
+
+            DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest
+                    .builder()
+                    .bucket(bucket)
+                    .delete(Delete.builder().objects(objectIds).quiet(true).build())
+                    .build();
+
+            // outcomes are recorded on the thread that sent the request, which holds its attempts (see
+            // PerfAttemptInterceptor), one thread at a time; a failed batch is returned with a negative latency.
+            batches.add(() -> {
+                long delObjsStartTime = System.currentTimeMillis();
+                DeleteObjectsResponse resp;
+                try {
+                    resp = client.deleteObjects(deleteObjectsRequest);
+                } catch (SdkException e) {
+                    synchronized (outcomes) {
+                        outcomes.failure(e, System.currentTimeMillis() - delObjsStartTime);
+                    }
+                    return new long[] {-1, objectIds.size(), objectIds.size()};
+                }
+                long delObjsEndTime = System.currentTimeMillis();
+                synchronized (outcomes) {
+                    outcomes.success(delObjsEndTime - delObjsStartTime);
+                }
+                return new long[] {delObjsEndTime - delObjsStartTime, objectIds.size(), resp.errors().size()};
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(batchesInFlight);
+        long errors = 0;
+        long elapsed;
+        try {
+            long delObjsStartTime = System.currentTimeMillis();
+            List<Future<long[]>> results = executor.invokeAll(batches);
+            elapsed = System.currentTimeMillis() - delObjsStartTime;
+
+            for (Future<long[]> result : results) {
+                long[] batch = result.get();
+                errors += batch[2];
+                if (batch[0] < 0) {
+                    continue;
+                }
+                // calc latency
+                batchTimes.add(batch[0]);
+                // calc throughput
+                batchTp.add((double) (batch[1] - batch[2]) / Math.max(batch[0], 1));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return new long[] {elapsed, errors};
+    }
+
+    /**
+     * Uploads the perf keys to Bolt / S3, without measuring performance, stopping at the deadline of the phase. The
+     * number of keys uploaded (or attempted) is left in keysProcessed.
+     * @param client Bolt / S3 client
+     * @param bucket bucket name
+     */
+    private void uploadObjects(S3Client client, String bucket) {
+        keysProcessed = 0;
+        for (String key: keys) {
+            if (pastDeadline()) {
+                break;
+            }
+            keysProcessed++;
+            PutObjectRequest putObjectRequest = PutObjectRequest
+                    .builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .build();
+            client.putObject(putObjectRequest, RequestBody.fromString(generate(objLength)));
+        }
+    }
+
+    /**
+     * Deletes keys from Bolt / S3, without measuring performance, to clean up after a test; a key that can't be
+     * deleted doesn't stop the cleanup.
+     * @param client Bolt / S3 client
+     * @param bucket bucket name
+     * @param keysToDelete keys to delete
+     */
+    private static void deleteObjectsQuietly(S3Client client, String bucket, List<String> keysToDelete) {
+        for (String key : keysToDelete) {
+            try {
+                client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+            } catch (SdkException e) {
+                // the key may not have been written.
+            }
+        }
+    }
+
+    /**
+     * Reads and discards all remaining data of a response stream.
+     * @param in response stream
+     * @return number of bytes read
+     * @throws IOException
+     */
+    private long drain(InputStream in) throws IOException {
+        return bodyDrain.drain(in);
+    }
+
+    /**
+     * Reads all remaining data of a stream.
+     * @param in input stream
+     * @return data read
+     * @throws IOException
+     */
+    static byte[] readAllBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the value of an integer event parameter.
+     * @param event incoming Lambda event object
+     * @param name parameter name
+     * @param defaultValue value if the parameter is not passed
+     * @return parameter value
+     */
+    static int intParam(Map<String, String> event, String name, int defaultValue) {
+        String valueStr = event.get(name);
+        return (valueStr != null && !valueStr.isEmpty()) ? Integer.parseInt(valueStr) : defaultValue;
+    }
+
+    /**
+     * Returns the value of a string event parameter.
+     * @param event incoming Lambda event object
+     * @param name parameter name
+     * @param defaultValue value if the parameter is not passed
+     * @return parameter value
+     */
+    private static String stringParam(Map<String, String> event, String name, String defaultValue) {
+        String valueStr = event.get(name);
+        return (valueStr != null && !valueStr.isEmpty()) ? valueStr : defaultValue;
+    }
+
+    /**
+     * Computes the number of keys processed per second.
+     * @param numKeys number of keys
+     * @param elapsed elapsed time in ms
+     * @return keys per second
+     */
+    private double keysPerSec(long numKeys, long elapsed) {
+        return elapsed > 0 ? numKeys * 1000.0 / elapsed : 0.0;
+    }
+
+    /**
+     * Measures how long an object written through one endpoint takes to be readable, with the written content,
+     * through the other endpoint. Each key is written through the write endpoint and then polled through the read
+     * endpoint until the read returns the written content; up to `pollConcurrency` keys are polled concurrently. If
+     * `overwrite` is true, each key is written twice, so that reads of the previous content (stale reads) can be
+     * observed. A failed write is recorded as an outcome, and its key is not polled. Keys are deleted through the
+     * write endpoint afterwards.
+     *
+     * If there is a deadline, the first writes of overwritten keys stop once a third of the remaining time has passed.
+     * The writes then stop at a third of the time left, and polling at half of it (keys still polled then are counted
+     * as cutShort), leaving the rest for deleting the keys written.
+     *
+     * The visibility delay of a key is the time from the acknowledgement of the write to the start of the first read
+     * that returned the written content.
+     * @param bucket bucket name
+     * @param event perf parameters (writeEndpoint, pollConcurrency, pollIntervalMs, visibilityTimeoutMs, overwrite)
+     * @return read-after-write visibility statistics.
+     * @throws Exception
+     */
+    private HashMap<String, Map<String, Map<String, String>>> readAfterWritePerf(String bucket,
+                                                                                Map<String, String> event)
+            throws Exception {
+        String writeEndpoint = stringParam(event, "writeEndpoint", "s3").toLowerCase();
+        boolean writeToBolt = writeEndpoint.equals("bolt");
+        S3Client writer = writeToBolt ? boltS3 : s3;
+        S3Client reader = writeToBolt ? s3 : boltS3;
+        int pollConcurrency = Math.max(intParam(event, "pollConcurrency", 16), 1);
+        long pollIntervalMs = Math.max(intParam(event, "pollIntervalMs", 10), 0);
+        long visibilityTimeoutNanos = intParam(event, "visibilityTimeoutMs", 10000) * 1000000L;
+        boolean overwrite = Boolean.parseBoolean(event.get("overwrite"));
+
+        // previous content of the keys, if overwriting.
+        Map<String, byte[]> previous = new HashMap<>();
+        PerfSampleRecorder visibilityDelays = new PerfSampleRecorder(keys.size());
+        PerfSampleRecorder writeTimes = new PerfSampleRecorder(keys.size());
+        // outcomes of all writes, including the first writes of overwritten keys.
+        PerfOutcomes writeOutcomes = new PerfOutcomes(overwrite ? 2 * keys.size() : keys.size());
+        AtomicLong reads = new AtomicLong();
+        AtomicLong staleReads = new AtomicLong();
+        AtomicLong notFoundReads = new AtomicLong();
+        AtomicLong failedReads = new AtomicLong();
+        AtomicLong immediatelyVisible = new AtomicLong();
+        AtomicLong notVisible = new AtomicLong();
+        AtomicLong cutShort = new AtomicLong();
+        // keys written (or attempted), and the keys polled, which are a prefix of the keys written.
+        int keysWritten = 0;
+        List<String> polledKeys = keys;
+
+        long rawDeadline = deadline;
+        try {
+            if (overwrite) {
+                deadline = phaseDeadline(rawDeadline, 3);
+                for (String key : keys) {
+                    if (pastDeadline()) {
+                        break;
+                    }
+                    keysWritten++;
+                    byte[] value = generate(objLength).getBytes(StandardCharsets.UTF_8);
+                    long writeStartTime = System.currentTimeMillis();
+                    try {
+                        writer.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(),
+                                RequestBody.fromBytes(value));
+                    } catch (SdkException e) {
+                        // the key is still written and polled, without a previous content.
+                        writeOutcomes.failure(e, System.currentTimeMillis() - writeStartTime);
+                        continue;
+                    }
+                    writeOutcomes.success(System.currentTimeMillis() - writeStartTime);
+                    previous.put(key, value);
+                }
+                // only the keys written once are overwritten.
+                polledKeys = keys.subList(0, keysWritten);
+            }
+
+            // the writes get a third of the remaining time, and polling ends at half of it.
+            long pollDeadline = phaseDeadline(rawDeadline, 2);
+            deadline = phaseDeadline(rawDeadline, 3);
+
+            // a key is written only once a poller is available, so that polling of each key starts right after its
+            // write.
+            Semaphore pollers = new Semaphore(pollConcurrency);
+            ExecutorService executor = Executors.newFixedThreadPool(pollConcurrency);
+            try {
+                int keysPolled = 0;
+                for (String key : polledKeys) {
+                    if (pastDeadline()) {
+                        break;
+                    }
+                    keysPolled++;
+                    keysWritten = Math.max(keysWritten, keysPolled);
+                    byte[] value = generate(objLength).getBytes(StandardCharsets.UTF_8);
+                    byte[] previousValue = previous.get(key);
+                    PutObjectRequest putObjectRequest = PutObjectRequest.builder().bucket(bucket).key(key).build();
+                    GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(bucket).key(key).build();
+
+                    pollers.acquire();
+                    long writeStartTime = System.nanoTime();
+                    try {
+                        writer.putObject(putObjectRequest, RequestBody.fromBytes(value));
+                    } catch (SdkException e) {
+                        // no poller is started for the key.
+                        pollers.release();
+                        writeOutcomes.failure(e, (System.nanoTime() - writeStartTime) / 1000000);
+                        continue;
+                    } catch (RuntimeException e) {
+                        pollers.release();
+                        throw e;
+                    }
+                    long writeAckTime = System.nanoTime();
+                    writeTimes.add((writeAckTime - writeStartTime) / 1e6);
+                    writeOutcomes.success((writeAckTime - writeStartTime) / 1000000);
+
+                    executor.execute(() -> {
+                        try {
+                            int attempt = 0;
+                            while (true) {
+                                long readStartTime = System.nanoTime();
+                                attempt++;
+                                reads.incrementAndGet();
+                                try (ResponseInputStream<GetObjectResponse> resp =
+                                             reader.getObject(getObjectRequest)) {
+                                    byte[] content = readAllBytes(resp);
+                                    if (Arrays.equals(content, value)) {
+                                        synchronized (visibilityDelays) {
+                                            visibilityDelays.add((readStartTime - writeAckTime) / 1e3);
+                                        }
+                                        if (attempt == 1) {
+                                            immediatelyVisible.incrementAndGet();
+                                        }
+                                        return;
+                                    }
+                                    // content of a previous write (or of another writer).
+                                    staleReads.incrementAndGet();
+                                } catch (NoSuchKeyException e) {
+                                    notFoundReads.incrementAndGet();
+                                } catch (Exception e) {
+                                    failedReads.incrementAndGet();
+                                }
+                                if (System.nanoTime() - writeAckTime > visibilityTimeoutNanos) {
+                                    notVisible.incrementAndGet();
+                                    return;
+                                }
+                                if (pollDeadline > 0 && System.currentTimeMillis() >= pollDeadline) {
+                                    cutShort.incrementAndGet();
+                                    return;
+                                }
+                                if (pollIntervalMs > 0) {
+                                    Thread.sleep(pollIntervalMs);
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            pollers.release();
+                        }
+                    });
+                }
+                // wait for the polling of all keys to complete.
+                pollers.acquire(pollConcurrency);
+                polledKeys = polledKeys.subList(0, keysPolled);
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            deadline = rawDeadline;
+            // clean up the keys written, also if the test failed.
+            deleteObjectsQuietly(writer, bucket, keys.subList(0, keysWritten));
+        }
+        if (cutShort.get() > 0) {
+            partial = true;
+        }
+
+        Map<String, String> delayStats = new HashMap<>();
+        delayStats.put("average", String.format("%.3f ms", visibilityDelays.mean() / 1e3));
+        delayStats.put("p50", String.format("%.3f ms", visibilityDelays.percentile(0.5) / 1e3));
+        delayStats.put("p90", String.format("%.3f ms", visibilityDelays.percentile(0.9) / 1e3));
+        delayStats.put("p99", String.format("%.3f ms", visibilityDelays.percentile(0.99) / 1e3));
+        delayStats.put("max", String.format("%.3f ms", visibilityDelays.percentile(1.0) / 1e3));
+
+        Map<String, String> readStats = new HashMap<>();
+        readStats.put("keys", String.valueOf(polledKeys.size()));
+        readStats.put("visible", String.valueOf(visibilityDelays.size()));
+        readStats.put("immediatelyVisible", String.valueOf(immediatelyVisible.get()));
+        readStats.put("notVisible", String.valueOf(notVisible.get()));
+        readStats.put("cutShort", String.valueOf(cutShort.get()));
+        readStats.put("reads", String.valueOf(reads.get()));
+        readStats.put("staleReads", String.valueOf(staleReads.get()));
+        readStats.put("notFoundReads", String.valueOf(notFoundReads.get()));
+        readStats.put("failedReads", String.valueOf(failedReads.get()));
+
+        Map<String, String> config = new HashMap<>();
+        config.put("writeEndpoint", writeToBolt ? "bolt" : "s3");
+        config.put("readEndpoint", writeToBolt ? "s3" : "bolt");
+        config.put("pollConcurrency", String.valueOf(pollConcurrency));
+        config.put("pollInterval", String.format("%d ms", pollIntervalMs));
+        config.put("overwrite", String.valueOf(overwrite));
+
+        Map<String, Map<String, String>> writeStats = computePerfStats(writeTimes, null, null, null);
+        writeStats.put("outcomes", writeOutcomes.toMap());
+        String writeStatName = writeToBolt ? "bolt_raw_put_obj_perf_stats" : "s3_raw_put_obj_perf_stats";
+
+        return new HashMap<String, Map<String, Map<String, String>>>() {{
+            put("read_after_write_visibility", new HashMap<String, Map<String, String>>() {{
+                put("visibilityDelay", delayStats);
+                put("reads", readStats);
+                put("config", config);
+            }});
+            put(writeStatName, writeStats);
         }};
     }
 
@@ -328,19 +1383,33 @@ public class BoltS3Perf {
      * @throws Exception
      */
     private HashMap<String, Map<String, Map<String, String>>> getObjectPerf(String bucket) throws Exception {
-        List<Long> s3GetObjTimes = new ArrayList<>();
-        List<Long> boltGetObjTimes = new ArrayList<>();
+        PerfSampleRecorder s3GetObjTimes = new PerfSampleRecorder(keys.size());
+        PerfSampleRecorder boltGetObjTimes = new PerfSampleRecorder(keys.size());
+        Map<String, long[]> s3GetObjPrefixes = new HashMap<>();
+        Map<String, long[]> boltGetObjPrefixes = new HashMap<>();
 
-        List<Long> s3ObjSizes = new ArrayList<>();
-        List<Long> boltObjSizes = new ArrayList<>();
+        PerfSampleRecorder s3ObjSizes = new PerfSampleRecorder(keys.size());
+        PerfSampleRecorder boltObjSizes = new PerfSampleRecorder(keys.size());
+
+        PerfJvmStats s3GetObjJvm = new PerfJvmStats();
+        PerfJvmStats boltGetObjJvm = new PerfJvmStats();
+        PerfOutcomes s3GetObjOutcomes = new PerfOutcomes(keys.size());
+        PerfOutcomes boltGetObjOutcomes = new PerfOutcomes(keys.size());
+        PerfBodyDrain s3GetObjDrain = bodyDrain.copy();
+        PerfBodyDrain boltGetObjDrain = bodyDrain.copy();
 
         int s3CmpObjCount = 0;
         int s3UnCmpObjCount = 0;
         int boltCmpObjCount = 0;
         int boltUnCmpObjCount = 0;
 
-        // Get Objects from S3.
+        // Get Objects from S3, in the first half of the remaining time.
+        long getDeadline = deadline;
+        deadline = phaseDeadline(getDeadline, 2);
         for (String key: keys) {
+            if (pastDeadline()) {
+                break;
+            }
             GetObjectRequest getObjectRequest =
                     GetObjectRequest
                             .builder()
@@ -348,24 +1417,36 @@ public class BoltS3Perf {
                             .key(key)
                             .build();
 
+            s3GetObjJvm.begin();
             long getObjStartTime = System.currentTimeMillis();
-            ResponseInputStream<GetObjectResponse> resp =
-                    s3.getObject(getObjectRequest);
-            // If getting first byte object latency, read at most 1 byte,
-            // otherwise read the entire body.
-            if (requestType == RequestType.GET_OBJECT_TTFB) {
-                // read only first byte from the stream.
-                resp.read();
-            } else {
-                // read all data from the stream.
-                byte[] readBuffer = new byte[4096];
-                while (resp.read(readBuffer, 0, readBuffer.length) != -1);
+            ResponseInputStream<GetObjectResponse> resp = null;
+            try {
+                resp = s3.getObject(getObjectRequest);
+                // If getting first byte object latency, read at most 1 byte,
+                // otherwise read the entire body.
+                if (requestType == RequestType.GET_OBJECT_TTFB) {
+                    // read only first byte from the stream.
+                    resp.read();
+                } else {
+                    // read all data from the stream.
+                    s3GetObjDrain.drain(resp);
+                }
+            } catch (SdkException | IOException e) {
+                s3GetObjJvm.end();
+                s3GetObjOutcomes.failure(e, System.currentTimeMillis() - getObjStartTime);
+                if (resp != null) {
+                    resp.abort();
+                }
+                continue;
             }
             long getObjEndTime = System.currentTimeMillis();
+            s3GetObjJvm.end();
+            s3GetObjOutcomes.success(getObjEndTime - getObjStartTime);
 
             // calc latency
             long getObjTime = getObjEndTime - getObjStartTime;
             s3GetObjTimes.add(getObjTime);
+            recordPrefix(s3GetObjPrefixes, key, getObjTime);
 
             // count object
             String encoding = resp.response().contentEncoding();
@@ -383,7 +1464,11 @@ public class BoltS3Perf {
         }
 
         // Get Objects from Bolt.
+        deadline = getDeadline;
         for (String key: keys) {
+            if (pastDeadline()) {
+                break;
+            }
             GetObjectRequest getObjectRequest =
                     GetObjectRequest
                             .builder()
@@ -391,24 +1476,36 @@ public class BoltS3Perf {
                             .key(key)
                             .build();
 
+            boltGetObjJvm.begin();
             long getObjStartTime = System.currentTimeMillis();
-            ResponseInputStream<GetObjectResponse> resp =
-                    boltS3.getObject(getObjectRequest);
-            // If getting first byte object latency, read at most 1 byte,
-            // otherwise read the entire body.
-            if (requestType == RequestType.GET_OBJECT_TTFB) {
-                // read only first byte from the stream.
-                resp.read();
-            } else {
-                // read all data from the stream.
-                byte[] readBuffer = new byte[4096];
-                while (resp.read(readBuffer, 0, readBuffer.length) != -1);
+            ResponseInputStream<GetObjectResponse> resp = null;
+            try {
+                resp = boltS3.getObject(getObjectRequest);
+                // If getting first byte object latency, read at most 1 byte,
+                // otherwise read the entire body.
+                if (requestType == RequestType.GET_OBJECT_TTFB) {
+                    // read only first byte from the stream.
+                    resp.read();
+                } else {
+                    // read all data from the stream.
+                    boltGetObjDrain.drain(resp);
+                }
+            } catch (SdkException | IOException e) {
+                boltGetObjJvm.end();
+                boltGetObjOutcomes.failure(e, System.currentTimeMillis() - getObjStartTime);
+                if (resp != null) {
+                    resp.abort();
+                }
+                continue;
             }
             long getObjEndTime = System.currentTimeMillis();
+            boltGetObjJvm.end();
+            boltGetObjOutcomes.success(getObjEndTime - getObjStartTime);
 
             // calc latency
             long getObjTime = getObjEndTime - getObjStartTime;
             boltGetObjTimes.add(getObjTime);
+            recordPrefix(boltGetObjPrefixes, key, getObjTime);
 
             // count object
             String encoding = resp.response().contentEncoding();
@@ -427,11 +1524,19 @@ public class BoltS3Perf {
 
         // calc s3 perf stats.
         Map<String, Map<String, String>> s3GetObjPerfStats = computePerfStats(s3GetObjTimes, null,
-                s3ObjSizes);
+                s3ObjSizes, s3GetObjJvm);
+        s3GetObjPerfStats.put("outcomes", s3GetObjOutcomes.toMap());
+        if (requestType != RequestType.GET_OBJECT_TTFB) {
+            s3GetObjPerfStats.put("drain", s3GetObjDrain.toMap());
+        }
 
         // calc bolt perf stats.
         Map<String, Map<String, String>> boltGetObjPerfStats = computePerfStats(boltGetObjTimes, null,
-                boltObjSizes);
+                boltObjSizes, boltGetObjJvm);
+        boltGetObjPerfStats.put("outcomes", boltGetObjOutcomes.toMap());
+        if (requestType != RequestType.GET_OBJECT_TTFB) {
+            boltGetObjPerfStats.put("drain", boltGetObjDrain.toMap());
+        }
 
         String s3GetObjStatName, boltGetObjStatName;
         if (requestType == RequestType.GET_OBJECT_TTFB) {
@@ -459,9 +1564,546 @@ public class BoltS3Perf {
             put(s3GetObjStatName, s3GetObjPerfStats);
             put(boltGetObjStatName, boltGetObjPerfStats);
             put("object_count", objCount);
+            if (perPrefixStats) {
+                put("s3_get_obj_prefix_stats", prefixPerfStats(s3GetObjPrefixes));
+                put("bolt_get_obj_prefix_stats", prefixPerfStats(boltGetObjPrefixes));
+            }
+        }};
+    }
+
+    /**
+     * Measures the Get Object performance (latency, throughput) of Bolt with and without hedging (see
+     * HedgedS3Client), where slow Bolt requests are hedged to S3 (or a second Bolt client). Each key is read once
+     * with and once without hedging, alternating which read goes first, so that neither is favored by a warm cache.
+     * @param bucket bucket name
+     * @param event perf parameters (hedgeTarget, hedgePercentile, hedgeWindow, hedgeInitialThresholdMs)
+     * @return Get Object performance statistics with and without hedging, and the hedging counters
+     * @throws Exception
+     */
+    private HashMap<String, Map<String, Map<String, String>>> getObjectHedgedPerf(String bucket,
+                                                                                 Map<String, String> event)
+            throws Exception {
+        String hedgeTarget = stringParam(event, "hedgeTarget", "s3");
+        double hedgePercentile = Double.parseDouble(stringParam(event, "hedgePercentile", "95"));
+        if (hedgePercentile <= 0 || hedgePercentile >= 100) {
+            throw new IllegalArgumentException("Invalid hedgePercentile " + hedgePercentile + ", expected (0, 100)");
+        }
+        int hedgeWindow = intParam(event, "hedgeWindow", 100);
+        int hedgeInitialThresholdMs = intParam(event, "hedgeInitialThresholdMs", 50);
+
+        S3Client hedgeS3 = hedgeTarget.equalsIgnoreCase("bolt") ? S3ClientFactory.bolt(event) : s3;
+        HedgedS3Client hedgedBoltS3 = new HedgedS3Client(boltS3, hedgeS3, hedgePercentile / 100.0, hedgeWindow,
+                hedgeInitialThresholdMs);
+
+        PerfSampleRecorder boltGetObjTimes = new PerfSampleRecorder(keys.size());
+        PerfSampleRecorder hedgedGetObjTimes = new PerfSampleRecorder(keys.size());
+        // JVM stats of the hedged reads aren't reported, as the hedged requests run on the executor threads of
+        // HedgedS3Client, not on the calling thread they are measured on.
+        PerfJvmStats boltGetObjJvm = new PerfJvmStats();
+        PerfOutcomes boltGetObjOutcomes = new PerfOutcomes(keys.size());
+        PerfOutcomes hedgedGetObjOutcomes = new PerfOutcomes(keys.size());
+
+        try {
+            for (int i = 0; i < keys.size() && !pastDeadline(); i++) {
+                GetObjectRequest getObjectRequest =
+                        GetObjectRequest
+                                .builder()
+                                .bucket(bucket)
+                                .key(keys.get(i))
+                                .build();
+
+                if (i % 2 == 0) {
+                    recordGetObject(boltS3, getObjectRequest, boltGetObjTimes, boltGetObjJvm, boltGetObjOutcomes);
+                    recordGetObject(hedgedBoltS3, getObjectRequest, hedgedGetObjTimes, null, hedgedGetObjOutcomes);
+                } else {
+                    recordGetObject(hedgedBoltS3, getObjectRequest, hedgedGetObjTimes, null, hedgedGetObjOutcomes);
+                    recordGetObject(boltS3, getObjectRequest, boltGetObjTimes, boltGetObjJvm, boltGetObjOutcomes);
+                }
+            }
+        } finally {
+            hedgedBoltS3.close();
+            if (hedgeS3 != s3) {
+                hedgeS3.close();
+            }
+        }
+
+        // calc bolt perf stats, including p99 which hedging targets.
+        long boltP99 = (long) boltGetObjTimes.percentile(0.99);
+        long hedgedP99 = (long) hedgedGetObjTimes.percentile(0.99);
+        Map<String, Map<String, String>> boltGetObjPerfStats = computePerfStats(boltGetObjTimes, null,
+                null, boltGetObjJvm);
+        boltGetObjPerfStats.get("latency").put("p99", String.format("%d ms", boltP99));
+        boltGetObjPerfStats.put("outcomes", boltGetObjOutcomes.toMap());
+        Map<String, Map<String, String>> hedgedGetObjPerfStats = computePerfStats(hedgedGetObjTimes, null,
+                null, null);
+        hedgedGetObjPerfStats.get("latency").put("p99", String.format("%d ms", hedgedP99));
+        hedgedGetObjPerfStats.put("outcomes", hedgedGetObjOutcomes.toMap());
+
+        Map<String, String> hedgeStats = hedgedBoltS3.getStats();
+        hedgeStats.put("hedgeTarget", hedgeTarget.toLowerCase());
+
+        return new HashMap<String, Map<String, Map<String, String>>>() {{
+            put("bolt_get_obj_perf_stats", boltGetObjPerfStats);
+            put("bolt_get_obj_hedged_perf_stats", hedgedGetObjPerfStats);
+            put("hedge", new HashMap<String, Map<String, String>>() {{
+                put("summary", hedgeStats);
+            }});
         }};
     }
 
+    /**
+     * Measures how quickly CircuitBreakerS3Client restores throughput when Bolt is degraded, against local in-memory
+     * stand-ins (LocalS3Client) for Bolt and S3, so that faults can be injected. Objects are read in a loop for
+     * `durationMs`; Bolt fails every request (after `faultLatencyMs`, as a timeout would) from `faultStartMs` for
+     * `faultDurationMs`. The scenario runs once reading from Bolt directly and once through the breaker, and reports
+     * the throughput before, during and after the fault, the throughput of each interval, and for the breaker the time
+     * from the fault start until it opened and from the fault end until it closed again. If there is a deadline, the
+     * two runs share the remaining time equally; the objects of a run are uploaded in up to half of its share, and the
+     * run is cut short to the rest of it (the duration it ran is reported).
+     * @param event perf parameters (durationMs, faultStartMs, faultDurationMs, faultLatencyMs, boltLatencyMs,
+     *              s3LatencyMs, intervalMs, and the breaker thresholds cbWindow, cbMinimumCalls, cbFailureRate,
+     *              cbSlowCallMs, cbSlowCallRate, cbOpenMs, cbHalfOpenProbes)
+     * @return failover performance statistics, with and without the breaker
+     */
+    private HashMap<String, Map<String, Map<String, String>>> circuitBreakerFailoverPerf(Map<String, String> event) {
+        long durationMs = intParam(event, "durationMs", 10000);
+        long faultStartMs = intParam(event, "faultStartMs", 2000);
+        long faultDurationMs = intParam(event, "faultDurationMs", 4000);
+        long faultLatencyMs = intParam(event, "faultLatencyMs", 200);
+        long boltLatencyMs = intParam(event, "boltLatencyMs", 1);
+        long s3LatencyMs = intParam(event, "s3LatencyMs", 3);
+        long intervalMs = Math.max(intParam(event, "intervalMs", 500), 1);
+
+        HashMap<String, Map<String, Map<String, String>>> respMap = new HashMap<>();
+        long failoverDeadline = deadline;
+        for (boolean withBreaker : new boolean[] {false, true}) {
+            long runDeadline = phaseDeadline(failoverDeadline, withBreaker ? 1 : 2);
+            LocalS3Client localBolt = new LocalS3Client(boltLatencyMs, faultLatencyMs);
+            LocalS3Client localS3 = new LocalS3Client(s3LatencyMs, faultLatencyMs);
+            List<String> localKeys = new ArrayList<>();
+            // the objects are uploaded in up to half of the share of the run, but at least one, to read from.
+            deadline = phaseDeadline(runDeadline, 2);
+            for (int i = 0; i < Math.max(numKeys, 1); i++) {
+                if (i > 0 && pastDeadline()) {
+                    break;
+                }
+                String key = "bolt-s3-perf" + i;
+                PutObjectRequest putObjectRequest = PutObjectRequest.builder().bucket("local").key(key).build();
+                RequestBody body = RequestBody.fromString(generate(objLength));
+                localBolt.putObject(putObjectRequest, body);
+                localS3.putObject(putObjectRequest, body);
+                localKeys.add(key);
+            }
+            deadline = failoverDeadline;
+
+            CircuitBreakerS3Client breaker = new CircuitBreakerS3Client(localBolt, localS3,
+                    intParam(event, "cbWindow", 10), intParam(event, "cbMinimumCalls", 5),
+                    intParam(event, "cbFailureRate", 50), intParam(event, "cbSlowCallMs", 1000),
+                    intParam(event, "cbSlowCallRate", 50), intParam(event, "cbOpenMs", 1000),
+                    intParam(event, "cbHalfOpenProbes", 3));
+            S3Client client = withBreaker ? breaker : localBolt;
+
+            // the run is cut short to its share of the remaining time, if there is a deadline.
+            long runMs = durationMs;
+            if (runDeadline > 0 && runDeadline - System.currentTimeMillis() < runMs) {
+                runMs = Math.max(runDeadline - System.currentTimeMillis(), 0);
+                partial = true;
+            }
+            long[] intervalOps = new long[(int) ((runMs + intervalMs - 1) / intervalMs)];
+            long[] phaseOps = new long[3];
+            long errors = 0;
+            long openedAt = -1;
+            long closedAt = -1;
+            long startTime = System.currentTimeMillis();
+            long elapsed;
+            for (int i = 0; (elapsed = System.currentTimeMillis() - startTime) < runMs; i++) {
+                boolean faulted = elapsed >= faultStartMs && elapsed < faultStartMs + faultDurationMs;
+                localBolt.setDegraded(faulted);
+                GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                        .bucket("local")
+                        .key(localKeys.get(i % localKeys.size()))
+                        .build();
+                try {
+                    drain(client.getObject(getObjectRequest));
+                    long end = System.currentTimeMillis() - startTime;
+                    if (end < runMs) {
+                        intervalOps[(int) (end / intervalMs)]++;
+                        phaseOps[end < faultStartMs ? 0 : (end < faultStartMs + faultDurationMs ? 1 : 2)]++;
+                    }
+                } catch (Exception e) {
+                    errors++;
+                }
+
+                if (withBreaker) {
+                    CircuitBreakerS3Client.State state = breaker.getState();
+                    long now = System.currentTimeMillis() - startTime;
+                    if (openedAt < 0 && state == CircuitBreakerS3Client.State.OPEN) {
+                        openedAt = now;
+                    } else if (openedAt >= 0 && closedAt < 0 && now >= faultStartMs + faultDurationMs &&
+                            state == CircuitBreakerS3Client.State.CLOSED) {
+                        closedAt = now;
+                    }
+                }
+            }
+
+            StringBuilder timeline = new StringBuilder();
+            for (long ops : intervalOps) {
+                if (timeline.length() > 0) {
+                    timeline.append(',');
+                }
+                timeline.append(String.format("%.0f", ops * 1000.0 / intervalMs));
+            }
+            long faultEndMs = Math.min(faultStartMs + faultDurationMs, runMs);
+            long beforeMs = Math.min(faultStartMs, runMs);
+            long failoverTime = openedAt >= 0 ? openedAt - faultStartMs : -1;
+            long recoveryTime = closedAt >= 0 ? closedAt - faultEndMs : -1;
+            long numErrors = errors;
+            long duration = runMs;
+
+            Map<String, String> tpPerfStats = new HashMap<String, String>() {{
+                put("beforeFault", String.format("%.2f ops/sec", opsPerSec(phaseOps[0], beforeMs)));
+                put("duringFault", String.format("%.2f ops/sec", opsPerSec(phaseOps[1], faultEndMs - beforeMs)));
+                put("afterFault", String.format("%.2f ops/sec", opsPerSec(phaseOps[2], duration - faultEndMs)));
+                put("intervals", timeline.toString());
+                put("intervalMs", String.format("%d ms", intervalMs));
+            }};
+            Map<String, String> failoverStats = new HashMap<String, String>() {{
+                put("duration", String.format("%d ms", duration));
+                put("ops", String.valueOf(phaseOps[0] + phaseOps[1] + phaseOps[2]));
+                put("errors", String.valueOf(numErrors));
+                if (withBreaker) {
+                    put("failoverTime", failoverTime >= 0 ? String.format("%d ms", failoverTime) : "not opened");
+                    put("recoveryTime", recoveryTime >= 0 ? String.format("%d ms", recoveryTime) : "not closed");
+                }
+            }};
+
+            Map<String, Map<String, String>> perfStats = new HashMap<>();
+            perfStats.put("throughput", tpPerfStats);
+            perfStats.put("failover", failoverStats);
+            if (withBreaker) {
+                perfStats.put("circuitBreaker", breaker.getStats());
+                respMap.put("bolt_circuit_breaker_perf_stats", perfStats);
+            } else {
+                respMap.put("bolt_direct_perf_stats", perfStats);
+            }
+        }
+        return respMap;
+    }
+
+    /**
+     * Computes the number of operations per second.
+     * @param ops number of operations
+     * @param elapsedMs elapsed time in ms
+     * @return operations per second, 0 if no time elapsed
+     */
+    private static double opsPerSec(long ops, long elapsedMs) {
+        return elapsedMs > 0 ? ops * 1000.0 / elapsedMs : 0.0;
+    }
+
+    /**
+     * Measures the Get Object performance (latency, throughput) of Bolt with and without a local read-through cache
+     * (see CachingS3Client). A sequence of `requests` keys is drawn from the listed keys with Zipf popularity
+     * (skew `zipfSkew`, the first keys being the most popular); each key of the sequence is read from Bolt directly
+     * and through the cache, alternating which read goes first, so that neither is favored by a warm Bolt cache.
+     * @param bucket bucket name
+     * @param event perf parameters (requests, zipfSkew, cacheBytes, cacheObjectBytes, offHeapBytes,
+     *              revalidateAfterMs)
+     * @return Get Object performance statistics with and without the cache, and the cache counters
+     * @throws Exception
+     */
+    private HashMap<String, Map<String, Map<String, String>>> getObjectCachedPerf(String bucket,
+                                                                                 Map<String, String> event)
+            throws Exception {
+        int numRequests = Math.max(intParam(event, "requests", 1000), 1);
+        double zipfSkew = Double.parseDouble(stringParam(event, "zipfSkew", "1.0"));
+        long cacheBytes = Long.parseLong(stringParam(event, "cacheBytes", "67108864"));
+        long cacheObjectBytes = Long.parseLong(stringParam(event, "cacheObjectBytes", "1048576"));
+        long offHeapBytes = Long.parseLong(stringParam(event, "offHeapBytes", "0"));
+        long revalidateAfterMs = Long.parseLong(stringParam(event, "revalidateAfterMs", "60000"));
+
+        // draw the key sequence, by inverting the cumulative Zipf distribution.
+        double[] cdf = new double[keys.size()];
+        double total = 0;
+        for (int i = 0; i < cdf.length; i++) {
+            total += 1.0 / Math.pow(i + 1, zipfSkew);
+            cdf[i] = total;
+        }
+        SecureRandom random = new SecureRandom();
+        // no requests, and empty statistics, if no keys were listed.
+        int[] sequence = new int[keys.isEmpty() ? 0 : numRequests];
+        for (int i = 0; i < sequence.length; i++) {
+            int idx = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            sequence[i] = Math.min(idx >= 0 ? idx : -idx - 1, cdf.length - 1);
+        }
+
+        CachingS3Client cachedBoltS3 = new CachingS3Client(boltS3, cacheBytes, cacheObjectBytes, offHeapBytes,
+                revalidateAfterMs);
+        PerfSampleRecorder boltGetObjTimes = new PerfSampleRecorder(numRequests);
+        PerfSampleRecorder cachedGetObjTimes = new PerfSampleRecorder(numRequests);
+        PerfJvmStats boltGetObjJvm = new PerfJvmStats();
+        PerfJvmStats cachedGetObjJvm = new PerfJvmStats();
+        PerfOutcomes boltGetObjOutcomes = new PerfOutcomes(numRequests);
+        PerfOutcomes cachedGetObjOutcomes = new PerfOutcomes(numRequests);
+
+        // each key of the sequence is read once from Bolt and once through the cache, alternating which read goes
+        // first, so that neither is favored by a warm Bolt cache.
+        for (int i = 0; i < sequence.length && !pastDeadline(); i++) {
+            GetObjectRequest getObjectRequest =
+                    GetObjectRequest
+                            .builder()
+                            .bucket(bucket)
+                            .key(keys.get(sequence[i]))
+                            .build();
+
+            if (i % 2 == 0) {
+                recordGetObject(boltS3, getObjectRequest, boltGetObjTimes, boltGetObjJvm, boltGetObjOutcomes);
+                recordGetObject(cachedBoltS3, getObjectRequest, cachedGetObjTimes, cachedGetObjJvm,
+                        cachedGetObjOutcomes);
+            } else {
+                recordGetObject(cachedBoltS3, getObjectRequest, cachedGetObjTimes, cachedGetObjJvm,
+                        cachedGetObjOutcomes);
+                recordGetObject(boltS3, getObjectRequest, boltGetObjTimes, boltGetObjJvm, boltGetObjOutcomes);
+            }
+        }
+
+        Map<String, Map<String, String>> boltGetObjPerfStats = computePerfStats(boltGetObjTimes, null,
+                null, boltGetObjJvm);
+        Map<String, Map<String, String>> cachedGetObjPerfStats = computePerfStats(cachedGetObjTimes, null,
+                null, cachedGetObjJvm);
+        boltGetObjPerfStats.put("outcomes", boltGetObjOutcomes.toMap());
+        cachedGetObjPerfStats.put("outcomes", cachedGetObjOutcomes.toMap());
+        Map<String, String> cacheStats = cachedBoltS3.getStats();
+        cacheStats.put("zipfSkew", String.valueOf(zipfSkew));
+        cacheStats.put("distinctKeys", String.valueOf(keys.size()));
+
+        return new HashMap<String, Map<String, Map<String, String>>>() {{
+            put("bolt_get_obj_perf_stats", boltGetObjPerfStats);
+            put("bolt_get_obj_cached_perf_stats", cachedGetObjPerfStats);
+            put("cache", new HashMap<String, Map<String, String>>() {{
+                put("summary", cacheStats);
+            }});
+        }};
+    }
+
+    /**
+     * Gets an object, reading all of its data, and records its latency and outcome. A failed read is counted by
+     * error code, and its latency is not recorded, so that it doesn't stop the test.
+     * @param client client to get the object from
+     * @param getObjectRequest request
+     * @param getObjTimes latencies of successful reads, updated with this read
+     * @param jvmStats JVM activity inside the timed window, or null if not measured
+     * @param outcomes outcome of each read, updated with this read
+     */
+    private void recordGetObject(S3Client client, GetObjectRequest getObjectRequest, PerfSampleRecorder getObjTimes,
+                                 PerfJvmStats jvmStats, PerfOutcomes outcomes) {
+        if (jvmStats != null) {
+            jvmStats.begin();
+        }
+        long getObjStartTime = System.currentTimeMillis();
+        ResponseInputStream<GetObjectResponse> resp = null;
+        try {
+            resp = client.getObject(getObjectRequest);
+            drain(resp);
+        } catch (SdkException | IOException e) {
+            if (jvmStats != null) {
+                jvmStats.end();
+            }
+            outcomes.failure(e, System.currentTimeMillis() - getObjStartTime);
+            if (resp != null) {
+                resp.abort();
+            }
+            return;
+        }
+        long getObjEndTime = System.currentTimeMillis();
+        if (jvmStats != null) {
+            jvmStats.end();
+        }
+        outcomes.success(getObjEndTime - getObjStartTime);
+        getObjTimes.add(getObjEndTime - getObjStartTime);
+        closeQuietly(resp);
+    }
+
+    /**
+     * Closes a fully read response stream.
+     * @param resp response stream
+     */
+    private static void closeQuietly(InputStream resp) {
+        try {
+            resp.close();
+        } catch (IOException e) {
+            // all data was read, nothing is lost.
+        }
+    }
+
+    /**
+     * Measures the Get Object performance (latency, throughput) of Bolt / S3 over several passes over the same keys,
+     * to tell cold (first read) from warm (repeated read) Bolt cache behavior. Keys are read in the same order in
+     * every pass. If `workingSetBytes` is passed, objects of `objLength` bytes are uploaded (to both Bolt and S3)
+     * until their total size reaches `workingSetBytes`, so that a working set larger than the expected cache size can
+     * be read, and deleted afterwards; otherwise the first `numKeys` objects of the bucket are read. The working set
+     * is capped at 1000 keys per worker, and its upload to each endpoint at a quarter of the remaining time, after
+     * which only the keys uploaded to both endpoints are read (and the statistics are marked partial).
+     *
+     * The warm-up curve reports the p50 latency of each pass relative to the first pass, and the first pass whose
+     * p50 latency is within 10% of the last pass.
+     * @param bucket bucket name
+     * @param event perf parameters (passes, workingSetBytes)
+     * @return Get Object performance statistics of each pass
+     * @throws Exception
+     */
+    private HashMap<String, Map<String, Map<String, String>>> getObjectWarmupPerf(String bucket,
+                                                                                 Map<String, String> event)
+            throws Exception {
+        int passes = Math.max(intParam(event, "passes", 3), 1);
+        String workingSetBytesStr = event.get("workingSetBytes");
+        long workingSetBytes = (workingSetBytesStr != null && !workingSetBytesStr.isEmpty()) ?
+                Long.parseLong(workingSetBytesStr) : 0;
+
+        HashMap<String, Map<String, Map<String, String>>> respMap = new HashMap<>();
+        double[] s3PassP50 = new double[passes];
+        double[] boltPassP50 = new double[passes];
+        Map<String, String> s3PassTp = new HashMap<>();
+        Map<String, String> boltPassTp = new HashMap<>();
+
+        long warmupDeadline = deadline;
+        List<String> workingSet = new ArrayList<>();
+        int s3Uploaded = 0;
+        int boltUploaded = 0;
+        try {
+            // upload a working set of the requested size, of up to 1000 keys per worker (as numKeys), each endpoint
+            // in up to a quarter of the remaining time; only the keys uploaded to both endpoints are read.
+            if (workingSetBytes > 0) {
+                long numObjects = Math.min((workingSetBytes + objLength - 1) / Math.max(objLength, 1),
+                        1000L * workerCount);
+                for (long i = 0; i < numObjects; i++) {
+                    workingSet.add("bolt-s3-perf-warmup/" + i);
+                }
+                keys = workingSet = partitionKeys(workingSet);
+                deadline = phaseDeadline(warmupDeadline, 4);
+                try {
+                    uploadObjects(s3, bucket);
+                } finally {
+                    s3Uploaded = keysProcessed;
+                }
+                keys = workingSet.subList(0, s3Uploaded);
+                deadline = phaseDeadline(warmupDeadline, 3);
+                try {
+                    uploadObjects(boltS3, bucket);
+                } finally {
+                    boltUploaded = keysProcessed;
+                }
+                keys = workingSet.subList(0, boltUploaded);
+                deadline = warmupDeadline;
+            }
+
+            for (int pass = 1; pass <= passes && !pastDeadline(); pass++) {
+                respMap.put("s3_get_obj_warmup_pass" + pass + "_perf_stats",
+                        getObjectPass(s3, bucket, s3PassP50, s3PassTp, pass));
+                respMap.put("bolt_get_obj_warmup_pass" + pass + "_perf_stats",
+                        getObjectPass(boltS3, bucket, boltPassP50, boltPassTp, pass));
+            }
+        } finally {
+            deadline = warmupDeadline;
+            // clean up the keys of the working set that were uploaded.
+            deleteObjectsQuietly(s3, bucket, workingSet.subList(0, s3Uploaded));
+            deleteObjectsQuietly(boltS3, bucket, workingSet.subList(0, boltUploaded));
+        }
+
+        Map<String, String> config = new HashMap<>();
+        config.put("passes", String.valueOf(passes));
+        config.put("keys", String.valueOf(keys.size()));
+        config.put("workingSetBytes", workingSetBytes > 0 ? String.valueOf(workingSetBytes) : "existing objects");
+
+        respMap.put("get_obj_warmup_summary", new HashMap<String, Map<String, String>>() {{
+            put("s3WarmupCurve", warmupCurve(s3PassP50));
+            put("boltWarmupCurve", warmupCurve(boltPassP50));
+            put("s3PassThroughput", s3PassTp);
+            put("boltPassThroughput", boltPassTp);
+            put("config", config);
+        }});
+        return respMap;
+    }
+
+    /**
+     * Reads all keys once from Bolt / S3, as one pass of the warm-up perf test.
+     * @param client Bolt / S3 client
+     * @param bucket bucket name
+     * @param passP50 p50 latency of each pass, updated with this pass
+     * @param passTp throughput of each pass, updated with this pass
+     * @param pass pass number (1-based)
+     * @return Get Object performance statistics of the pass
+     * @throws Exception
+     */
+    private Map<String, Map<String, String>> getObjectPass(S3Client client, String bucket, double[] passP50,
+                                                           Map<String, String> passTp, int pass) throws Exception {
+        PerfSampleRecorder getObjTimes = new PerfSampleRecorder(keys.size());
+        PerfSampleRecorder objSizes = new PerfSampleRecorder(keys.size());
+        PerfJvmStats getObjJvm = new PerfJvmStats();
+        PerfOutcomes getObjOutcomes = new PerfOutcomes(keys.size());
+        long bytesRead = 0;
+
+        long passStartTime = System.currentTimeMillis();
+        for (String key : keys) {
+            if (pastDeadline()) {
+                break;
+            }
+            GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(bucket).key(key).build();
+
+            getObjJvm.begin();
+            long getObjStartTime = System.currentTimeMillis();
+            ResponseInputStream<GetObjectResponse> resp = null;
+            long objBytesRead;
+            try {
+                resp = client.getObject(getObjectRequest);
+                objBytesRead = drain(resp);
+            } catch (SdkException | IOException e) {
+                getObjJvm.end();
+                getObjOutcomes.failure(e, System.currentTimeMillis() - getObjStartTime);
+                if (resp != null) {
+                    resp.abort();
+                }
+                continue;
+            }
+            long getObjEndTime = System.currentTimeMillis();
+            getObjJvm.end();
+            getObjOutcomes.success(getObjEndTime - getObjStartTime);
+
+            // calc latency
+            getObjTimes.add(getObjEndTime - getObjStartTime);
+            objSizes.add(objBytesRead);
+            bytesRead += objBytesRead;
+            closeQuietly(resp);
+        }
+        long passTime = System.currentTimeMillis() - passStartTime;
+
+        Map<String, Map<String, String>> perfStats = computePerfStats(getObjTimes, null, objSizes, getObjJvm);
+        perfStats.put("outcomes", getObjOutcomes.toMap());
+        passP50[pass - 1] = getObjTimes.percentile(0.5);
+        passTp.put("pass" + pass, String.format("%.2f MB/s",
+                passTime > 0 ? (bytesRead / (1024.0 * 1024.0)) / (passTime / 1000.0) : 0.0));
+        return perfStats;
+    }
+
+    /**
+     * Computes the warm-up curve: p50 latency of each pass relative to the first pass, and the first pass whose p50
+     * latency is within 10% of the last pass.
+     * @param passP50 p50 latency of each pass
+     * @return warm-up curve
+     */
+    private Map<String, String> warmupCurve(double[] passP50) {
+        Map<String, String> curve = new HashMap<>();
+        double last = passP50[passP50.length - 1];
+        int warmAfterPass = passP50.length;
+        for (int i = passP50.length - 1; i >= 0 && Math.abs(passP50[i] - last) <= 0.1 * Math.max(last, 1); i--) {
+            warmAfterPass = i + 1;
+        }
+        for (int i = 0; i < passP50.length; i++) {
+            curve.put("pass" + (i + 1), String.format("%.2f", passP50[0] > 0 ? passP50[i] / passP50[0] : 1.0));
+        }
+        curve.put("warmAfterPass", String.valueOf(warmAfterPass));
+        return curve;
+    }
+
     /**
      * Measures the Get Object passthrough performance (latency, throughput) of Bolt / S3.
      * @param bucket bucket name
@@ -469,15 +2111,22 @@ public class BoltS3Perf {
      * @throws Exception
      */
     private HashMap<String, Map<String, Map<String, String>>> getObjectPassthroughPerf(String bucket) throws Exception {
-        List<Long> boltGetObjTimes = new ArrayList<>();
+        PerfSampleRecorder boltGetObjTimes = new PerfSampleRecorder(keys.size());
 
-        List<Long> boltObjSizes = new ArrayList<>();
+        PerfSampleRecorder boltObjSizes = new PerfSampleRecorder(keys.size());
+
+        PerfJvmStats boltGetObjPtJvm = new PerfJvmStats();
+        PerfOutcomes boltGetObjPtOutcomes = new PerfOutcomes(keys.size());
+        PerfBodyDrain boltGetObjPtDrain = bodyDrain.copy();
 
         int boltCmpObjCount = 0;
         int boltUnCmpObjCount = 0;
 
         // Get Objects via passthrough from Bolt.
         for (String key: keys) {
+            if (pastDeadline()) {
+                break;
+            }
             GetObjectRequest getObjectRequest =
                     GetObjectRequest
                             .builder()
@@ -485,20 +2134,31 @@ public class BoltS3Perf {
                             .key(key)
                             .build();
 
+            boltGetObjPtJvm.begin();
             long getObjStartTime = System.currentTimeMillis();
-            ResponseInputStream<GetObjectResponse> resp =
-                    boltS3.getObject(getObjectRequest);
-            // If getting first byte object latency, read at most 1 byte,
-            // otherwise read the entire body.
-            if (requestType == RequestType.GET_OBJECT_PASSTHROUGH_TTFB) {
-                // read only first byte from the stream.
-                resp.read();
-            } else {
-                // read all data from the stream.
-                byte[] readBuffer = new byte[4096];
-                while (resp.read(readBuffer, 0, readBuffer.length) != -1);
+            ResponseInputStream<GetObjectResponse> resp = null;
+            try {
+                resp = boltS3.getObject(getObjectRequest);
+                // If getting first byte object latency, read at most 1 byte,
+                // otherwise read the entire body.
+                if (requestType == RequestType.GET_OBJECT_PASSTHROUGH_TTFB) {
+                    // read only first byte from the stream.
+                    resp.read();
+                } else {
+                    // read all data from the stream.
+                    boltGetObjPtDrain.drain(resp);
+                }
+            } catch (SdkException | IOException e) {
+                boltGetObjPtJvm.end();
+                boltGetObjPtOutcomes.failure(e, System.currentTimeMillis() - getObjStartTime);
+                if (resp != null) {
+                    resp.abort();
+                }
+                continue;
             }
             long getObjEndTime = System.currentTimeMillis();
+            boltGetObjPtJvm.end();
+            boltGetObjPtOutcomes.success(getObjEndTime - getObjStartTime);
 
             // calc latency
             long getObjTime = getObjEndTime - getObjStartTime;
@@ -521,7 +2181,11 @@ public class BoltS3Perf {
 
         // calc bolt perf stats.
         Map<String, Map<String, String>> boltGetObjPtPerfStats = computePerfStats(boltGetObjTimes, null,
-                boltObjSizes);
+                boltObjSizes, boltGetObjPtJvm);
+        boltGetObjPtPerfStats.put("outcomes", boltGetObjPtOutcomes.toMap());
+        if (requestType != RequestType.GET_OBJECT_PASSTHROUGH_TTFB) {
+            boltGetObjPtPerfStats.put("drain", boltGetObjPtDrain.toMap());
+        }
 
         String boltGetObjPtStatName;
         if (requestType == RequestType.GET_OBJECT_PASSTHROUGH_TTFB) {
@@ -544,6 +2208,324 @@ public class BoltS3Perf {
         }};
     }
 
+    /**
+     * Measures the performance (latency, throughput) of Bolt / S3 under a mixed workload: a weighted mix of Get, Put,
+     * Head, List and Delete Object requests, issued concurrently against a shared key space (see PerfScenario). The
+     * numKeys keys are uploaded to both Bolt and S3 first (not measured, and only as many as fit in a third of the
+     * time of an endpoint, if there is a deadline; keys that fail to upload are left out and counted as uploadFailed);
+     * the scenario then runs on S3 and on Bolt in turn, each starting from the same key space, and the keys left
+     * afterwards are deleted.
+     * @param bucket bucket name
+     * @param event perf parameters (scenario, mix, concurrency, requests)
+     * @return performance statistics of each operation of the mix, per endpoint, and a summary of each run
+     * @throws Exception
+     */
+    private HashMap<String, Map<String, Map<String, String>>> mixedWorkloadPerf(String bucket,
+                                                                               Map<String, String> event)
+            throws Exception {
+        PerfScenario scenario = new PerfScenario(event);
+        S3Client[] clients = {s3, boltS3};
+        String[] endpoints = {"s3", "bolt"};
+
+        HashMap<String, Map<String, Map<String, String>>> respMap = new HashMap<>();
+        Map<String, Map<String, String>> summary = new HashMap<>();
+        // the endpoints share the remaining time equally. The share of an endpoint is split between uploading its
+        // objects (up to a third of it), the run, and deleting the objects left afterwards, for which as much time as
+        // the upload took is reserved.
+        long mixedDeadline = deadline;
+        for (int e = 0; e < 2; e++) {
+            long endpointDeadline = phaseDeadline(mixedDeadline, 2 - e);
+            deadline = phaseDeadline(endpointDeadline, 3);
+            long uploadStartTime = System.currentTimeMillis();
+            List<String> liveKeys = new ArrayList<>();
+            int uploadFailed = 0;
+            try {
+                for (String key : keys) {
+                    if (pastDeadline()) {
+                        break;
+                    }
+                    PutObjectRequest putObjectRequest = PutObjectRequest.builder().bucket(bucket).key(key).build();
+                    try {
+                        clients[e].putObject(putObjectRequest, RequestBody.fromString(generate(objLength)));
+                    } catch (SdkException ex) {
+                        // the run starts without the keys that failed to upload.
+                        uploadFailed++;
+                        continue;
+                    }
+                    liveKeys.add(key);
+                }
+                long cleanupReserveMs = System.currentTimeMillis() - uploadStartTime;
+                long runDeadline = endpointDeadline > 0 ?
+                        Math.max(endpointDeadline - cleanupReserveMs, System.currentTimeMillis()) : 0;
+                PerfScenario.Run run = scenario.run(clients[e], bucket, liveKeys, endpoints[e], objLength,
+                        runDeadline);
+                liveKeys = run.getLiveKeys();
+                partial |= run.isPartial();
+
+                Map<String, String> runSummary = new HashMap<>();
+                runSummary.put("scenario", scenario.getName());
+                runSummary.put("mix", scenario.getMix());
+                runSummary.put("concurrency", String.valueOf(scenario.getConcurrency()));
+                runSummary.put("uploadFailed", String.valueOf(uploadFailed));
+                runSummary.put("elapsed", String.format("%d ms", run.getElapsed()));
+                double elapsedSec = Math.max(run.getElapsed(), 1) / 1000.0;
+                long totalOps = 0;
+                for (PerfScenario.OpType opType : PerfScenario.OpType.values()) {
+                    PerfOutcomes outcomes = run.getOutcomes(opType);
+                    Map<String, String> outcomesMap = outcomes.toMap();
+                    long ops = Long.parseLong(outcomesMap.get("requests"));
+                    if (ops == 0) {
+                        continue;
+                    }
+                    totalOps += ops;
+                    String op = opType.name().toLowerCase();
+                    Map<String, Map<String, String>> perfStats =
+                            computePerfStats(run.getOpTimes(opType), null, null, null);
+                    perfStats.put("outcomes", outcomesMap);
+                    perfStats.put("jvm", run.getJvm(opType));
+                    respMap.put(endpoints[e] + "_mixed_" + op + "_perf_stats", perfStats);
+                    runSummary.put(op + "Throughput", String.format("%.2f ops/sec", ops / elapsedSec));
+                }
+                runSummary.put("operations", String.valueOf(totalOps));
+                runSummary.put("throughput", String.format("%.2f ops/sec", totalOps / elapsedSec));
+                summary.put(endpoints[e], runSummary);
+            } finally {
+                // clean up the keys left by the run.
+                deleteObjectsQuietly(clients[e], bucket, liveKeys);
+            }
+        }
+        deadline = mixedDeadline;
+
+        respMap.put("mixed_workload_summary", summary);
+        return respMap;
+    }
+
+    /**
+     * Measures the Put and Get Object performance (latency, MB/s) of Bolt / S3 over a ladder of object sizes, e.g.
+     * 1 KB to 256 MB, to chart throughput against object size. At each size, samplesPerSize objects are put, read back
+     * and deleted on each endpoint; the payload of a size is generated once and uploaded without copying it into each
+     * request. Sizes that don't fit in the free heap are skipped. The sizes share the remaining time equally, and
+     * Bolt and S3 each get half of the time of a size. Along with a compact row of percentiles and MB/s per size, the
+     * sizes where Bolt starts or stops being faster than S3 (crossover points) are reported, over the sizes both
+     * endpoints have samples of. Failed puts and gets are recorded as outcomes (per endpoint, over all sizes), and
+     * don't stop the sweep.
+     * @param bucket bucket name
+     * @param event perf parameters (objSizes, samplesPerSize)
+     * @return latency percentiles and MB/s of Bolt / S3 per object size, and the crossover points
+     * @throws Exception
+     */
+    private HashMap<String, Map<String, Map<String, String>>> sizeSweepPerf(String bucket, Map<String, String> event)
+            throws Exception {
+        String[] sizeStrs = stringParam(event, "objSizes", "1K,4K,16K,64K,256K,1M,4M,16M,64M,256M").split(",");
+        int samplesPerSize = Math.max(intParam(event, "samplesPerSize", 5), 1);
+        S3Client[] clients = {s3, boltS3};
+        String[] endpoints = {"s3", "bolt"};
+
+        Map<String, Map<String, String>> table = new LinkedHashMap<>();
+        List<String> skipped = new ArrayList<>();
+        List<String> sweptSizes = new ArrayList<>();
+        // MB/s of S3 and Bolt of each size both endpoints have samples of, for the crossover points.
+        List<String> putSizes = new ArrayList<>();
+        List<double[]> putMBps = new ArrayList<>();
+        List<String> getSizes = new ArrayList<>();
+        List<double[]> getMBps = new ArrayList<>();
+        // outcomes of the puts and gets of each endpoint, over all sizes.
+        Map<String, Map<String, String>> outcomes = new LinkedHashMap<>();
+        // base of the object keys, also if the share of keys of this worker is empty.
+        List<String> baseKeys = !keys.isEmpty() ? keys :
+                Collections.singletonList("bolt-s3-perf-worker" + workerIndex);
+        // the sizes share the remaining time equally, and the endpoints the time of a size.
+        long sweepDeadline = deadline;
+
+        for (int i = 0; i < sizeStrs.length; i++) {
+            long size = parseSize(sizeStrs[i].trim());
+            String sizeLabel = sizeLabel(size);
+            // the payload is held once, while the SDK buffers (at most) one response at a time.
+            Runtime runtime = Runtime.getRuntime();
+            long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+            if (size > Integer.MAX_VALUE - 8 || size > freeHeap / 2) {
+                skipped.add(sizeLabel);
+                continue;
+            }
+            long sizeDeadline = phaseDeadline(sweepDeadline, sizeStrs.length - i);
+            deadline = sizeDeadline;
+            if (pastDeadline()) {
+                skipped.add(sizeLabel);
+                continue;
+            }
+
+            byte[] payload = new byte[(int) size];
+            new Random().nextBytes(payload);
+            RequestBody body = RequestBody.fromContentProvider(() -> new ByteArrayInputStream(payload),
+                    payload.length, "application/octet-stream");
+
+            Map<String, String> row = new LinkedHashMap<>();
+            double[] sizePutMBps = new double[2];
+            double[] sizeGetMBps = new double[2];
+            boolean putSampled = true;
+            boolean getSampled = true;
+            for (int e = 0; e < 2; e++) {
+                deadline = phaseDeadline(sizeDeadline, 2 - e);
+                PerfSampleRecorder putTimes = new PerfSampleRecorder(samplesPerSize);
+                PerfSampleRecorder getTimes = new PerfSampleRecorder(samplesPerSize);
+                PerfOutcomes putOutcomes = new PerfOutcomes(samplesPerSize);
+                PerfOutcomes getOutcomes = new PerfOutcomes(samplesPerSize);
+                for (int sample = 0; sample < samplesPerSize && !pastDeadline(); sample++) {
+                    String key = baseKeys.get(sample % baseKeys.size()) + "-" + sizeLabel + "-" + sample;
+                    try {
+                        long putObjStartTime = System.nanoTime();
+                        try {
+                            clients[e].putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(), body);
+                        } catch (SdkException ex) {
+                            putOutcomes.failure(ex, (System.nanoTime() - putObjStartTime) / 1000000);
+                            continue;
+                        }
+                        putOutcomes.success((System.nanoTime() - putObjStartTime) / 1000000);
+                        putTimes.add((System.nanoTime() - putObjStartTime) / 1e6);
+
+                        long getObjStartTime = System.nanoTime();
+                        try (ResponseInputStream<GetObjectResponse> resp =
+                                     clients[e].getObject(GetObjectRequest.builder().bucket(bucket).key(key).build())) {
+                            drain(resp);
+                        } catch (SdkException | IOException ex) {
+                            getOutcomes.failure(ex, (System.nanoTime() - getObjStartTime) / 1000000);
+                            continue;
+                        }
+                        getOutcomes.success((System.nanoTime() - getObjStartTime) / 1000000);
+                        getTimes.add((System.nanoTime() - getObjStartTime) / 1e6);
+                    } finally {
+                        try {
+                            clients[e].deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+                        } catch (SdkException ex) {
+                            // the object may not have been uploaded.
+                        }
+                    }
+                }
+
+                // MB/s of the median request.
+                putSampled &= !putTimes.isEmpty();
+                getSampled &= !getTimes.isEmpty();
+                sizePutMBps[e] = putTimes.isEmpty() ? 0.0 :
+                        size / 1048576.0 / (Math.max(putTimes.percentile(0.5), 0.001) / 1000.0);
+                sizeGetMBps[e] = getTimes.isEmpty() ? 0.0 :
+                        size / 1048576.0 / (Math.max(getTimes.percentile(0.5), 0.001) / 1000.0);
+                row.put(endpoints[e] + "PutP50", String.format("%.2f ms", putTimes.percentile(0.5)));
+                row.put(endpoints[e] + "PutP90", String.format("%.2f ms", putTimes.percentile(0.9)));
+                row.put(endpoints[e] + "PutThroughput", String.format("%.2f MB/s", sizePutMBps[e]));
+                row.put(endpoints[e] + "GetP50", String.format("%.2f ms", getTimes.percentile(0.5)));
+                row.put(endpoints[e] + "GetP90", String.format("%.2f ms", getTimes.percentile(0.9)));
+                row.put(endpoints[e] + "GetThroughput", String.format("%.2f MB/s", sizeGetMBps[e]));
+                row.put(endpoints[e] + "Samples", String.valueOf(getTimes.size()));
+                Map<String, String> putOutcomesMap = putOutcomes.toMap();
+                Map<String, String> getOutcomesMap = getOutcomes.toMap();
+                long failed = Long.parseLong(putOutcomesMap.get("failed")) +
+                        Long.parseLong(getOutcomesMap.get("failed"));
+                if (failed > 0) {
+                    row.put(endpoints[e] + "Failed", String.valueOf(failed));
+                }
+                PerfOutcomes.merge(outcomes.computeIfAbsent(endpoints[e] + "Put", k -> new HashMap<>()),
+                        putOutcomesMap);
+                PerfOutcomes.merge(outcomes.computeIfAbsent(endpoints[e] + "Get", k -> new HashMap<>()),
+                        getOutcomesMap);
+            }
+            row.put("getSpeedup", String.format("%.2f",
+                    sizeGetMBps[0] > 0 ? sizeGetMBps[1] / sizeGetMBps[0] : 0.0));
+            table.put(sizeLabel, row);
+            sweptSizes.add(sizeLabel);
+            if (putSampled) {
+                putSizes.add(sizeLabel);
+                putMBps.add(sizePutMBps);
+            }
+            if (getSampled) {
+                getSizes.add(sizeLabel);
+                getMBps.add(sizeGetMBps);
+            }
+        }
+        deadline = sweepDeadline;
+
+        Map<String, String> summary = new HashMap<>();
+        summary.put("samplesPerSize", String.valueOf(samplesPerSize));
+        summary.put("sizes", String.join(",", sweptSizes));
+        if (!skipped.isEmpty()) {
+            summary.put("skippedSizes", String.join(",", skipped));
+        }
+        putCrossovers(summary, "get", getSizes, getMBps);
+        putCrossovers(summary, "put", putSizes, putMBps);
+
+        HashMap<String, Map<String, Map<String, String>>> respMap = new HashMap<>();
+        respMap.put("size_sweep", table);
+        respMap.put("size_sweep_summary", new HashMap<String, Map<String, String>>() {{
+            put("summary", summary);
+        }});
+        respMap.put("size_sweep_outcomes", outcomes);
+        return respMap;
+    }
+
+    /**
+     * Reports the sizes at which Bolt starts to be faster than S3 (boltAdvantageStarts) and stops being faster
+     * (boltAdvantageEnds), comparing the median MB/s of consecutive sizes.
+     * @param summary summary to add the crossover points to
+     * @param op operation (get or put)
+     * @param sizes measured sizes, ascending
+     * @param mbps MB/s of S3 and Bolt at each size
+     */
+    private static void putCrossovers(Map<String, String> summary, String op, List<String> sizes,
+                                      List<double[]> mbps) {
+        List<String> starts = new ArrayList<>();
+        List<String> ends = new ArrayList<>();
+        for (int i = 0; i < sizes.size(); i++) {
+            boolean boltFaster = mbps.get(i)[1] > mbps.get(i)[0];
+            boolean boltFasterBefore = i > 0 && mbps.get(i - 1)[1] > mbps.get(i - 1)[0];
+            if (boltFaster && !boltFasterBefore) {
+                starts.add(sizes.get(i));
+            } else if (!boltFaster && boltFasterBefore) {
+                ends.add(sizes.get(i));
+            }
+        }
+        summary.put(op + "BoltAdvantageStarts", starts.isEmpty() ? "none" : String.join(",", starts));
+        summary.put(op + "BoltAdvantageEnds", ends.isEmpty() ? "none" : String.join(",", ends));
+    }
+
+    /**
+     * Parses an object size, in bytes or with a K, M or G (binary) suffix.
+     * @param sizeStr size, e.g. 512, 64K, 256M
+     * @return size in bytes
+     */
+    static long parseSize(String sizeStr) {
+        String upper = sizeStr.toUpperCase();
+        if (upper.endsWith("B")) {
+            upper = upper.substring(0, upper.length() - 1);
+        }
+        long unit = 1;
+        if (upper.endsWith("K")) {
+            unit = 1024L;
+        } else if (upper.endsWith("M")) {
+            unit = 1024L * 1024;
+        } else if (upper.endsWith("G")) {
+            unit = 1024L * 1024 * 1024;
+        }
+        if (unit > 1) {
+            upper = upper.substring(0, upper.length() - 1);
+        }
+        return Long.parseLong(upper.trim()) * unit;
+    }
+
+    /**
+     * Returns a short label of an object size, e.g. 64K, 256M.
+     * @param size size in bytes
+     * @return label
+     */
+    static String sizeLabel(long size) {
+        if (size >= 1024L * 1024 * 1024 && size % (1024L * 1024 * 1024) == 0) {
+            return size / (1024L * 1024 * 1024) + "G";
+        } else if (size >= 1024L * 1024 && size % (1024L * 1024) == 0) {
+            return size / (1024L * 1024) + "M";
+        } else if (size >= 1024 && size % 1024 == 0) {
+            return size / 1024 + "K";
+        }
+        return String.valueOf(size);
+    }
+
     /**
      * Measures PUT,GET,DELETE,List Objects performance (latency, throughput) of Bolt / S3.
      * @param bucket bucket name
@@ -551,15 +2533,31 @@ public class BoltS3Perf {
      * @throws Exception
      */
     private HashMap<String, Map<String, Map<String, String>>> allPerf(String bucket) throws Exception {
-        // Put, Delete Object Perf tests using generated key names.
+        // the remaining time is shared equally by the put, delete, list and get phases.
+        long allDeadline = deadline;
+
+        // Put, Delete Object Perf tests using generated key names. Only the keys actually put are deleted, and any of
+        // them the delete phase doesn't reach before its deadline are cleaned up afterwards, untimed.
+        deadline = phaseDeadline(allDeadline, 4);
         HashMap<String, Map<String, Map<String, String>>> putObjPerfStats = putObjectPerf(bucket);
+        List<String> putKeys = keys.subList(0, keysProcessed);
+        keys = putKeys;
+        deadline = phaseDeadline(allDeadline, 3);
         HashMap<String, Map<String, Map<String, String>>> delObjPerfStats = deleteObjectPerf(bucket);
+        keys = putKeys.subList(keysProcessed, putKeys.size());
+        deleteObjectsQuietly(s3, bucket, keys);
+        deleteObjectsQuietly(boltS3, bucket, keys);
 
         // List Objects perf tests on existing objects.
+        deadline = phaseDeadline(allDeadline, 2);
         HashMap<String, Map<String, Map<String, String>>> listObjPerfStats = listObjectsV2Perf(bucket);
 
         // Get the list of objects before get object perf test.
-        keys = listObjectsV2(bucket);
+        deadline = allDeadline;
+        keys = partitionKeys(listObjectsV2(bucket, numKeys * workerCount));
+        if (keys.size() > maxKeysFit) {
+            keys = keys.subList(0, maxKeysFit);
+        }
         HashMap<String, Map<String, Map<String, String>>> getObjPerfStats = getObjectPerf(bucket);
 
         HashMap<String, Map<String, Map<String, String>>> mergedPerfStats =
@@ -574,21 +2572,21 @@ public class BoltS3Perf {
 
     /**
      * Compute Performance Statistics
-     * @param opTimes list of latencies
-     * @param opTp list of throughputs
-     * @param objSizes list of object sizes
-     * @return performance statistics (latency, throughput, object size)
+     * @param opTimes latencies
+     * @param opTp throughputs
+     * @param objSizes object sizes
+     * @param jvmStats JVM activity inside the timed window
+     * @return performance statistics (latency, throughput, object size, jvm)
      */
-    private Map<String, Map<String, String>> computePerfStats(List<Long> opTimes,
-                                                              List<Double> opTp,
-                                                              List<Long> objSizes) {
+    private Map<String, Map<String, String>> computePerfStats(PerfSampleRecorder opTimes,
+                                                              PerfSampleRecorder opTp,
+                                                              PerfSampleRecorder objSizes,
+                                                              PerfJvmStats jvmStats) {
 
         // calc op latency perf
-        double opAvgTime = opTimes.stream().mapToLong(l -> l).average().orElse(0.0);
-        opTimes.sort(null);
-        long opTimeP50 = opTimes.get(opTimes.size() / 2);
-        int p90Index = (int)(opTimes.size() * 0.9);
-        long opTimeP90 = opTimes.get(p90Index);
+        double opAvgTime = opTimes.mean();
+        long opTimeP50 = (long) opTimes.percentile(0.5);
+        long opTimeP90 = (long) opTimes.percentile(0.9);
 
         Map<String, String> latencyPerfStats = new HashMap<String, String>(){{
            put("average", String.format("%.2f ms", opAvgTime));
@@ -599,11 +2597,9 @@ public class BoltS3Perf {
         // calc op throughput perf.
         Map<String, String> tpPerfStats;
         if (opTp != null) {
-            double opAvgTp = opTp.stream().mapToDouble(d -> d).average().orElse(0.0);
-            opTp.sort(null);
-            double opTpP50 = opTp.get(opTp.size() / 2);
-            p90Index = (int)(opTp.size() * 0.9);
-            double opTpP90 = opTp.get(p90Index);
+            double opAvgTp = opTp.mean();
+            double opTpP50 = opTp.percentile(0.5);
+            double opTpP90 = opTp.percentile(0.9);
 
             tpPerfStats = new HashMap<String, String>() {{
                put("average", String.format("%.2f objects/ms", opAvgTp));
@@ -611,7 +2607,7 @@ public class BoltS3Perf {
                put("p90", String.format("%.2f objects/ms", opTpP90));
             }};
         } else {
-            double tp = (double) opTimes.size() / opTimes.stream().mapToLong(Long::longValue).sum();
+            double tp = opTimes.sum() > 0 ? opTimes.size() / opTimes.sum() : 0.0;
             tpPerfStats = new HashMap<String, String>() {{
                put("throughput", String.format("%.2f objects/ms", tp));
             }};
@@ -620,11 +2616,9 @@ public class BoltS3Perf {
         // calc obj size metrics.
         Map<String, String> objSizesPerfStats = null;
         if (objSizes != null) {
-            double obAvgSize = objSizes.stream().mapToLong(l -> l).average().orElse(0.0);
-            objSizes.sort(null);
-            long objSizesP50 = objSizes.get(objSizes.size() / 2);
-            p90Index = (int)(objSizes.size() * 0.9);
-            long objSizesP90 = objSizes.get(p90Index);
+            double obAvgSize = objSizes.mean();
+            long objSizesP50 = (long) objSizes.percentile(0.5);
+            long objSizesP90 = (long) objSizes.percentile(0.9);
 
             objSizesPerfStats = new HashMap<String, String>() {{
                 put("average", String.format("%.2f bytes", obAvgSize));
@@ -641,22 +2635,210 @@ public class BoltS3Perf {
         if (objSizes != null) {
             perfStats.put("objectSize", objSizesPerfStats);
         }
+
+        if (jvmStats != null) {
+            perfStats.put("jvm", jvmStats.toMap());
+        }
+
+        // raw histograms, to be merged by BoltS3PerfCoordinator.
+        if (emitHistograms) {
+            Map<String, String> histograms = new HashMap<>();
+            PerfHistogram opTimesHistogram = new PerfHistogram();
+            opTimes.recordTo(opTimesHistogram, 1);
+            histograms.put("latency", opTimesHistogram.encode());
+            if (opTp != null) {
+                PerfHistogram opTpHistogram = new PerfHistogram();
+                opTp.recordTo(opTpHistogram, TP_HISTOGRAM_SCALE);
+                histograms.put("throughput", opTpHistogram.encode());
+            }
+            if (objSizes != null) {
+                PerfHistogram objSizesHistogram = new PerfHistogram();
+                objSizes.recordTo(objSizesHistogram, 1);
+                histograms.put("objectSize", objSizesHistogram.encode());
+            }
+            perfStats.put("histogram", histograms);
+        }
         return perfStats;
     }
 
     /**
-     * Generate Object names to be used in PUT, DELETE Object Perf.
-     * @param numObjects number of objects
-     * @return list of object names.
+     * Compute Performance Statistics from histograms merged by BoltS3PerfCoordinator.
+     * @param opTimes histogram of latencies
+     * @param opTp histogram of throughputs (scaled by TP_HISTOGRAM_SCALE)
+     * @param objSizes histogram of object sizes
+     * @return performance statistics (latency, throughput, object size)
      */
-    private List<String> generateKeyNames(int numObjects) {
-        List<String> keys = new ArrayList<>();
+    static Map<String, Map<String, String>> computePerfStats(PerfHistogram opTimes,
+                                                             PerfHistogram opTp,
+                                                             PerfHistogram objSizes) {
+
+        // calc op latency perf
+        Map<String, String> latencyPerfStats = new HashMap<String, String>(){{
+            put("average", String.format("%.2f ms", opTimes.getMean()));
+            put("p50", String.format("%d ms", opTimes.getPercentile(0.5)));
+            put("p90", String.format("%d ms", opTimes.getPercentile(0.9)));
+        }};
+
+        // calc op throughput perf.
+        Map<String, String> tpPerfStats;
+        if (opTp != null) {
+            tpPerfStats = new HashMap<String, String>() {{
+                put("average", String.format("%.2f objects/ms", opTp.getMean() / TP_HISTOGRAM_SCALE));
+                put("p50", String.format("%.2f objects/ms", opTp.getPercentile(0.5) / TP_HISTOGRAM_SCALE));
+                put("p90", String.format("%.2f objects/ms", opTp.getPercentile(0.9) / TP_HISTOGRAM_SCALE));
+            }};
+        } else {
+            double tp = opTimes.getSum() > 0 ? (double) opTimes.getCount() / opTimes.getSum() : 0.0;
+            tpPerfStats = new HashMap<String, String>() {{
+                put("throughput", String.format("%.2f objects/ms", tp));
+            }};
+        }
 
-        for (int i = 0; i < numObjects; i++) {
-            String sb = "bolt-s3-perf" + i;
-            keys.add(sb);
+        Map<String, Map<String, String>> perfStats = new HashMap<String, Map<String, String>>() {{
+            put("latency", latencyPerfStats);
+            put("throughput", tpPerfStats);
+        }};
+
+        // calc obj size metrics.
+        if (objSizes != null) {
+            perfStats.put("objectSize", new HashMap<String, String>() {{
+                put("average", String.format("%.2f bytes", objSizes.getMean()));
+                put("p50", String.format("%d bytes", objSizes.getPercentile(0.5)));
+                put("p90", String.format("%d bytes", objSizes.getPercentile(0.9)));
+            }});
         }
-        return keys;
+        return perfStats;
+    }
+
+    /**
+     * Records the latency of an operation against the prefix of its key.
+     * @param prefixes number of operations and total latency of each prefix
+     * @param key key name
+     * @param opTime latency of the operation
+     */
+    private void recordPrefix(Map<String, long[]> prefixes, String key, long opTime) {
+        if (perPrefixStats) {
+            long[] prefix = prefixes.computeIfAbsent(PerfKeyGenerator.prefixOf(key), k -> new long[2]);
+            prefix[0]++;
+            prefix[1] += opTime;
+        }
+    }
+
+    /**
+     * Compute Performance Statistics per key prefix.
+     * @param prefixes number of operations and total latency of each prefix
+     * @return performance statistics (operations, average latency, throughput) of each prefix
+     */
+    private Map<String, Map<String, String>> prefixPerfStats(Map<String, long[]> prefixes) {
+        Map<String, Map<String, String>> perfStats = new HashMap<>();
+        for (Map.Entry<String, long[]> prefix : prefixes.entrySet()) {
+            long ops = prefix.getValue()[0];
+            long totalTime = prefix.getValue()[1];
+            perfStats.put(prefix.getKey(), new HashMap<String, String>() {{
+                put("ops", String.valueOf(ops));
+                put("average", String.format("%.2f ms", (double) totalTime / ops));
+                put("throughput", String.format("%.2f objects/ms", totalTime > 0 ? (double) ops / totalTime : 0.0));
+            }});
+        }
+        return perfStats;
+    }
+
+    /**
+     * Returns whether the deadline of the current phase has passed, and marks the statistics as partial if so.
+     * @return true if the phase has to stop
+     */
+    private boolean pastDeadline() {
+        if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+            partial = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the deadline of the next of a number of phases, which share the time remaining until a deadline equally.
+     * @param end deadline of all the phases, 0 if none
+     * @param phases number of phases left, including the next one
+     * @return deadline of the next phase, 0 if none
+     */
+    static long phaseDeadline(long end, int phases) {
+        if (end <= 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        return now + Math.max(end - now, 0) / Math.max(phases, 1);
+    }
+
+    /**
+     * Reduces the number of keys to what fits in the time remaining until the deadline, from the time a few probe
+     * requests on both Bolt and S3 take (a Put, Get and Delete of a probe object for tests on generated keys, or a
+     * Get of the first key otherwise). Some headroom is left, as latencies vary over a run.
+     * @param bucket bucket name
+     * @return time budget, cost per key, and number of keys requested and chosen
+     */
+    private Map<String, String> autoSizeKeys(String bucket) {
+        final int probes = 3;
+        boolean generatedKeys = requestType == RequestType.PUT_OBJECT ||
+                requestType == RequestType.PUT_OBJECT_GZIP ||
+                requestType == RequestType.DELETE_OBJECT ||
+                requestType == RequestType.DELETE_OBJECTS_BATCH ||
+                requestType == RequestType.READ_AFTER_WRITE ||
+                requestType == RequestType.ALL;
+        String probeKey = generatedKeys ? "bolt-s3-perf-autosize-" + workerIndex : keys.get(0);
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < probes; i++) {
+            for (S3Client client : new S3Client[] {s3, boltS3}) {
+                try {
+                    if (generatedKeys) {
+                        client.putObject(PutObjectRequest.builder().bucket(bucket).key(probeKey).build(),
+                                RequestBody.fromString(generate(objLength)));
+                    }
+                    try (ResponseInputStream<GetObjectResponse> resp =
+                                 client.getObject(GetObjectRequest.builder().bucket(bucket).key(probeKey).build())) {
+                        drain(resp);
+                    }
+                    if (generatedKeys) {
+                        client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(probeKey).build());
+                    }
+                } catch (SdkException | IOException e) {
+                    // a failed probe still takes time, which is what is being measured.
+                }
+            }
+        }
+        double keyCostMs = Math.max((System.nanoTime() - startTime) / 1e6 / probes, 1.0);
+
+        long budgetMs = Math.max(deadline - System.currentTimeMillis(), 0);
+        maxKeysFit = Math.max((int) (budgetMs * 0.8 / keyCostMs), 1);
+        int requestedKeys = keys.size();
+        if (keys.size() > maxKeysFit) {
+            keys = keys.subList(0, maxKeysFit);
+        }
+
+        Map<String, String> autoSizeStats = new HashMap<>();
+        autoSizeStats.put("timeBudget", String.format("%d ms", budgetMs));
+        autoSizeStats.put("keyCost", String.format("%.2f ms", keyCostMs));
+        autoSizeStats.put("keysRequested", String.valueOf(requestedKeys));
+        autoSizeStats.put("keysChosen", String.valueOf(keys.size()));
+        return autoSizeStats;
+    }
+
+    /**
+     * Returns the share of the keys handled by this worker, when run by BoltS3PerfCoordinator. Keys are assigned
+     * to workers round-robin, so that workers handle disjoint sets of keys; the keys of all workers are numKeys
+     * keys per worker, so that adding workers covers more keys.
+     * @param allKeys keys of all workers
+     * @return keys of this worker
+     */
+    private List<String> partitionKeys(List<String> allKeys) {
+        if (workerCount <= 1) {
+            return allKeys;
+        }
+        List<String> workerKeys = new ArrayList<>();
+        for (int i = workerIndex; i < allKeys.size(); i += workerCount) {
+            workerKeys.add(allKeys.get(i));
+        }
+        return workerKeys;
     }
 
     /**
@@ -682,26 +2864,33 @@ public class BoltS3Perf {
     }
 
     /**
-     * Returns a list of `numKeys` objects from the given bucket in S3.
+     * Returns a list of up to `maxKeys` objects from the given bucket in S3, following pages of up to 1000 keys.
      * @param bucket bucket name
+     * @param maxKeys max. number of objects
      * @return list of objects
      * @throws Exception
      */
-    private List<String> listObjectsV2(String bucket) throws Exception {
+    private List<String> listObjectsV2(String bucket, int maxKeys) throws Exception {
         List<String> keys = new ArrayList<>();
 
-        ListObjectsV2Request req = ListObjectsV2Request.builder()
-                .bucket(bucket)
-                .maxKeys(numKeys)
-                .build();
+        String continuationToken = null;
+        do {
+            ListObjectsV2Request req = ListObjectsV2Request.builder()
+                    .bucket(bucket)
+                    .maxKeys(Math.min(maxKeys - keys.size(), 1000))
+                    .continuationToken(continuationToken)
+                    .build();
 
-        ListObjectsV2Response resp;
-        resp = s3.listObjectsV2(req);
+            ListObjectsV2Response resp;
+            resp = s3.listObjectsV2(req);
 
-        List<S3Object> objects = resp.contents();
-        for (S3Object object : objects) {
-            keys.add(object.key());
-        }
+            List<S3Object> objects = resp.contents();
+            for (S3Object object : objects) {
+                keys.add(object.key());
+            }
+            continuationToken = resp.isTruncated() != null && resp.isTruncated() ?
+                    resp.nextContinuationToken() : null;
+        } while (continuationToken != null && keys.size() < maxKeys);
         return keys;
     }
 }
@@ -0,0 +1,334 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
+import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BoltS3PerfCoordinator fans a Bolt / S3 Performance test out to several BoltS3Perf workers, each of which handles
+ * a disjoint share of the keys, and merges the raw histograms and counters returned by the workers into global
+ * performance statistics.
+ */
+public class BoltS3PerfCoordinator {
+
+    // modes of running the workers.
+    enum WorkerMode {
+        // workers run as threads of this process.
+        LOCAL,
+        // workers run as invocations of a Lambda function.
+        LAMBDA
+    }
+
+    // longest a worker invocation can run (the Lambda timeout limit), plus a margin for the invocation round trip.
+    private static final Duration WORKER_TIMEOUT = Duration.ofMinutes(16);
+
+    // counters summed across workers; any other value is kept if all workers agree on it, otherwise dropped.
+    private static final Set<String> COUNTERS = new HashSet<>(Arrays.asList(
+            "keys", "keysRequested", "keysChosen", "distinctKeys", "operations", "s3BatchErrors", "boltBatchErrors",
+            "visible", "immediatelyVisible", "notVisible", "reads", "staleReads", "notFoundReads", "failedReads",
+            "requests", "hits", "heapHits", "offHeapHits", "revalidations", "notModified", "evictions", "rejections",
+            "heapObjects", "heapBytes", "offHeapObjects", "offHeapBytes"));
+
+    // value of a counter the workers disagree on, removed once all workers are merged.
+    private static final String DROPPED = "\u0000dropped";
+
+    // Lambda function invoked by the workers, in LAMBDA worker mode.
+    private final String functionName;
+
+    public BoltS3PerfCoordinator(String functionName) {
+        this.functionName = functionName;
+    }
+
+    /**
+     * processEvent extracts the parameters (workers, workerMode, functionName) from the event, runs the performance
+     * test described by the rest of the event on each of the workers and returns back the merged performance
+     * statistics.
+     * @param event incoming Lambda event object
+     * @return merged performance statistics.
+     */
+    public Map<String, Map<String, Map<String, String>>> processEvent(Map<String, String> event) {
+
+        String workersStr = event.get("workers");
+        int workers = (workersStr != null && !workersStr.isEmpty()) ? Integer.parseInt(workersStr) : 1;
+        if (workers < 1) {
+            workers = 1;
+        }
+
+        // Workers are invoked as Lambda functions, if a function name is available, otherwise run locally.
+        String fnName = (event.get("functionName") != null && !event.get("functionName").isEmpty()) ?
+                event.get("functionName") : functionName;
+        String workerModeStr = event.get("workerMode");
+        WorkerMode workerMode = (workerModeStr != null && !workerModeStr.isEmpty()) ?
+                WorkerMode.valueOf(workerModeStr.toUpperCase()) :
+                (fnName != null ? WorkerMode.LAMBDA : WorkerMode.LOCAL);
+
+        // worker events, with coordinator parameters replaced by the share of each worker.
+        List<Callable<Map<String, Map<String, Map<String, String>>>>> tasks = new ArrayList<>();
+        LambdaClient lambda = workerMode == WorkerMode.LAMBDA ? lambdaClient() : null;
+        for (int i = 0; i < workers; i++) {
+            Map<String, String> workerEvent = new HashMap<>(event);
+            workerEvent.remove("workers");
+            workerEvent.remove("workerMode");
+            workerEvent.remove("functionName");
+            workerEvent.put("workerIndex", String.valueOf(i));
+            workerEvent.put("workerCount", String.valueOf(workers));
+            if (workerMode == WorkerMode.LAMBDA) {
+                tasks.add(() -> invokeWorker(lambda, fnName, workerEvent));
+            } else {
+                tasks.add(() -> new BoltS3Perf(workerEvent).processEvent(workerEvent));
+            }
+        }
+
+        List<Map<String, Map<String, Map<String, String>>>> results = new ArrayList<>();
+        Map<String, Map<String, String>> workerErrors = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        long coordStartTime = System.currentTimeMillis();
+        try {
+            List<Future<Map<String, Map<String, Map<String, String>>>>> futures = executor.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    Map<String, Map<String, Map<String, String>>> result = futures.get(i).get();
+                    if (result.containsKey("error")) {
+                        workerErrors.putAll(prefixKeys("worker" + i + "_", result.get("error")));
+                    } else {
+                        results.add(result);
+                    }
+                } catch (ExecutionException e) {
+                    String msg = e.getCause().toString();
+                    workerErrors.put("worker" + i + "_Exception", new HashMap<String, String>() {{
+                        put("errorMessage", msg);
+                    }});
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            String msg = e.toString();
+            workerErrors.put("Exception", new HashMap<String, String>() {{
+                put("errorMessage", msg);
+            }});
+        } finally {
+            executor.shutdown();
+            if (lambda != null) {
+                lambda.close();
+            }
+        }
+        long coordTime = System.currentTimeMillis() - coordStartTime;
+
+        Map<String, Map<String, Map<String, String>>> respMap =
+                merge(results, Boolean.parseBoolean(event.get("emitHistograms")));
+
+        Map<String, String> coordinator = new HashMap<>();
+        coordinator.put("workers", String.valueOf(workers));
+        coordinator.put("workerMode", workerMode.name());
+        coordinator.put("succeededWorkers", String.valueOf(results.size()));
+        coordinator.put("failedWorkers", String.valueOf(workers - results.size()));
+        coordinator.put("elapsed", String.format("%d ms", coordTime));
+        respMap.put("coordinator", new HashMap<String, Map<String, String>>() {{
+            put("summary", coordinator);
+        }});
+        if (!workerErrors.isEmpty()) {
+            respMap.put("error", workerErrors);
+        }
+        return respMap;
+    }
+
+    /**
+     * Merges the performance statistics returned by the workers. Statistics with raw histograms are recomputed from the
+     * merged histograms, and their outcomes (also perKeyOutcomes, and statistics of outcomes such as
+     * size_sweep_outcomes), JVM and read-side stats summed; known counters (see COUNTERS) are summed and `partial` is
+     * set if any worker was cut short; any other value (configuration, per worker rates and timings) is kept as-is if
+     * all workers agree on it, otherwise dropped, as it can't be recomputed from the values of the workers.
+     * @param results performance statistics of the workers
+     * @param emitHistograms include the merged raw histograms in the merged statistics
+     * @return merged performance statistics
+     */
+    static Map<String, Map<String, Map<String, String>>> merge(
+            List<Map<String, Map<String, Map<String, String>>>> results, boolean emitHistograms) {
+
+        Map<String, Map<String, PerfHistogram>> histograms = new LinkedHashMap<>();
+        // outcomes of each statistics, by group (outcomes, perKeyOutcomes).
+        Map<String, Map<String, Map<String, String>>> outcomes = new HashMap<>();
+        Map<String, Map<String, String>> jvm = new HashMap<>();
+        Map<String, Map<String, String>> drain = new HashMap<>();
+        Map<String, Map<String, Map<String, String>>> counters = new LinkedHashMap<>();
+
+        for (Map<String, Map<String, Map<String, String>>> result : results) {
+            for (Map.Entry<String, Map<String, Map<String, String>>> stat : result.entrySet()) {
+                Map<String, String> statHistograms = stat.getValue().get("histogram");
+                if (statHistograms != null) {
+                    Map<String, PerfHistogram> merged =
+                            histograms.computeIfAbsent(stat.getKey(), k -> new HashMap<>());
+                    for (Map.Entry<String, String> histogram : statHistograms.entrySet()) {
+                        merged.computeIfAbsent(histogram.getKey(), k -> new PerfHistogram())
+                                .merge(PerfHistogram.decode(histogram.getValue()));
+                    }
+                    for (Map.Entry<String, Map<String, String>> group : stat.getValue().entrySet()) {
+                        if (isOutcomes(group.getKey())) {
+                            PerfOutcomes.merge(outcomes.computeIfAbsent(stat.getKey(), k -> new HashMap<>())
+                                    .computeIfAbsent(group.getKey(), k -> new HashMap<>()), group.getValue());
+                        }
+                    }
+                    Map<String, String> statJvm = stat.getValue().get("jvm");
+                    if (statJvm != null) {
+                        PerfJvmStats.merge(jvm.computeIfAbsent(stat.getKey(), k -> new HashMap<>()), statJvm);
+                    }
+                    Map<String, String> statDrain = stat.getValue().get("drain");
+                    if (statDrain != null) {
+                        PerfBodyDrain.merge(drain.computeIfAbsent(stat.getKey(), k -> new HashMap<>()), statDrain);
+                    }
+                } else {
+                    Map<String, Map<String, String>> merged =
+                            counters.computeIfAbsent(stat.getKey(), k -> new LinkedHashMap<>());
+                    for (Map.Entry<String, Map<String, String>> group : stat.getValue().entrySet()) {
+                        Map<String, String> mergedGroup =
+                                merged.computeIfAbsent(group.getKey(), k -> new LinkedHashMap<>());
+                        if (isOutcomes(stat.getKey())) {
+                            // outcomes of each operation (e.g. size_sweep_outcomes).
+                            PerfOutcomes.merge(mergedGroup, group.getValue());
+                            continue;
+                        }
+                        for (Map.Entry<String, String> counter : group.getValue().entrySet()) {
+                            mergedGroup.merge(counter.getKey(), counter.getValue(),
+                                    (v1, v2) -> mergeValue(counter.getKey(), v1, v2));
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<String, Map<String, Map<String, String>>> respMap = new HashMap<>();
+        for (Map.Entry<String, Map<String, PerfHistogram>> stat : histograms.entrySet()) {
+            Map<String, PerfHistogram> merged = stat.getValue();
+            Map<String, Map<String, String>> perfStats = BoltS3Perf.computePerfStats(merged.get("latency"),
+                    merged.get("throughput"), merged.get("objectSize"));
+            if (emitHistograms) {
+                Map<String, String> encoded = new HashMap<>();
+                merged.forEach((name, histogram) -> encoded.put(name, histogram.encode()));
+                perfStats.put("histogram", encoded);
+            }
+            if (outcomes.containsKey(stat.getKey())) {
+                perfStats.putAll(outcomes.get(stat.getKey()));
+            }
+            if (jvm.containsKey(stat.getKey())) {
+                perfStats.put("jvm", jvm.get(stat.getKey()));
+            }
+            if (drain.containsKey(stat.getKey())) {
+                perfStats.put("drain", drain.get(stat.getKey()));
+            }
+            respMap.put(stat.getKey(), perfStats);
+        }
+        for (Map<String, Map<String, String>> stat : counters.values()) {
+            for (Map<String, String> group : stat.values()) {
+                group.values().removeIf(DROPPED::equals);
+            }
+        }
+        respMap.putAll(counters);
+        return respMap;
+    }
+
+    /**
+     * Returns whether a statistics group (e.g. outcomes, perKeyOutcomes) or statistics (e.g. size_sweep_outcomes)
+     * holds outcomes (see PerfOutcomes), which are merged by summing their counts.
+     * @param name name of the group or statistics
+     * @return true if it holds outcomes
+     */
+    private static boolean isOutcomes(String name) {
+        return name.equals("outcomes") || name.endsWith("Outcomes") || name.endsWith("_outcomes");
+    }
+
+    /**
+     * Invokes a worker as a Lambda function and returns its performance statistics.
+     * @param lambda Lambda client
+     * @param fnName name of the Lambda function
+     * @param workerEvent event of the worker
+     * @return performance statistics of the worker
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Map<String, String>>> invokeWorker(LambdaClient lambda, String fnName,
+                                                                             Map<String, String> workerEvent) {
+        InvokeRequest invokeRequest = InvokeRequest.builder()
+                .functionName(fnName)
+                .payload(SdkBytes.fromUtf8String(PerfJson.encode(workerEvent)))
+                .build();
+        InvokeResponse resp = lambda.invoke(invokeRequest);
+        String payload = resp.payload().asUtf8String();
+        if (resp.functionError() != null) {
+            throw new IllegalStateException("Worker failed (" + resp.functionError() + "): " + payload);
+        }
+        return (Map<String, Map<String, Map<String, String>>>) PerfJson.decode(payload);
+    }
+
+    /**
+     * Creates the Lambda client used to invoke the workers. Invocations are synchronous and run for as long as the
+     * worker does, so the socket and API call timeouts exceed the longest worker run. Failed invocations aren't
+     * retried, as a retry would run the worker a second time, in parallel with the first one.
+     * @return Lambda client
+     */
+    private static LambdaClient lambdaClient() {
+        return LambdaClient.builder()
+                .httpClientBuilder(ApacheHttpClient.builder().socketTimeout(WORKER_TIMEOUT))
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .apiCallTimeout(WORKER_TIMEOUT)
+                        .apiCallAttemptTimeout(WORKER_TIMEOUT)
+                        .retryPolicy(RetryPolicy.none())
+                        .build())
+                .build();
+    }
+
+    /**
+     * Merges a counter value of two workers.
+     * @param name name of the counter
+     * @param v1 value of the first worker(s)
+     * @param v2 value of the next worker
+     * @return merged value, or DROPPED if it can't be merged
+     */
+    private static String mergeValue(String name, String v1, String v2) {
+        if (DROPPED.equals(v1)) {
+            return DROPPED;
+        }
+        if (name.equals("partial")) {
+            return String.valueOf(Boolean.parseBoolean(v1) || Boolean.parseBoolean(v2));
+        }
+        if (COUNTERS.contains(name)) {
+            // counters are plain numbers, or numbers followed by a unit.
+            int unit1 = v1.indexOf(' ');
+            int unit2 = v2.indexOf(' ');
+            String suffix1 = unit1 >= 0 ? v1.substring(unit1) : "";
+            String suffix2 = unit2 >= 0 ? v2.substring(unit2) : "";
+            try {
+                if (suffix1.equals(suffix2)) {
+                    return (Long.parseLong(v1.substring(0, v1.length() - suffix1.length())) +
+                            Long.parseLong(v2.substring(0, v2.length() - suffix2.length()))) + suffix1;
+                }
+            } catch (NumberFormatException e) {
+                // not a counter after all, fall through.
+            }
+        }
+        return v1.equals(v2) ? v1 : DROPPED;
+    }
+
+    private static Map<String, Map<String, String>> prefixKeys(String prefix, Map<String, Map<String, String>> map) {
+        Map<String, Map<String, String>> prefixed = new LinkedHashMap<>();
+        map.forEach((k, v) -> prefixed.put(prefix + k, v));
+        return prefixed;
+    }
+}
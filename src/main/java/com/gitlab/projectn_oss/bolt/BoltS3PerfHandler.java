@@ -2,6 +2,7 @@ package com.gitlab.projectn_oss.bolt;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -10,6 +11,14 @@ import java.util.Map;
  */
 public class BoltS3PerfHandler implements RequestHandler<Map<String,String>, Map<String,Map<String, Map<String, String>>>> {
 
+    // time reserved to return the response before the function times out (ms).
+    private static final long RESPONSE_RESERVE_MS = 5000;
+
+    static {
+        // prime the SDK during the Lambda init phase, if enabled.
+        BoltStartupMetrics.primeIfEnabled();
+    }
+
     /**
      * handleRequest is the handler function that is invoked by AWS Lambda to process an incoming event for
      * Bolt / S3 Performance testing.
@@ -23,10 +32,116 @@ public class BoltS3PerfHandler implements RequestHandler<Map<String,String>, Map
      *    e) get_object_passthrough_ttfb - get object (first byte via passthrough) of unmonitored bucket
      *    f) put_object - upload object
      *    g) delete_object - delete object
-     *    h) all - put, get, delete, list objects(default request if none specified)
+     *    h) delete_objects_batch - delete objects in batches (DeleteObjects) vs. one key at a time
+     *    i) read_after_write - delay until an object written through S3 / Bolt is readable through the other
+     *    j) get_object_warmup - get object over several passes (cold vs. warm Bolt cache)
+     *    k) get_object_hedged - get object from Bolt with and without hedging slow requests to S3 / Bolt
+     *    l) circuit_breaker_failover - throughput of Bolt with and without S3 failover while a fault is injected into
+     *       local in-memory stand-ins for Bolt and S3
+     *    m) get_object_cached - get object from Bolt with and without a local read-through cache, with skewed key
+     *       popularity
+     *    n) put_object_gzip - upload gzip compressed vs. raw objects at several compression ratios, and get them back
+     *    o) mixed_workload - weighted mix of get, put, head, list and delete objects, issued concurrently against a
+     *       shared key space
+     *    p) size_sweep - put, get and delete objects over a ladder of object sizes (throughput vs. object size)
+     *    q) all - put, get, delete, list objects(default request if none specified)
      *
      * 2) bucket - bucket name
      *
+     * 3) deleteBatchSize - max. number of keys per DeleteObjects request (delete_objects_batch only, max 1000,
+     *    default 100)
+     *
+     * 4) batchesInFlight - number of DeleteObjects requests in flight (delete_objects_batch only, default 1); the
+     *    per-key pass of delete_objects_batch keeps as many DeleteObject requests in flight
+     *
+     * 5) workers - if set, runs as a coordinator that fans the test out to this many workers, each handling a
+     *    disjoint share of the keys (numKeys keys per worker), and merges their raw latency histograms and counters
+     *    into one report
+     *
+     * 6) workerMode - how workers are run (coordinator only):
+     *    a) lambda - each worker is an invocation of this function (or 'functionName'), default in Lambda
+     *    b) local - each worker is a thread of this invocation
+     *
+     * 7) functionName - Lambda function invoked by the workers (coordinator only, default this function)
+     *
+     * 8) writeEndpoint, pollConcurrency, pollIntervalMs, visibilityTimeoutMs, overwrite - read_after_write only:
+     *    endpoint written through (s3 or bolt, default s3; the other one is polled), number of keys polled
+     *    concurrently (default 16), delay between polls of a key (default 10 ms), time after which a key is
+     *    reported as not visible (default 10000 ms), and whether each key is written twice so that stale reads can
+     *    be observed (default false)
+     *
+     * 9) passes, workingSetBytes - get_object_warmup only: number of passes over the keys (default 3), and size of
+     *    a working set of generated objects (of objLength bytes) to be uploaded and read instead of the first
+     *    numKeys objects of the bucket, e.g. larger than the expected cache size (at most 1000 objects per worker,
+     *    and what can be uploaded in a quarter of the remaining time per endpoint)
+     *
+     * 10) keyStrategy - naming of the keys of put_object, delete_object, delete_objects_batch, read_after_write and
+     *    all (latency and throughput are also reported per key prefix, i.e. leaf partition, unless sequential):
+     *    a) sequential - bolt-s3-perf0 .. bolt-s3-perfN (default)
+     *    b) hashed - 4 hex digit hash prefix, e.g. 3f2a/bolt-s3-perf7
+     *    c) date - hourly date partitions over the last 'datePartitions' hours (default 24)
+     *    d) deep - directory tree of 'keyDepth' levels (default 4) with 'keyFanout' directories each (default 4)
+     *    e) manifest - keys replayed from 'keyManifest', a local file or s3://bucket/key with one key per line, read
+     *       by the get_object modes instead of listing the bucket (rejected by the other modes, as they would
+     *       overwrite and delete the manifest objects)
+     *
+     * 11) hedgeTarget, hedgePercentile, hedgeWindow, hedgeInitialThresholdMs - get_object_hedged only: client the
+     *    slow Bolt requests are hedged to (s3 or bolt, default s3), percentile of the recent Bolt times to first byte
+     *    after which a request is hedged (default 95, fractions such as 99.9 allowed), number of recent requests the
+     *    percentile is computed over (default 100), and the threshold used until enough requests were sampled
+     *    (default 50 ms)
+     *
+     * 12) durationMs, faultStartMs, faultDurationMs, faultLatencyMs, boltLatencyMs, s3LatencyMs, intervalMs -
+     *    circuit_breaker_failover only: duration of each run (default 10000 ms), when the Bolt stand-in starts
+     *    failing (default 2000 ms) and for how long (default 4000 ms), latency of a failing request (default 200 ms),
+     *    latency of a Bolt / S3 stand-in request (default 1 / 3 ms), and interval of the throughput timeline
+     *    (default 500 ms); cbWindow, cbMinimumCalls, cbFailureRate, cbSlowCallMs, cbSlowCallRate, cbOpenMs and
+     *    cbHalfOpenProbes set the breaker thresholds (see CircuitBreakerS3Client)
+     *
+     * 13) requests, zipfSkew, cacheBytes, cacheObjectBytes, offHeapBytes, revalidateAfterMs - get_object_cached only:
+     *    number of requests (default 1000), skew of the Zipf key popularity (default 1.0), max. size of the heap
+     *    cache tier (default 64 MB), of a cached object (default 1 MB) and of the off-heap tier (default 0, disabled),
+     *    and time after which a cached object is revalidated by ETag (default 60000 ms)
+     *
+     * 14) s3RetryMode, s3MaxAttempts, s3BackoffBaseMs, s3MaxBackoffMs, s3ApiCallTimeoutMs, s3AttemptTimeoutMs and the
+     *    same parameters prefixed by bolt - retry policy (standard, legacy, adaptive or none) and timeouts of each
+     *    endpoint (see S3ClientFactory, SDK defaults if not set)
+     *
+     * 15) compressionRatios - put_object_gzip only: comma separated compression ratios (default 1,2,4,8); payloads of
+     *    objLength bytes that gzip compresses by about each ratio are uploaded raw and gzip compressed (compressed
+     *    before the timed upload), then read back (decompressing) and deleted
+     *
+     * 16) deadlineReserveMs, autoSize - perf tests stop deadlineReserveMs (default 5000) before the function times out
+     *    (or at 'deadline', in ms since the epoch, if earlier) and return the statistics gathered so far, marked as
+     *    partial ('deadline': partial, remainingTime). Tests that run on both Bolt and S3 share the remaining time
+     *    between them, as do the phases of 'all', delete_objects_batch, read_after_write and the two runs of
+     *    circuit_breaker_failover, so that a cut short test still compares both; tests that upload their own objects
+     *    keep time to delete them. If autoSize is true, numKeys is reduced to what fits in the remaining time, from a
+     *    few probe requests (keyCost, keysChosen)
+     *
+     * 17) scenario, mix, concurrency, requests - mixed_workload only: built-in mix (read_heavy_analytics (default),
+     *    ingest_heavy or metadata_heavy, see PerfScenario), or custom mix as weights (e.g. get=80,put=15,list=5),
+     *    number of threads issuing requests (default 8) and number of requests per endpoint (default 1000)
+     *
+     * 18) objSizes, samplesPerSize - size_sweep only: comma separated object sizes, in bytes or with a K, M or G suffix
+     *    (default 1K,4K,16K,64K,256K,1M,4M,16M,64M,256M), and objects put, read back and deleted per size (default 5).
+     *    Reports p50 / p90 latency and MB/s per size and the sizes where Bolt starts / stops being faster than S3
+     *
+     * 19) drainBufferSize - size of the buffer the get tests read and discard response bodies into (default 64K, at
+     *    most 2G - 8 bytes), reused across responses. get_object and get_object_passthrough report the read side
+     *    ('drain': bytes read, read time and readThroughput in MB/s)
+     *
+     * Each set of statistics reports the client-side cost of the timed requests ('jvm': number of requests, CPU time
+     * and bytes allocated by the measuring thread in total and per request, GC count and time), so that the CPU and
+     * allocations BoltS3Client adds per request can be compared with S3Client. The hedged reads of get_object_hedged
+     * don't report it, as their requests run on the threads of the hedging client.
+     *
+     * The tests don't stop at the first failed request (only the untimed uploads preparing the objects of
+     * get_object_warmup and delete_objects_batch do). Their statistics report the latency and throughput of the
+     * successful requests, and the outcomes of all requests ('outcomes': succeeded and failed requests, error and
+     * throttle (503 SlowDown, 429) rates, SDK retries, average and max. attempts per request, time spent in failed
+     * attempts and backoff and its share of the latency, failures by error code and latency of the failed requests).
+     *
      * Following are examples of events, for various requests, that can be used to invoke the handler function.
      * a) Measure List objects performance of Bolt/S3.
      *    {"requestType": "list_objects_v2", "bucket": "<bucket>"}
@@ -49,9 +164,54 @@ public class BoltS3PerfHandler implements RequestHandler<Map<String,String>, Map
      * g) Measure Delete object performance of Bolt / S3.
      *    {"requestType": "delete_object", "bucket": "<bucket>"}
      *
-     * h) Measure Put, Delete, Get, List objects performance of Bolt / S3.
+     * h) Measure batched Delete objects performance of Bolt / S3.
+     *    {"requestType": "delete_objects_batch", "bucket": "<bucket>", "deleteBatchSize": "500", "batchesInFlight": "4"}
+     *
+     * i) Measure the delay until objects written through S3 are readable through Bolt.
+     *    {"requestType": "read_after_write", "bucket": "<bucket>", "writeEndpoint": "s3", "overwrite": "true"}
+     *
+     * j) Measure cold vs. warm Get object performance of Bolt over 5 passes of a 1 GB working set.
+     *    {"requestType": "get_object_warmup", "bucket": "<bucket>", "passes": "5", "objLength": "1048576",
+     *     "workingSetBytes": "1073741824"}
+     *
+     * k) Measure Put, Delete, Get, List objects performance of Bolt / S3.
      *    {"requestType": "all", "bucket": "<bucket>"}
      *
+     * l) Measure Get object performance of Bolt / S3 with 16 Lambda workers.
+     *    {"requestType": "get_object", "bucket": "<bucket>", "workers": "16"}
+     *
+     * m) Measure Put object performance of Bolt / S3 per hashed key prefix.
+     *    {"requestType": "put_object", "bucket": "<bucket>", "keyStrategy": "hashed"}
+     *
+     * n) Measure Get object p99 latency of Bolt with and without hedging the slowest 5% of requests to S3.
+     *    {"requestType": "get_object_hedged", "bucket": "<bucket>", "hedgeTarget": "s3", "hedgePercentile": "95"}
+     *
+     * o) Measure how quickly failover to S3 restores throughput while Bolt is degraded.
+     *    {"requestType": "circuit_breaker_failover", "faultStartMs": "2000", "faultDurationMs": "4000"}
+     *
+     * p) Measure Get object performance of Bolt with and without a 16 MB local cache, with Zipf(1.2) key popularity.
+     *    {"requestType": "get_object_cached", "bucket": "<bucket>", "zipfSkew": "1.2", "cacheBytes": "16777216"}
+     *
+     * q) Measure Get object performance of Bolt / S3 with at most 2 attempts of 500 ms per request.
+     *    {"requestType": "get_object", "bucket": "<bucket>", "boltMaxAttempts": "2", "boltAttemptTimeoutMs": "500",
+     *     "s3MaxAttempts": "2", "s3AttemptTimeoutMs": "500"}
+     *
+     * r) Measure Put and Get object throughput of Bolt / S3 for gzip compressed vs. raw 1 MB objects (ratios 2, 8).
+     *    {"requestType": "put_object_gzip", "bucket": "<bucket>", "numKeys": "100", "objLength": "1048576",
+     *     "compressionRatios": "2,8"}
+     *
+     * s) Measure Get object performance of Bolt / S3 on as many keys as fit in the function's remaining time.
+     *    {"requestType": "get_object", "bucket": "<bucket>", "numKeys": "100000", "autoSize": "true"}
+     *
+     * t) Measure Bolt / S3 performance under a mix of 80% gets, 15% puts and 5% lists from 16 threads.
+     *    {"requestType": "mixed_workload", "bucket": "<bucket>", "mix": "get=80,put=15,list=5", "concurrency": "16"}
+     *
+     * u) Measure Put and Get object throughput of Bolt / S3 against object size, from 1 KB to 64 MB.
+     *    {"requestType": "size_sweep", "bucket": "<bucket>", "objSizes": "1K,16K,256K,4M,64M", "samplesPerSize": "10"}
+     *
+     * v) Measure Get object performance of Bolt / S3, draining response bodies with a 1 MB buffer.
+     *    {"requestType": "get_object", "bucket": "<bucket>", "drainBufferSize": "1M"}
+     *
      * @param event incoming event object
      * @param context Lambda execution environment context object
      * @return response from BoltS3Perf
@@ -59,7 +219,46 @@ public class BoltS3PerfHandler implements RequestHandler<Map<String,String>, Map
     @Override
     public Map<String,Map<String, Map<String, String>>> handleRequest(Map<String,String> event, Context context) {
 
-        BoltS3Perf boltS3Perf = new BoltS3Perf();
+        long handlerStartTime = System.nanoTime();
+        boolean coldStart = BoltStartupMetrics.beginInvocation();
+
+        Map<String,Map<String, Map<String, String>>> respMap = processEvent(event, context);
+
+        // report startup phases only if requested, so that the response format doesn't change on cold starts.
+        if (BoltStartupMetrics.isRequested(event.get("startupMetrics"))) {
+            Map<String, String> startup = BoltStartupMetrics.report(coldStart, System.nanoTime() - handlerStartTime);
+            respMap.put("startup", new HashMap<String, Map<String, String>>() {{
+                put("phases", startup);
+            }});
+        }
+        return respMap;
+    }
+
+    private Map<String,Map<String, Map<String, String>>> processEvent(Map<String,String> event, Context context) {
+
+        // stop the perf tests in time to return their (partial) statistics before the function times out.
+        if (context != null) {
+            String reserveStr = event.get("deadlineReserveMs");
+            long reserveMs = (reserveStr != null && !reserveStr.isEmpty()) ?
+                    Long.parseLong(reserveStr) : RESPONSE_RESERVE_MS;
+            long deadline = System.currentTimeMillis() + context.getRemainingTimeInMillis() - reserveMs;
+            String deadlineStr = event.get("deadline");
+            if (deadlineStr != null && !deadlineStr.isEmpty()) {
+                deadline = Math.min(deadline, Long.parseLong(deadlineStr));
+            }
+            event = new HashMap<>(event);
+            event.put("deadline", String.valueOf(deadline));
+        }
+
+        // Fan out to workers, unless this invocation is itself a worker.
+        String workers = event.get("workers");
+        if (workers != null && !workers.isEmpty() && !event.containsKey("workerIndex")) {
+            BoltS3PerfCoordinator coordinator =
+                    new BoltS3PerfCoordinator(context != null ? context.getFunctionName() : null);
+            return coordinator.processEvent(event);
+        }
+
+        BoltS3Perf boltS3Perf = new BoltS3Perf(event);
         return boltS3Perf.processEvent(event);
     }
 }
@@ -0,0 +1,323 @@
+package com.gitlab.projectn_oss.bolt;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BoltS3PerfRunner runs Bolt / S3 Performance tests outside of AWS Lambda (e.g. on an EC2 host, or on a laptop
+ * against a local stand-in), so that they are not bound by the timeout, vCPUs and memory of a function. It accepts the
+ * same parameters as BoltS3PerfHandler, from a config file and / or the command line, and runs the test on one
+ * BoltS3Perf worker thread per core (see BoltS3PerfCoordinator).
+ *
+ * For soak runs, the test is repeated in rounds until 'durationSec' has elapsed; the statistics of all rounds are
+ * merged from their raw histograms, and the merged statistics are flushed to 'output' every 'flushIntervalSec' by a
+ * timer, so that a long run can be followed while it is in progress and its results survive an interrupted run. The
+ * timer also fires while a round is in progress, but the statistics it flushes are those of the rounds completed so
+ * far (the time since the last completed round is reported as sinceLastRound). Errors are reported per round, as
+ * round<N>_<error>, up to MAX_ERRORS of them; a round that fails is followed by a pause, which doubles with each
+ * consecutive failed round (up to MAX_BACKOFF_MS), so that a failing endpoint isn't retried in a tight loop.
+ *
+ * Usage:
+ *   java -cp bolt-java-lambda-demo.jar com.gitlab.projectn_oss.bolt.BoltS3PerfRunner [--config file] [name=value ...]
+ * e.g.
+ *   java -cp bolt-java-lambda-demo.jar com.gitlab.projectn_oss.bolt.BoltS3PerfRunner requestType=get_object \
+ *       bucket=my-bucket threads=32 durationSec=3600 flushIntervalSec=60 output=soak.jsonl
+ */
+public class BoltS3PerfRunner {
+
+    // parameters of the runner, which are not passed on to the workers.
+    private static final String[] RUNNER_PARAMS = {"threads", "durationSec", "flushIntervalSec", "output"};
+
+    // max. number of errors reported; the errors of later rounds are only counted.
+    static final int MAX_ERRORS = 100;
+
+    // pause after the first failed round, and max. pause after consecutive failed rounds (ms).
+    static final long MIN_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 60000;
+
+    private final Map<String, String> event;
+    private final int threads;
+    private final long durationMs;
+    private final long flushIntervalMs;
+    private final String output;
+
+    // state of the run, shared with the flush timer.
+    private Map<String, Map<String, Map<String, String>>> merged = new HashMap<>();
+    private final Map<String, Map<String, String>> errors = new LinkedHashMap<>();
+    private long droppedErrors;
+    private int rounds;
+    private int failedRounds;
+    private long startTime;
+    private long lastRoundTime;
+    private boolean finished;
+
+    public BoltS3PerfRunner(Map<String, String> config) {
+        this.threads = Math.max(BoltS3Perf.intParam(config, "threads", Runtime.getRuntime().availableProcessors()), 1);
+        this.durationMs = Math.max(BoltS3Perf.intParam(config, "durationSec", 0), 0) * 1000L;
+        this.flushIntervalMs = Math.max(BoltS3Perf.intParam(config, "flushIntervalSec", 60), 1) * 1000L;
+        this.output = config.get("output");
+
+        // the perf test is fanned out to local worker threads, whose histograms are merged across rounds.
+        this.event = new HashMap<>(config);
+        for (String param : RUNNER_PARAMS) {
+            event.remove(param);
+        }
+        event.put("workers", String.valueOf(threads));
+        event.put("workerMode", BoltS3PerfCoordinator.WorkerMode.LOCAL.name());
+        event.put("emitHistograms", "true");
+    }
+
+    /**
+     * Runs the perf test once, or in rounds until the soak duration has elapsed, flushing the merged statistics to the
+     * output periodically, from a timer. A failed round is followed by a pause (see backoff), unless the soak duration
+     * has elapsed; an interrupted pause ends the run.
+     * @return statistics merged over all rounds
+     * @throws IOException if the statistics could not be written to the output
+     */
+    public Map<String, Map<String, Map<String, String>>> run() throws IOException {
+        BoltS3PerfCoordinator coordinator = new BoltS3PerfCoordinator(null);
+        startTime = System.currentTimeMillis();
+        lastRoundTime = startTime;
+
+        // flush on a timer, so that the output keeps up with a round that outlasts the flush interval.
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bolt-perf-runner-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleAtFixedRate(this::flushProgress, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        try {
+            int consecutiveFailures = 0;
+            while (true) {
+                Map<String, Map<String, Map<String, String>>> round = coordinator.processEvent(event);
+
+                long pauseMs;
+                synchronized (this) {
+                    rounds++;
+                    lastRoundTime = System.currentTimeMillis();
+                    // only the statistics with raw histograms are merged across rounds; the other (summary)
+                    // statistics are specific to a round.
+                    Map<String, Map<String, Map<String, String>>> roundStats = new HashMap<>();
+                    for (Map.Entry<String, Map<String, Map<String, String>>> stat : round.entrySet()) {
+                        if (stat.getValue().containsKey("histogram")) {
+                            roundStats.put(stat.getKey(), stat.getValue());
+                        } else if (stat.getKey().equals("error")) {
+                            String prefix = "round" + rounds + "_";
+                            stat.getValue().forEach((name, error) -> {
+                                if (errors.size() < MAX_ERRORS) {
+                                    errors.put(prefix + name, error);
+                                } else {
+                                    droppedErrors++;
+                                }
+                            });
+                        }
+                    }
+                    merged = BoltS3PerfCoordinator.merge(Arrays.asList(merged, roundStats), true);
+
+                    if (round.containsKey("error")) {
+                        failedRounds++;
+                        consecutiveFailures++;
+                    } else {
+                        consecutiveFailures = 0;
+                    }
+                    long elapsed = lastRoundTime - startTime;
+                    pauseMs = Math.min(backoff(consecutiveFailures), durationMs - elapsed);
+                    if (elapsed >= durationMs) {
+                        finished = true;
+                        Map<String, Map<String, Map<String, String>>> report = report(merged, round, elapsed, true);
+                        flush(report);
+                        return report;
+                    }
+                }
+                if (pauseMs > 0) {
+                    try {
+                        Thread.sleep(pauseMs);
+                    } catch (InterruptedException e) {
+                        // stop the soak, reporting the rounds completed so far.
+                        Thread.currentThread().interrupt();
+                        synchronized (this) {
+                            finished = true;
+                            Map<String, Map<String, Map<String, String>>> report =
+                                    report(merged, round, System.currentTimeMillis() - startTime, false);
+                            flush(report);
+                            return report;
+                        }
+                    }
+                }
+            }
+        } finally {
+            flusher.shutdown();
+        }
+    }
+
+    /**
+     * Returns the pause after a number of consecutive failed rounds: none after a successful round, MIN_BACKOFF_MS
+     * after the first failed round, doubling with each further one, up to MAX_BACKOFF_MS.
+     * @param consecutiveFailures number of consecutive failed rounds
+     * @return pause (ms)
+     */
+    static long backoff(int consecutiveFailures) {
+        if (consecutiveFailures <= 0) {
+            return 0;
+        }
+        // cap the shift, so that it can't overflow.
+        return Math.min(MIN_BACKOFF_MS << Math.min(consecutiveFailures - 1, 16), MAX_BACKOFF_MS);
+    }
+
+    /**
+     * Flushes the statistics of the rounds completed so far, unless the run has finished. Called by the flush timer;
+     * the statistics of a round in progress are not included until the round completes.
+     */
+    private synchronized void flushProgress() {
+        if (finished) {
+            return;
+        }
+        try {
+            flush(report(merged, null, System.currentTimeMillis() - startTime, false));
+        } catch (IOException e) {
+            // keep running, the final report is flushed (and its failure reported) by run().
+            System.err.println("Failed to flush statistics: " + e);
+        }
+    }
+
+    /**
+     * Builds a report of the statistics merged so far, without the raw histograms, and of the errors of all rounds.
+     * @param merged statistics merged over all completed rounds
+     * @param lastRound statistics of the last round (incl. its summary statistics), or null
+     * @param elapsed time since the start of the run (ms)
+     * @param complete whether the run is complete
+     * @return report
+     */
+    private Map<String, Map<String, Map<String, String>>> report(
+            Map<String, Map<String, Map<String, String>>> merged,
+            Map<String, Map<String, Map<String, String>>> lastRound, long elapsed, boolean complete) {
+        Map<String, Map<String, Map<String, String>>> report = new LinkedHashMap<>();
+        if (lastRound != null) {
+            for (Map.Entry<String, Map<String, Map<String, String>>> stat : lastRound.entrySet()) {
+                if (!stat.getValue().containsKey("histogram") && !stat.getKey().equals("error") &&
+                        !stat.getKey().equals("coordinator")) {
+                    report.put(stat.getKey(), stat.getValue());
+                }
+            }
+        }
+        for (Map.Entry<String, Map<String, Map<String, String>>> stat : merged.entrySet()) {
+            Map<String, Map<String, String>> perfStats = new HashMap<>(stat.getValue());
+            perfStats.remove("histogram");
+            report.put(stat.getKey(), perfStats);
+        }
+
+        Map<String, String> runner = new HashMap<>();
+        runner.put("threads", String.valueOf(threads));
+        runner.put("rounds", String.valueOf(rounds));
+        runner.put("failedRounds", String.valueOf(failedRounds));
+        runner.put("droppedErrors", String.valueOf(droppedErrors));
+        runner.put("elapsed", String.format("%d ms", elapsed));
+        runner.put("sinceLastRound", String.format("%d ms", startTime + elapsed - lastRoundTime));
+        runner.put("complete", String.valueOf(complete));
+        report.put("runner", new HashMap<String, Map<String, String>>() {{
+            put("summary", runner);
+        }});
+        if (!errors.isEmpty()) {
+            report.put("error", errors);
+        }
+        return report;
+    }
+
+    /**
+     * Appends a report to the output file, as a line of JSON, or prints it if no output file is configured.
+     * @param report report
+     * @throws IOException
+     */
+    private void flush(Map<String, Map<String, Map<String, String>>> report) throws IOException {
+        String json = PerfJson.encode(report);
+        if (output == null || output.isEmpty()) {
+            System.out.println(json);
+            return;
+        }
+        try (Writer writer = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(json);
+            writer.write(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Reads the runner parameters from a config file (JSON, or Java properties) and the command line, where
+     * parameters of the command line override those of the config file.
+     * @param args command line: [--config file] [name=value ...]
+     * @return parameters
+     * @throws IOException if the config file could not be read
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, String> parseArgs(String[] args) throws IOException {
+        Map<String, String> config = new HashMap<>();
+        List<String> overrides = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--config") || args[i].equals("-c")) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing config file after " + args[i]);
+                }
+                String file = args[++i];
+                if (file.endsWith(".json")) {
+                    String json = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+                    ((Map<String, Object>) PerfJson.decode(json)).forEach((name, value) -> {
+                        if (value != null) {
+                            config.put(name, value.toString());
+                        }
+                    });
+                } else {
+                    Properties properties = new Properties();
+                    try (InputStream in = new FileInputStream(file)) {
+                        properties.load(in);
+                    }
+                    properties.stringPropertyNames().forEach(name -> config.put(name, properties.getProperty(name)));
+                }
+            } else if (args[i].contains("=")) {
+                overrides.add(args[i]);
+            } else {
+                throw new IllegalArgumentException("Invalid argument " + args[i] + ", expected name=value");
+            }
+        }
+        for (String override : overrides) {
+            int sep = override.indexOf('=');
+            config.put(override.substring(0, sep), override.substring(sep + 1));
+        }
+        return config;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> config;
+        try {
+            config = parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: BoltS3PerfRunner [--config file] [name=value ...]");
+            System.exit(2);
+            return;
+        }
+        BoltS3PerfRunner runner = new BoltS3PerfRunner(config);
+        Map<String, Map<String, Map<String, String>>> report = runner.run();
+        if (runner.output != null && !runner.output.isEmpty()) {
+            System.out.println(PerfJson.encode(report));
+        }
+        if (report.containsKey("error")) {
+            System.exit(1);
+        }
+    }
+}
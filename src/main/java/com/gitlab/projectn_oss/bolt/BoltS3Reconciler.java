@@ -0,0 +1,268 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BoltS3Reconciler checks that Bolt's view of a bucket matches S3, by listing the bucket on both endpoints in
+ * parallel and merge-joining the two listings, which are both sorted by key (in UTF-8 binary order). Only a few
+ * pages of each listing are held in memory at a time, so that buckets of any size can be reconciled; if the deadline
+ * is reached first, the key to resume from is reported.
+ */
+public class BoltS3Reconciler {
+
+    // keys per List Objects V2 request.
+    private static final int PAGE_SIZE = 1000;
+    // pages of each listing fetched ahead of the merge-join.
+    private static final int PREFETCH_PAGES = 4;
+    // max. number of keys of each kind of difference included in the response.
+    private static final int MAX_REPORTED_KEYS = 100;
+    // end of a listing.
+    private static final List<S3Object> END = Collections.emptyList();
+
+    private final S3Client s3;
+    private final S3Client boltS3;
+
+    public BoltS3Reconciler(S3Client s3, S3Client boltS3) {
+        this.s3 = s3;
+        this.boltS3 = boltS3;
+    }
+
+    /**
+     * Reconciles the S3 and Bolt listings of a bucket.
+     * @param bucket bucket name
+     * @param prefix prefix of the keys to reconcile, or null
+     * @param startAfter key to start after (to resume a previous run), or null
+     * @param maxKeys max. number of keys to reconcile
+     * @param deadline time (System.currentTimeMillis()) at which to stop
+     * @return number of keys compared, missing from Bolt, extra in Bolt, with mismatched size or ETag, keys compared
+     *         per second, and the key to resume from if not all keys were compared.
+     * @throws Exception
+     */
+    public Map<String, String> reconcile(String bucket, String prefix, String startAfter, long maxKeys,
+                                         long deadline) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Listing s3Listing = new Listing(s3, bucket, prefix, startAfter);
+        Listing boltListing = new Listing(boltS3, bucket, prefix, startAfter);
+
+        long compared = 0;
+        long matched = 0;
+        long missing = 0;
+        long extra = 0;
+        long sizeMismatched = 0;
+        long eTagMismatched = 0;
+        List<String> missingKeys = new ArrayList<>();
+        List<String> extraKeys = new ArrayList<>();
+        List<String> mismatchedKeys = new ArrayList<>();
+        String lastKey = null;
+        boolean truncated = false;
+        long startTime = System.nanoTime();
+
+        try {
+            executor.submit(s3Listing);
+            executor.submit(boltListing);
+
+            S3Object s3Obj = s3Listing.peek();
+            S3Object boltObj = boltListing.peek();
+            while (s3Obj != null || boltObj != null) {
+                if (compared >= maxKeys || System.currentTimeMillis() >= deadline) {
+                    truncated = true;
+                    break;
+                }
+
+                int cmp = s3Obj == null ? 1 : (boltObj == null ? -1 : compareUtf8(s3Obj.key(), boltObj.key()));
+                if (cmp < 0) {
+                    // in S3 only.
+                    missing++;
+                    report(missingKeys, s3Obj.key());
+                    lastKey = s3Obj.key();
+                    s3Listing.next();
+                } else if (cmp > 0) {
+                    // in Bolt only.
+                    extra++;
+                    report(extraKeys, boltObj.key());
+                    lastKey = boltObj.key();
+                    boltListing.next();
+                } else {
+                    boolean sameSize = s3Obj.size() != null && s3Obj.size().equals(boltObj.size());
+                    boolean sameETag = s3Obj.eTag() != null && s3Obj.eTag().equals(boltObj.eTag());
+                    if (!sameSize) {
+                        sizeMismatched++;
+                    }
+                    if (!sameETag) {
+                        eTagMismatched++;
+                    }
+                    if (sameSize && sameETag) {
+                        matched++;
+                    } else {
+                        report(mismatchedKeys, s3Obj.key());
+                    }
+                    lastKey = s3Obj.key();
+                    s3Listing.next();
+                    boltListing.next();
+                }
+                compared++;
+                s3Obj = s3Listing.peek();
+                boltObj = boltListing.peek();
+            }
+        } finally {
+            s3Listing.stop();
+            boltListing.stop();
+            executor.shutdownNow();
+        }
+        double elapsedSec = (System.nanoTime() - startTime) / 1e9;
+
+        Map<String, String> map = new HashMap<>();
+        map.put("keysCompared", String.valueOf(compared));
+        map.put("matched", String.valueOf(matched));
+        map.put("missingInBolt", String.valueOf(missing));
+        map.put("extraInBolt", String.valueOf(extra));
+        map.put("sizeMismatched", String.valueOf(sizeMismatched));
+        map.put("eTagMismatched", String.valueOf(eTagMismatched));
+        map.put("missingKeys", String.join(",", missingKeys));
+        map.put("extraKeys", String.join(",", extraKeys));
+        map.put("mismatchedKeys", String.join(",", mismatchedKeys));
+        map.put("keysPerSec", String.format("%.2f keys/sec", elapsedSec > 0 ? compared / elapsedSec : 0.0));
+        map.put("elapsed", String.format("%.2f ms", elapsedSec * 1000));
+        map.put("complete", String.valueOf(!truncated));
+        if (truncated && lastKey != null) {
+            map.put("nextStartAfter", lastKey);
+        }
+        return map;
+    }
+
+    /**
+     * Compares keys in the order S3 lists them: by their UTF-8 bytes, which is the order of their code points (unlike
+     * String.compareTo, which compares UTF-16 code units).
+     * @param a key
+     * @param b key
+     * @return negative, zero or positive if a sorts before, equal to or after b
+     */
+    static int compareUtf8(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    private static void report(List<String> keys, String key) {
+        if (keys.size() < MAX_REPORTED_KEYS) {
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Listing pages through List Objects V2 of one endpoint on its own thread, a few pages ahead of the consumer.
+     */
+    private static class Listing implements Runnable {
+
+        private final S3Client client;
+        private final String bucket;
+        private final String prefix;
+        private final String startAfter;
+        private final BlockingQueue<List<S3Object>> pages = new ArrayBlockingQueue<>(PREFETCH_PAGES);
+        private volatile boolean stopped;
+        private volatile Exception failure;
+        private Iterator<S3Object> page;
+        private S3Object current;
+        private boolean ended;
+
+        Listing(S3Client client, String bucket, String prefix, String startAfter) {
+            this.client = client;
+            this.bucket = bucket;
+            this.prefix = prefix;
+            this.startAfter = startAfter;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String continuationToken = null;
+                do {
+                    ListObjectsV2Request listObjectsV2Request = ListObjectsV2Request.builder()
+                            .bucket(bucket)
+                            .prefix(prefix)
+                            .startAfter(continuationToken == null ? startAfter : null)
+                            .continuationToken(continuationToken)
+                            .maxKeys(PAGE_SIZE)
+                            .build();
+                    ListObjectsV2Response resp = client.listObjectsV2(listObjectsV2Request);
+                    if (!resp.contents().isEmpty() && !put(resp.contents())) {
+                        return;
+                    }
+                    continuationToken = resp.isTruncated() ? resp.nextContinuationToken() : null;
+                } while (continuationToken != null);
+            } catch (Exception e) {
+                failure = e;
+            }
+            put(END);
+        }
+
+        /**
+         * Returns the next object of the listing, without consuming it.
+         * @return next object, or null at the end of the listing
+         * @throws Exception if listing failed
+         */
+        S3Object peek() throws Exception {
+            while (current == null && !ended) {
+                if (page != null && page.hasNext()) {
+                    current = page.next();
+                } else {
+                    List<S3Object> next = pages.take();
+                    if (next == END) {
+                        ended = true;
+                        if (failure != null) {
+                            throw failure;
+                        }
+                    } else {
+                        page = next.iterator();
+                    }
+                }
+            }
+            return current;
+        }
+
+        void next() {
+            current = null;
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        private boolean put(List<S3Object> contents) {
+            try {
+                while (!stopped) {
+                    if (pages.offer(contents, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+}
@@ -2,16 +2,16 @@ package com.gitlab.projectn_oss.bolt;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.GetObjectResponse;
-import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.*;
 
-import javax.xml.bind.DatatypeConverter;
-import java.io.ByteArrayOutputStream;
-import java.security.MessageDigest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
@@ -21,6 +21,18 @@ import java.util.zip.GZIPInputStream;
  */
 public class BoltS3ValidateObjHandler implements RequestHandler<Map<String,String>, Map<String,String>> {
 
+    static {
+        // prime the SDK during the Lambda init phase, if enabled.
+        BoltStartupMetrics.primeIfEnabled();
+    }
+
+    // default size of the chunks compared in diff mode.
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    // time reserved to respond before the Lambda timeout, in reconcile mode.
+    private static final long RESPONSE_RESERVE_MS = 5000;
+    // max. number of mismatched keys included in the response.
+    private static final int MAX_REPORTED_KEYS = 100;
+
     // Indicates if source bucket is cleaned post crunch.
     enum BucketClean {
         // bucket is cleaned post crunch
@@ -29,6 +41,18 @@ public class BoltS3ValidateObjHandler implements RequestHandler<Map<String,Strin
         OFF
     }
 
+    // validation modes supported
+    enum ValidationMode {
+        // download both objects and compare their checksums
+        FULL,
+        // compare metadata (Head Object) first, download only if inconclusive
+        TIERED,
+        // read both objects in lockstep, chunk by chunk, up to the first difference
+        DIFF,
+        // merge-join the S3 and Bolt listings of the bucket
+        RECONCILE
+    }
+
     /**
      * handlerRequest is the handler function that is invoked by AWS Lambda to process an incoming event for
      * performing data validation tests.
@@ -36,93 +60,93 @@ public class BoltS3ValidateObjHandler implements RequestHandler<Map<String,Strin
      * handleRequest accepts the following input parameters as part of the event:
      * 1) bucket - bucket name
      * 2) key - key name
+     * 3) validationMode - how objects are validated:
+     *    a) full - retrieve the object from Bolt and S3 and compare their checksums (default)
+     *    b) tiered - compare content length and ETag (Head Object) of the Bolt and S3 objects first, and retrieve
+     *       the objects only if the metadata is inconclusive (same length but different ETags, gzip encoded
+     *       objects)
+     *    c) diff - read the Bolt and S3 objects in lockstep, chunk by chunk, and stop at the first difference
+     *    d) reconcile - list the bucket on Bolt and S3 in parallel and merge-join the listings
+     * 4) checksum - checksum of retrieved objects, md5 (default) or crc32c (faster)
+     * 5) prefix, maxKeys - tiered only: if no key is passed, the objects under prefix (up to maxKeys, default 1000)
+     *    are validated
+     * 6) chunkSize - diff only: size of the compared chunks (default 1048576 bytes)
+     * 7) prefix, startAfter, maxKeys - reconcile only: keys to reconcile (default all keys of the bucket)
      *
-     * handleRequest retrieves the object from Bolt and S3 (if BucketClean is OFF), computes and returns their
-     * corresponding MD5 hash. If the object is gzip encoded, object is decompressed before computing its MD5.
+     * In full mode, handleRequest retrieves the object from Bolt and S3 (if BucketClean is OFF), computes and returns
+     * their corresponding checksum (MD5 hash by default). If the object is gzip encoded, object is decompressed before
+     * computing its checksum. In tiered mode, handleRequest returns the number of objects settled by each tier,
+     * matched, mismatched and missing from S3, and the bytes whose download was avoided. In diff mode, handleRequest returns whether the
+     * (decompressed) objects match, the offset of the first differing byte and the content length of each object. In
+     * reconcile mode, handleRequest returns the number of keys missing from Bolt, extra in Bolt and with mismatched
+     * size / ETag, and the key to resume from (startAfter) if the Lambda timeout was reached first.
      * @param event incoming event object
      * @param context Lambda execution environment context object
-     * @return md5s of object retrieved from Bolt and S3.
+     * @return checksums of object retrieved from Bolt and S3, tiered validation counters, or the first difference.
      */
     @Override
     public Map<String,String> handleRequest(Map<String,String> event, Context context) {
 
+        long handlerStartTime = System.nanoTime();
+        boolean coldStart = BoltStartupMetrics.beginInvocation();
+
+        Map<String,String> respMap = validate(event, context);
+
+        // report startup phases only if requested, so that the response format doesn't change on cold starts.
+        if (BoltStartupMetrics.isRequested(event.get("startupMetrics"))) {
+            BoltStartupMetrics.report(coldStart, System.nanoTime() - handlerStartTime)
+                    .forEach((phase, value) -> respMap.put("startup_" + phase, value));
+        }
+        return respMap;
+    }
+
+    /**
+     * Validates the object(s) in the requested validation mode.
+     * @param event incoming event object
+     * @param context Lambda execution environment context object
+     * @return checksums of the object retrieved from Bolt and S3, or the validation counters.
+     */
+    private Map<String,String> validate(Map<String,String> event, Context context) {
+
         String bucket = event.get("bucket");
         String key = event.get("key");
         String bucketCleanStr = event.get("bucketClean");
         BucketClean bucketClean = (bucketCleanStr != null && !bucketCleanStr.isEmpty()) ?
                 BucketClean.valueOf(bucketCleanStr.toUpperCase()) : BucketClean.OFF;
+        String validationModeStr = event.get("validationMode");
+        ValidationMode validationMode = (validationModeStr != null && !validationModeStr.isEmpty()) ?
+                ValidationMode.valueOf(validationModeStr.toUpperCase()) : ValidationMode.FULL;
 
-        S3Client s3 = S3Client.builder().build();
-        S3Client boltS3 = BoltS3Client.builder().build();
+        S3Client s3 = BoltStartupMetrics.time("s3ClientBuild", () -> S3ClientFactory.s3(event));
+        S3Client boltS3 = BoltStartupMetrics.time("boltClientBuild", () -> S3ClientFactory.bolt(event));
 
         Map<String,String> respMap;
 
         try {
-            GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(bucket).key(key).build();
-
-            // Get Object from Bolt.
-            ResponseBytes<GetObjectResponse> boltS3ResponseBytes = boltS3.getObjectAsBytes(getObjectRequest);
-            // Get Object from S3 if bucket clean is off.
-            ResponseBytes<GetObjectResponse> s3ResponseBytes = null;
-            if (bucketClean == BucketClean.OFF) {
-                s3ResponseBytes = s3.getObjectAsBytes(getObjectRequest);
+            ObjectDigest.Algorithm algorithm = ObjectDigest.algorithmOf(event.get("checksum"));
+            if (validationMode != ValidationMode.FULL && bucketClean == BucketClean.ON) {
+                throw new IllegalArgumentException(validationMode.name().toLowerCase() +
+                        " validation requires bucketClean 'off'");
             }
-
-            // Parse the MD5 of the returned object
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            String s3Md5, boltS3Md5;
-
-            // If Object is gzip encoded, compute MD5 on the decompressed object.
-            String encoding = s3ResponseBytes.response().contentEncoding();
-            if ((encoding != null && encoding.equalsIgnoreCase("gzip")) ||
-                    key.endsWith(".gz")) {
-                GZIPInputStream gis;
-                ByteArrayOutputStream output;
-                byte[] buffer = new byte[1024];
-                int len;
-
-                // MD5 of the S3 object after gzip decompression.
-                gis = new GZIPInputStream(s3ResponseBytes.asInputStream());
-                output = new ByteArrayOutputStream();
-
-                while ((len = gis.read(buffer)) > 0) {
-                    output.write(buffer, 0, len);
-                }
-
-                md.update(output.toByteArray());
-                s3Md5 = DatatypeConverter.printHexBinary(md.digest()).toUpperCase();
-                output.close();
-                gis.close();
-
-                // MD5 of the Bolt object after gzip decompression.
-                gis = new GZIPInputStream(boltS3ResponseBytes.asInputStream());
-                output = new ByteArrayOutputStream();
-
-                while ((len = gis.read(buffer)) > 0) {
-                    output.write(buffer, 0, len);
-                }
-
-                md.reset();
-                md.update(output.toByteArray());
-                boltS3Md5 = DatatypeConverter.printHexBinary(md.digest()).toUpperCase();
-                output.close();
-                gis.close();
-            } else  {
-                // MD5 of the S3 object
-                md.update(s3ResponseBytes.asByteArray());
-                s3Md5 = DatatypeConverter.printHexBinary(md.digest()).toUpperCase();
-
-                //MD5 of the Bolt object
-                md.reset();
-                md.update(boltS3ResponseBytes.asByteArray());
-                boltS3Md5 = DatatypeConverter.printHexBinary(md.digest()).toUpperCase();
+            if (validationMode == ValidationMode.TIERED) {
+                return validateTiered(s3, boltS3, bucket, key, event, algorithm);
+            } else if (validationMode == ValidationMode.DIFF) {
+                String chunkSizeStr = event.get("chunkSize");
+                int chunkSize = (chunkSizeStr != null && !chunkSizeStr.isEmpty()) ?
+                        Integer.parseInt(chunkSizeStr) : DEFAULT_CHUNK_SIZE;
+                return validateDiff(s3, boltS3, bucket, key, Math.max(chunkSize, 1));
+            } else if (validationMode == ValidationMode.RECONCILE) {
+                String maxKeysStr = event.get("maxKeys");
+                long maxKeys = (maxKeysStr != null && !maxKeysStr.isEmpty()) ?
+                        Long.parseLong(maxKeysStr) : Long.MAX_VALUE;
+                // stop early enough to respond before the Lambda timeout.
+                long deadline = context != null ?
+                        System.currentTimeMillis() + context.getRemainingTimeInMillis() - RESPONSE_RESERVE_MS :
+                        Long.MAX_VALUE;
+                return new BoltS3Reconciler(s3, boltS3).reconcile(bucket, event.get("prefix"),
+                        event.get("startAfter"), maxKeys, deadline);
             }
-
-            Map<String,String> map = new HashMap<String, String>() {{
-                put("s3-md5", s3Md5);
-                put("bolt-md5", boltS3Md5);
-            }};
-            return map;
+            return validateFull(s3, boltS3, bucket, key, bucketClean, algorithm);
         } catch (S3Exception e) {
             String msg = e.awsErrorDetails().errorMessage();
             String code = e.awsErrorDetails().errorCode();
@@ -140,4 +164,296 @@ public class BoltS3ValidateObjHandler implements RequestHandler<Map<String,Strin
         }
         return respMap;
     }
+
+    /**
+     * Retrieves the object from Bolt and S3 (if BucketClean is OFF) and computes their corresponding checksum, while
+     * streaming the objects. If the object is gzip encoded, the checksum is computed on the decompressed object.
+     * @param s3 S3 client
+     * @param boltS3 Bolt client
+     * @param bucket bucket name
+     * @param key key name
+     * @param bucketClean whether the source bucket is cleaned post crunch
+     * @param algorithm checksum algorithm
+     * @return checksums of the object retrieved from Bolt and S3.
+     * @throws Exception
+     */
+    private Map<String,String> validateFull(S3Client s3, S3Client boltS3, String bucket, String key,
+                                            BucketClean bucketClean, ObjectDigest.Algorithm algorithm)
+            throws Exception {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(bucket).key(key).build();
+        String name = algorithm.name().toLowerCase();
+        ObjectDigest digest = new ObjectDigest(algorithm);
+        Map<String,String> map = new HashMap<>();
+
+        // Get Object from S3 if bucket clean is off, and from Bolt. Each object is digested fully, and its stream
+        // closed, before the other is requested, so that neither connection idles while the other object is read.
+        if (bucketClean == BucketClean.OFF) {
+            boolean gzip;
+            try (ResponseInputStream<GetObjectResponse> s3Resp = s3.getObject(getObjectRequest)) {
+                // If Object is gzip encoded (as reported by S3), compute the checksums on the decompressed object.
+                gzip = ObjectDigest.isGzip(s3Resp.response(), key);
+                digest.update(s3Resp, gzip);
+                map.put("s3-" + name, digest.digest());
+            }
+            try (ResponseInputStream<GetObjectResponse> boltResp = boltS3.getObject(getObjectRequest)) {
+                digest.update(boltResp, gzip);
+                map.put("bolt-" + name, digest.digest());
+            }
+        } else {
+            try (ResponseInputStream<GetObjectResponse> boltResp = boltS3.getObject(getObjectRequest)) {
+                digest.update(boltResp, ObjectDigest.isGzip(boltResp.response(), key));
+                map.put("bolt-" + name, digest.digest());
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Validates the object, or the objects under a prefix, tier by tier: the content length and ETag of the objects
+     * (Head Object) are compared first, and the objects are only downloaded and their checksums compared if the
+     * metadata is inconclusive: the objects have the same length but different ETags (multipart, SSE-KMS or SSE-C
+     * objects), or are gzip encoded. Keys missing from S3 (e.g. deleted since they were listed) are reported as such,
+     * without stopping the validation.
+     * @param s3 S3 client
+     * @param boltS3 Bolt client
+     * @param bucket bucket name
+     * @param key key name, or null to validate the objects under 'prefix' (up to 'maxKeys', default 1000)
+     * @param event incoming event object
+     * @param algorithm checksum algorithm of downloaded objects
+     * @return number of objects settled by each tier, matched, mismatched and missing from S3, and the bytes not
+     *         downloaded.
+     * @throws Exception
+     */
+    private Map<String,String> validateTiered(S3Client s3, S3Client boltS3, String bucket, String key,
+                                              Map<String,String> event, ObjectDigest.Algorithm algorithm)
+            throws Exception {
+        List<String> keys;
+        if (key != null && !key.isEmpty()) {
+            keys = Collections.singletonList(key);
+        } else {
+            String maxKeysStr = event.get("maxKeys");
+            int maxKeys = (maxKeysStr != null && !maxKeysStr.isEmpty()) ? Integer.parseInt(maxKeysStr) : 1000;
+            keys = new ArrayList<>();
+            ListObjectsV2Request listObjectsV2Request = ListObjectsV2Request.builder()
+                    .bucket(bucket)
+                    .prefix(event.get("prefix"))
+                    .build();
+            for (S3Object object : s3.listObjectsV2Paginator(listObjectsV2Request).contents()) {
+                if (keys.size() >= maxKeys) {
+                    break;
+                }
+                keys.add(object.key());
+            }
+        }
+
+        ObjectDigest digest = new ObjectDigest(algorithm);
+        long settledByMetadata = 0;
+        long settledByDownload = 0;
+        long matched = 0;
+        long missing = 0;
+        long bytesAvoided = 0;
+        long bytesDownloaded = 0;
+        List<String> mismatchedKeys = new ArrayList<>();
+        List<String> missingKeys = new ArrayList<>();
+        long startTime = System.nanoTime();
+
+        for (String objKey : keys) {
+            HeadObjectRequest headObjectRequest = HeadObjectRequest.builder().bucket(bucket).key(objKey).build();
+            HeadObjectResponse s3Head;
+            try {
+                s3Head = s3.headObject(headObjectRequest);
+            } catch (NoSuchKeyException e) {
+                s3Head = null;
+            } catch (S3Exception e) {
+                if (e.statusCode() != 404) {
+                    throw e;
+                }
+                s3Head = null;
+            }
+            if (s3Head == null) {
+                // deleted from S3 since it was listed (or never there, if passed as key): nothing to compare.
+                missing++;
+                if (missingKeys.size() < MAX_REPORTED_KEYS) {
+                    missingKeys.add(objKey);
+                }
+                continue;
+            }
+            HeadObjectResponse boltHead;
+            try {
+                boltHead = boltS3.headObject(headObjectRequest);
+            } catch (NoSuchKeyException e) {
+                boltHead = null;
+            } catch (S3Exception e) {
+                if (e.statusCode() != 404) {
+                    throw e;
+                }
+                boltHead = null;
+            }
+
+            long objBytes = s3Head.contentLength() + (boltHead != null ? boltHead.contentLength() : 0);
+            Boolean match = boltHead != null ? compareMetadata(s3Head, boltHead, objKey) : Boolean.FALSE;
+            if (match != null) {
+                settledByMetadata++;
+                bytesAvoided += objBytes;
+            } else {
+                // metadata is inconclusive, compare checksums of the (decompressed) objects.
+                settledByDownload++;
+                bytesDownloaded += objBytes;
+                GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(bucket).key(objKey).build();
+                String s3Digest;
+                String boltDigest;
+                boolean gzip;
+                // each object is digested fully, and its stream closed, before the other is requested.
+                try (ResponseInputStream<GetObjectResponse> s3Resp = s3.getObject(getObjectRequest)) {
+                    gzip = ObjectDigest.isGzip(s3Resp.response(), objKey);
+                    digest.update(s3Resp, gzip);
+                    s3Digest = digest.digest();
+                }
+                try (ResponseInputStream<GetObjectResponse> boltResp = boltS3.getObject(getObjectRequest)) {
+                    digest.update(boltResp, gzip);
+                    boltDigest = digest.digest();
+                }
+                match = s3Digest.equals(boltDigest);
+            }
+
+            if (match) {
+                matched++;
+            } else if (mismatchedKeys.size() < MAX_REPORTED_KEYS) {
+                mismatchedKeys.add(objKey);
+            }
+        }
+        double elapsedMs = (System.nanoTime() - startTime) / 1e6;
+
+        Map<String,String> map = new HashMap<>();
+        map.put("objectsValidated", String.valueOf(keys.size()));
+        map.put("settledByMetadata", String.valueOf(settledByMetadata));
+        map.put("settledByDownload", String.valueOf(settledByDownload));
+        map.put("matched", String.valueOf(matched));
+        map.put("mismatched", String.valueOf(keys.size() - matched - missing));
+        map.put("mismatchedKeys", String.join(",", mismatchedKeys));
+        map.put("missingInS3", String.valueOf(missing));
+        map.put("missingInS3Keys", String.join(",", missingKeys));
+        map.put("bytesAvoided", String.format("%d bytes", bytesAvoided));
+        map.put("bytesDownloaded", String.format("%d bytes", bytesDownloaded));
+        map.put("checksum", algorithm.name().toLowerCase());
+        map.put("elapsed", String.format("%.2f ms", elapsedMs));
+        return map;
+    }
+
+    /**
+     * Reads the S3 and Bolt objects in lockstep, one chunk of each at a time (after gzip decompression, if encoded),
+     * and stops at the first chunk that differs, so that the rest of a corrupt object is not downloaded.
+     * @param s3 S3 client
+     * @param boltS3 Bolt client
+     * @param bucket bucket name
+     * @param key key name
+     * @param chunkSize size of the compared chunks
+     * @return whether the objects match, the offset of the first differing byte, the bytes compared and the
+     *         content length of each object.
+     * @throws Exception
+     */
+    private Map<String,String> validateDiff(S3Client s3, S3Client boltS3, String bucket, String key, int chunkSize)
+            throws Exception {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(bucket).key(key).build();
+        byte[] s3Chunk = new byte[chunkSize];
+        byte[] boltChunk = new byte[chunkSize];
+        long offset = 0;
+        long mismatchOffset = -1;
+        long startTime = System.nanoTime();
+
+        Map<String,String> map = new HashMap<>();
+        try (ResponseInputStream<GetObjectResponse> s3Resp = s3.getObject(getObjectRequest);
+             ResponseInputStream<GetObjectResponse> boltResp = boltS3.getObject(getObjectRequest)) {
+            boolean s3Gzip = ObjectDigest.isGzip(s3Resp.response(), key);
+            boolean boltGzip = ObjectDigest.isGzip(boltResp.response(), key);
+            // the inflaters of gzip streams hold native memory, released on close.
+            try (InputStream s3Data = s3Gzip ? new GZIPInputStream(s3Resp, ObjectDigest.GZIP_BUFFER_SIZE) : s3Resp;
+                 InputStream boltData = boltGzip ?
+                         new GZIPInputStream(boltResp, ObjectDigest.GZIP_BUFFER_SIZE) : boltResp) {
+                while (true) {
+                    int s3Len = readChunk(s3Data, s3Chunk);
+                    int boltLen = readChunk(boltData, boltChunk);
+                    int len = Math.min(s3Len, boltLen);
+                    for (int i = 0; i < len; i++) {
+                        if (s3Chunk[i] != boltChunk[i]) {
+                            mismatchOffset = offset + i;
+                            break;
+                        }
+                    }
+                    if (mismatchOffset < 0 && s3Len != boltLen) {
+                        // one object ends before the other.
+                        mismatchOffset = offset + len;
+                    }
+                    if (mismatchOffset >= 0) {
+                        offset = mismatchOffset;
+                        // abort instead of draining the rest of the objects.
+                        s3Resp.abort();
+                        boltResp.abort();
+                        break;
+                    }
+                    offset += len;
+                    if (len < chunkSize) {
+                        break;
+                    }
+                }
+            }
+
+            map.put("s3ContentLength", String.valueOf(s3Resp.response().contentLength()));
+            map.put("boltContentLength", String.valueOf(boltResp.response().contentLength()));
+            map.put("decompressed", String.valueOf(s3Gzip || boltGzip));
+        }
+        double elapsedMs = (System.nanoTime() - startTime) / 1e6;
+
+        map.put("match", String.valueOf(mismatchOffset < 0));
+        map.put("firstMismatchOffset", mismatchOffset >= 0 ? String.valueOf(mismatchOffset) : "none");
+        map.put("bytesCompared", String.format("%d bytes", offset));
+        map.put("chunkSize", String.format("%d bytes", chunkSize));
+        map.put("elapsed", String.format("%.2f ms", elapsedMs));
+        return map;
+    }
+
+    /**
+     * Reads a chunk of an object, blocking until the chunk is full or the object ends.
+     * @param in object data
+     * @param chunk chunk buffer
+     * @return number of bytes read, less than the chunk size only at the end of the object
+     * @throws IOException
+     */
+    private static int readChunk(InputStream in, byte[] chunk) throws IOException {
+        int total = 0;
+        int len;
+        while (total < chunk.length && (len = in.read(chunk, total, chunk.length - total)) != -1) {
+            total += len;
+        }
+        return total;
+    }
+
+    /**
+     * Compares the metadata of the S3 and Bolt objects.
+     * @param s3Head S3 object metadata
+     * @param boltHead Bolt object metadata
+     * @param key key name
+     * @return true if the objects match, false if they differ, null if the metadata is inconclusive
+     */
+    private static Boolean compareMetadata(HeadObjectResponse s3Head, HeadObjectResponse boltHead, String key) {
+        String s3Encoding = s3Head.contentEncoding();
+        String boltEncoding = boltHead.contentEncoding();
+        boolean sameEncoding = s3Encoding == null ? boltEncoding == null : s3Encoding.equalsIgnoreCase(boltEncoding);
+        boolean sameLength = s3Head.contentLength().equals(boltHead.contentLength());
+
+        // identical ETags (single part or multipart) of equally long, equally encoded objects: same content.
+        if (s3Head.eTag() != null && s3Head.eTag().equals(boltHead.eTag()) && sameLength && sameEncoding) {
+            return Boolean.TRUE;
+        }
+
+        // re-encoded (gzip) objects can differ in length while the content is the same.
+        boolean gzip = !sameEncoding || (s3Encoding != null && s3Encoding.equalsIgnoreCase("gzip")) ||
+                key.endsWith(".gz");
+        if (!gzip && !sameLength) {
+            return Boolean.FALSE;
+        }
+        // ETags differ for the same content if multipart (they depend on the part sizes) or encrypted with SSE-KMS
+        // or SSE-C (they aren't the MD5 of the content), so a differing ETag is settled by download.
+        return null;
+    }
 }
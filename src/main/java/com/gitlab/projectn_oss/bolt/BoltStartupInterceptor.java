@@ -0,0 +1,38 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * BoltStartupInterceptor measures the duration of the first S3 / Bolt request of the handlers for
+ * BoltStartupMetrics. It is registered as a global SDK interceptor (see
+ * software/amazon/awssdk/global/handlers/execution.interceptors), so that it applies to every S3 and Bolt client.
+ */
+public class BoltStartupInterceptor implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<Long> START_TIME = new ExecutionAttribute<>("BoltStartupStartTime");
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(START_TIME, System.nanoTime());
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        record(executionAttributes);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        record(executionAttributes);
+    }
+
+    private void record(ExecutionAttributes executionAttributes) {
+        Long startTime = executionAttributes.getAttribute(START_TIME);
+        if (startTime != null) {
+            BoltStartupMetrics.recordRequest(System.nanoTime() - startTime);
+        }
+    }
+}
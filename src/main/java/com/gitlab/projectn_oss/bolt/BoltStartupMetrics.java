@@ -0,0 +1,161 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * BoltStartupMetrics records how long the Lambda handlers spend in each phase of a cold start (JVM start to handler
+ * initialization, SDK client construction, credential and region resolution, first request) and optionally primes
+ * the SDK during the Lambda init phase, so that cold and primed first-request latencies can be compared.
+ *
+ * Priming is enabled by setting the 'BOLT_PRIME_ON_INIT' environment variable to 'true'. It loads the SDK classes,
+ * resolves credentials and region, builds S3 and Bolt clients and sends a signed HeadBucket request for the bucket in
+ * the 'BOLT_PRIME_BUCKET' environment variable (or a ListBuckets request to S3, if not set) to each of them. The
+ * outcome of the priming requests is ignored.
+ */
+public class BoltStartupMetrics {
+
+    // time from JVM start to initialization of this class, which is triggered by the handler's initialization.
+    private static final long HANDLER_INIT_MS = ManagementFactory.getRuntimeMXBean().getUptime();
+
+    // duration of each startup phase, in the order they first occurred.
+    private static final Map<String, Double> PHASES = new LinkedHashMap<>();
+
+    private static final AtomicBoolean invoked = new AtomicBoolean(false);
+    private static final AtomicBoolean firstRequestRecorded = new AtomicBoolean(false);
+    private static volatile boolean primed = false;
+
+    private BoltStartupMetrics() {
+    }
+
+    /**
+     * Primes the SDK, if enabled via the 'BOLT_PRIME_ON_INIT' environment variable. Called from the static
+     * initializer of the handlers, so that priming runs during the Lambda init phase.
+     */
+    static synchronized void primeIfEnabled() {
+        if (primed || !isPrimingEnabled()) {
+            return;
+        }
+
+        long primeStartTime = System.nanoTime();
+        resolveCredentialsAndRegion();
+        S3Client s3 = time("s3ClientBuild", () -> S3Client.builder().build());
+        S3Client boltS3 = time("boltClientBuild", () -> BoltS3Client.builder().build());
+
+        String primeBucket = System.getenv("BOLT_PRIME_BUCKET");
+        long primeRequestStartTime = System.nanoTime();
+        for (S3Client client : new S3Client[] {s3, boltS3}) {
+            try {
+                if (primeBucket != null && !primeBucket.isEmpty()) {
+                    client.headBucket(HeadBucketRequest.builder().bucket(primeBucket).build());
+                } else if (client == s3) {
+                    client.listBuckets();
+                }
+            } catch (Exception e) {
+                // Ignore Exception, the request only loads and exercises the signing and HTTP code paths.
+            }
+        }
+        record("primingRequests", System.nanoTime() - primeRequestStartTime);
+        s3.close();
+        boltS3.close();
+
+        record("priming", System.nanoTime() - primeStartTime);
+        primed = true;
+    }
+
+    /**
+     * Marks the start of an invocation. If priming is enabled but didn't complete during the init phase, credentials
+     * and region are resolved here; otherwise they are resolved lazily, as part of the first request, so that a cold
+     * start without priming does no work beyond what the handler itself needs.
+     * @return true if this is the first invocation of this execution environment (cold start)
+     */
+    static boolean beginInvocation() {
+        boolean coldStart = invoked.compareAndSet(false, true);
+        if (coldStart && !primed && isPrimingEnabled()) {
+            resolveCredentialsAndRegion();
+        }
+        return coldStart;
+    }
+
+    /**
+     * Returns whether priming is enabled via the 'BOLT_PRIME_ON_INIT' environment variable.
+     * @return true if priming is enabled
+     */
+    private static boolean isPrimingEnabled() {
+        return Boolean.parseBoolean(System.getenv("BOLT_PRIME_ON_INIT"));
+    }
+
+    /**
+     * Runs a startup phase and records its duration. Only the first run of a phase is recorded; later runs (e.g.
+     * clients built by warm invocations) are still run, but don't change the recorded duration.
+     * @param phase name of the phase
+     * @param supplier phase
+     * @return result of the phase
+     */
+    static <T> T time(String phase, Supplier<T> supplier) {
+        long startTime = System.nanoTime();
+        T result = supplier.get();
+        record(phase, System.nanoTime() - startTime);
+        return result;
+    }
+
+    /**
+     * Records the duration of the first S3 / Bolt request of an invocation.
+     * @param nanos duration of the request
+     */
+    static void recordRequest(long nanos) {
+        if (invoked.get() && firstRequestRecorded.compareAndSet(false, true)) {
+            record("firstRequest", nanos);
+        }
+    }
+
+    /**
+     * Returns the startup phases, as part of a handler response.
+     * @param coldStart whether the invocation is a cold start
+     * @param handlerNanos duration of the invocation
+     * @return duration of each startup phase
+     */
+    static synchronized Map<String, String> report(boolean coldStart, long handlerNanos) {
+        Map<String, String> report = new LinkedHashMap<>();
+        report.put("coldStart", String.valueOf(coldStart));
+        report.put("primed", String.valueOf(primed));
+        report.put("handlerInit", String.format("%d ms", HANDLER_INIT_MS));
+        PHASES.forEach((phase, ms) -> report.put(phase, String.format("%.2f ms", ms)));
+        report.put("invocation", String.format("%.2f ms", handlerNanos / 1e6));
+        return report;
+    }
+
+    /**
+     * Returns whether the startup phases were requested via the 'startupMetrics' event parameter.
+     * @param startupMetrics value of the 'startupMetrics' event parameter
+     * @return true if the startup phases are to be reported
+     */
+    static boolean isRequested(Object startupMetrics) {
+        return startupMetrics != null && Boolean.parseBoolean(startupMetrics.toString());
+    }
+
+    private static void resolveCredentialsAndRegion() {
+        try {
+            time("credentialsResolution", () -> DefaultCredentialsProvider.create().resolveCredentials());
+        } catch (Exception e) {
+            // Ignore Exception, the SDK reports credential errors on the first request.
+        }
+        try {
+            time("regionResolution", () -> new DefaultAwsRegionProviderChain().getRegion());
+        } catch (Exception e) {
+            // Ignore Exception, the SDK reports region errors on client construction.
+        }
+    }
+
+    private static synchronized void record(String phase, long nanos) {
+        PHASES.putIfAbsent(phase, nanos / 1e6);
+    }
+}
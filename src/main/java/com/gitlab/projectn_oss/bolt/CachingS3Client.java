@@ -0,0 +1,437 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CachingS3Client is an S3Client with an in-process read-through cache of small objects in front of the Get Object
+ * requests of another client (typically a BoltS3Client).
+ *
+ * Objects up to a max. size are cached in a heap tier, bounded by total size, in least recently used order. When the
+ * heap tier is full, a new object is only admitted if it has been requested more often than the object it would
+ * evict (TinyLFU: request frequencies are estimated by a count-min sketch, halved periodically so that they age);
+ * a rejected object is not cached. Objects evicted from the heap tier are spilled to an optional off-heap tier
+ * (direct ByteBuffers, LRU), and promoted back to the heap tier when hit there, under the same admission policy.
+ *
+ * A cached object is served without a request for revalidateAfterMs after it was fetched or validated; after that,
+ * it is revalidated with a conditional request (If-None-Match with its ETag), which returns the object only if it
+ * changed; the changed object is then served from that response, and cached in place of the old one.
+ *
+ * Get Object requests with a range, version, part number or conditions are not cached. Put Object and Delete Object
+ * invalidate the cached object. The wrapped client is not closed by close().
+ */
+public class CachingS3Client implements S3Client {
+
+    // number of counters per row of the frequency sketch.
+    private static final int SKETCH_WIDTH = 4096;
+    // number of rows (hash functions) of the frequency sketch.
+    private static final int SKETCH_DEPTH = 4;
+
+    // a cached object.
+    private static class Entry {
+        final GetObjectResponse response;
+        final byte[] data;
+        final ByteBuffer offHeapData;
+        // updated on revalidation, outside of the cache lock.
+        volatile long validatedAt;
+
+        Entry(GetObjectResponse response, byte[] data, ByteBuffer offHeapData, long validatedAt) {
+            this.response = response;
+            this.data = data;
+            this.offHeapData = offHeapData;
+            this.validatedAt = validatedAt;
+        }
+
+        int size() {
+            return data != null ? data.length : offHeapData.capacity();
+        }
+    }
+
+    private final S3Client delegate;
+    private final long maxBytes;
+    private final long maxObjectBytes;
+    private final long maxOffHeapBytes;
+    private final long revalidateAfterNanos;
+
+    // heap and off-heap tiers, in access order.
+    private final LinkedHashMap<String, Entry> heap = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> offHeap = new LinkedHashMap<>(16, 0.75f, true);
+    private long heapBytes;
+    private long offHeapBytes;
+
+    // count-min sketch of request frequencies.
+    private final int[][] sketch = new int[SKETCH_DEPTH][SKETCH_WIDTH];
+    private int sketchSamples;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong heapHits = new AtomicLong();
+    private final AtomicLong offHeapHits = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong bytesRequested = new AtomicLong();
+    private final AtomicLong bytesHit = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Creates a caching client.
+     * @param delegate client the objects are read through
+     * @param maxBytes max. total size of the objects in the heap tier
+     * @param maxObjectBytes max. size of a cached object
+     * @param maxOffHeapBytes max. total size of the objects in the off-heap tier, 0 to disable it
+     * @param revalidateAfterMs time after which a cached object is revalidated
+     */
+    public CachingS3Client(S3Client delegate, long maxBytes, long maxObjectBytes, long maxOffHeapBytes,
+                           long revalidateAfterMs) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+        this.maxObjectBytes = Math.min(maxObjectBytes, maxBytes);
+        this.maxOffHeapBytes = maxOffHeapBytes;
+        this.revalidateAfterNanos = TimeUnit.MILLISECONDS.toNanos(revalidateAfterMs);
+    }
+
+    @Override
+    public String serviceName() {
+        return delegate.serviceName();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Gets an object from the cache, or reads it through the wrapped client.
+     * @param getObjectRequest request
+     * @return response stream
+     */
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest) {
+        if (!isCacheable(getObjectRequest)) {
+            return delegate.getObject(getObjectRequest);
+        }
+        requests.incrementAndGet();
+        String name = getObjectRequest.bucket() + "/" + getObjectRequest.key();
+
+        Entry entry;
+        synchronized (this) {
+            increment(name);
+            entry = heap.get(name);
+            if (entry == null) {
+                entry = offHeap.get(name);
+            }
+        }
+
+        if (entry != null && System.nanoTime() - entry.validatedAt > revalidateAfterNanos) {
+            ResponseInputStream<GetObjectResponse> resp = revalidate(getObjectRequest, entry);
+            if (resp != null) {
+                // the object changed: drop the cached copy and cache the new one, read from the same response.
+                invalidate(name);
+                return readThrough(name, resp);
+            }
+        }
+        if (entry != null) {
+            if (entry.data != null) {
+                heapHits.incrementAndGet();
+            } else {
+                offHeapHits.incrementAndGet();
+                promote(name, entry);
+            }
+            bytesRequested.addAndGet(entry.size());
+            bytesHit.addAndGet(entry.size());
+            return stream(entry);
+        }
+
+        return readThrough(name, delegate.getObject(getObjectRequest));
+    }
+
+    /**
+     * Reads an object through on a miss, caching it if small enough.
+     * @param name bucket and key of the object
+     * @param resp response of the wrapped client
+     * @return response stream
+     */
+    private ResponseInputStream<GetObjectResponse> readThrough(String name,
+                                                              ResponseInputStream<GetObjectResponse> resp) {
+        Long contentLength = resp.response().contentLength();
+        if (contentLength == null || contentLength > maxObjectBytes) {
+            if (contentLength != null) {
+                bytesRequested.addAndGet(contentLength);
+            }
+            return resp;
+        }
+        byte[] data = readFully(resp);
+        bytesRequested.addAndGet(data.length);
+        Entry entry = new Entry(resp.response(), data, null, System.nanoTime());
+        synchronized (this) {
+            admit(name, entry);
+        }
+        return stream(entry);
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest getObjectRequest,
+                                       ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+        return delegate.getObject(getObjectRequest, responseTransformer);
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+        return delegate.headObject(headObjectRequest);
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request listObjectsV2Request) {
+        return delegate.listObjectsV2(listObjectsV2Request);
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest putObjectRequest, RequestBody requestBody) {
+        invalidate(putObjectRequest.bucket() + "/" + putObjectRequest.key());
+        return delegate.putObject(putObjectRequest, requestBody);
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest deleteObjectRequest) {
+        invalidate(deleteObjectRequest.bucket() + "/" + deleteObjectRequest.key());
+        return delegate.deleteObject(deleteObjectRequest);
+    }
+
+    /**
+     * Returns the cache counters.
+     * @return hit rate and byte hit rate, hits per tier, revalidations, evictions, rejected admissions and the size
+     *         of each tier
+     */
+    public synchronized Map<String, String> getStats() {
+        long requestCount = requests.get();
+        long hits = heapHits.get() + offHeapHits.get();
+        long byteCount = bytesRequested.get();
+        Map<String, String> stats = new HashMap<>();
+        stats.put("requests", String.valueOf(requestCount));
+        stats.put("hits", String.valueOf(hits));
+        stats.put("heapHits", String.valueOf(heapHits.get()));
+        stats.put("offHeapHits", String.valueOf(offHeapHits.get()));
+        stats.put("hitRate", String.format("%.2f %%", requestCount > 0 ? 100.0 * hits / requestCount : 0.0));
+        stats.put("byteHitRate", String.format("%.2f %%", byteCount > 0 ? 100.0 * bytesHit.get() / byteCount : 0.0));
+        stats.put("revalidations", String.valueOf(revalidations.get()));
+        stats.put("notModified", String.valueOf(notModified.get()));
+        stats.put("evictions", String.valueOf(evictions.get()));
+        stats.put("rejections", String.valueOf(rejections.get()));
+        stats.put("heapObjects", String.valueOf(heap.size()));
+        stats.put("heapBytes", String.format("%d bytes", heapBytes));
+        stats.put("offHeapObjects", String.valueOf(offHeap.size()));
+        stats.put("offHeapBytes", String.format("%d bytes", offHeapBytes));
+        return stats;
+    }
+
+    private static boolean isCacheable(GetObjectRequest getObjectRequest) {
+        return getObjectRequest.range() == null && getObjectRequest.versionId() == null &&
+                getObjectRequest.partNumber() == null && getObjectRequest.ifMatch() == null &&
+                getObjectRequest.ifNoneMatch() == null && getObjectRequest.ifModifiedSince() == null &&
+                getObjectRequest.ifUnmodifiedSince() == null;
+    }
+
+    /**
+     * Revalidates a cached object with a conditional request.
+     * @param getObjectRequest request
+     * @param entry cached object
+     * @return null if the object did not change (and the cached object is valid again), otherwise the response with
+     *         the changed object
+     */
+    private ResponseInputStream<GetObjectResponse> revalidate(GetObjectRequest getObjectRequest, Entry entry) {
+        revalidations.incrementAndGet();
+        GetObjectRequest conditionalRequest = getObjectRequest.toBuilder()
+                .ifNoneMatch(entry.response.eTag())
+                .build();
+        try {
+            return delegate.getObject(conditionalRequest);
+        } catch (S3Exception e) {
+            if (e.statusCode() != 304) {
+                throw e;
+            }
+            notModified.incrementAndGet();
+            entry.validatedAt = System.nanoTime();
+            return null;
+        }
+    }
+
+    /**
+     * Adds an object to the heap tier, evicting least recently used objects (to the off-heap tier) if they are
+     * requested less often than the new object. An object that is rejected is not cached: only objects evicted from
+     * the heap tier are spilled to the off-heap tier.
+     * @param name bucket and key of the object
+     * @param entry object
+     * @return true if the object was admitted
+     */
+    private boolean admit(String name, Entry entry) {
+        remove(name);
+        int candidateFrequency = frequency(name);
+        while (heapBytes + entry.size() > maxBytes) {
+            Map.Entry<String, Entry> victim = heap.entrySet().iterator().next();
+            if (frequency(victim.getKey()) >= candidateFrequency) {
+                rejections.incrementAndGet();
+                return false;
+            }
+            heap.remove(victim.getKey());
+            heapBytes -= victim.getValue().size();
+            evictions.incrementAndGet();
+            spill(victim.getKey(), victim.getValue());
+        }
+        heap.put(name, entry);
+        heapBytes += entry.size();
+        return true;
+    }
+
+    /**
+     * Moves an object hit in the off-heap tier back to the heap tier, if it would be admitted: the heap tier has room
+     * for it, or it is requested more often than the least recently used heap object.
+     * @param name bucket and key of the object
+     * @param entry object (off heap)
+     */
+    private synchronized void promote(String name, Entry entry) {
+        // skip if invalidated or replaced since it was looked up.
+        if (offHeap.get(name) != entry) {
+            return;
+        }
+        if (heapBytes + entry.size() > maxBytes && !heap.isEmpty() &&
+                frequency(heap.keySet().iterator().next()) >= frequency(name)) {
+            return;
+        }
+        byte[] data = new byte[entry.size()];
+        entry.offHeapData.duplicate().get(data);
+        Entry heapEntry = new Entry(entry.response, data, null, entry.validatedAt);
+        if (!admit(name, heapEntry)) {
+            // rejected after evicting some heap objects: keep it off heap, where it was.
+            spill(name, heapEntry);
+        }
+    }
+
+    /**
+     * Moves an object to the off-heap tier, evicting least recently used off-heap objects as needed.
+     * @param name bucket and key of the object
+     * @param entry object (on heap)
+     */
+    private void spill(String name, Entry entry) {
+        if (entry.size() > maxOffHeapBytes) {
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> it = offHeap.entrySet().iterator();
+        while (offHeapBytes + entry.size() > maxOffHeapBytes && it.hasNext()) {
+            offHeapBytes -= it.next().getValue().size();
+            it.remove();
+        }
+        ByteBuffer offHeapData = ByteBuffer.allocateDirect(entry.size());
+        offHeapData.put(entry.data);
+        offHeapData.flip();
+        offHeap.put(name, new Entry(entry.response, null, offHeapData, entry.validatedAt));
+        offHeapBytes += entry.size();
+    }
+
+    private synchronized void invalidate(String name) {
+        remove(name);
+    }
+
+    private void remove(String name) {
+        Entry entry = heap.remove(name);
+        if (entry != null) {
+            heapBytes -= entry.size();
+        }
+        entry = offHeap.remove(name);
+        if (entry != null) {
+            offHeapBytes -= entry.size();
+        }
+    }
+
+    /**
+     * Counts a request of an object in the frequency sketch. Every 10 x SKETCH_WIDTH requests, all counters are
+     * halved, so that past popularity fades.
+     * @param name bucket and key of the object
+     */
+    private void increment(String name) {
+        int hash = name.hashCode();
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            sketch[row][index(hash, row)]++;
+        }
+        if (++sketchSamples >= 10 * SKETCH_WIDTH) {
+            sketchSamples = 0;
+            for (int[] counters : sketch) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>>= 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimates the request frequency of an object (the min. of its counters).
+     * @param name bucket and key of the object
+     * @return estimated frequency
+     */
+    private int frequency(String name) {
+        int hash = name.hashCode();
+        int frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            frequency = Math.min(frequency, sketch[row][index(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private static int index(int hash, int row) {
+        int h = (hash ^ (row * 0x9e3779b9)) * 0x85ebca6b;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % SKETCH_WIDTH;
+    }
+
+    private static ResponseInputStream<GetObjectResponse> stream(Entry entry) {
+        InputStream in;
+        if (entry.data != null) {
+            in = new ByteArrayInputStream(entry.data);
+        } else {
+            ByteBuffer buffer = entry.offHeapData.duplicate();
+            in = new InputStream() {
+                @Override
+                public int read() {
+                    return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (!buffer.hasRemaining()) {
+                        return -1;
+                    }
+                    int n = Math.min(len, buffer.remaining());
+                    buffer.get(b, off, n);
+                    return n;
+                }
+            };
+        }
+        return new ResponseInputStream<>(entry.response, AbortableInputStream.create(in));
+    }
+
+    private static byte[] readFully(ResponseInputStream<GetObjectResponse> resp) {
+        try {
+            try {
+                return BoltS3Perf.readAllBytes(resp);
+            } finally {
+                resp.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
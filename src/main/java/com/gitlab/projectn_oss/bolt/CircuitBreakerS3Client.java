@@ -0,0 +1,330 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * CircuitBreakerS3Client is an S3Client that sends requests to a primary client (typically a BoltS3Client) and fails
+ * over to a fallback client (plain S3) while the primary is degraded.
+ *
+ * The outcome of the recent primary requests is tracked in a sliding window. A request fails if the primary throws a
+ * client exception (e.g. a timeout) or returns a 5xx / 429 status; it is slow if it takes longer than the slow call
+ * threshold. Once the window holds the minimum number of calls and the failure or slow call rate reaches its
+ * threshold, the breaker opens and all requests go to the fallback. After the open duration, the breaker is half-open
+ * and lets a few probe requests through to the primary: if all succeed the breaker closes, otherwise it opens again.
+ * A request that fails on the primary is retried on the fallback.
+ *
+ * The wrapped clients are not closed by close().
+ */
+public class CircuitBreakerS3Client implements S3Client {
+
+    // states of the breaker
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    // client a request is routed to
+    private enum Route {
+        PRIMARY,
+        PROBE,
+        FALLBACK
+    }
+
+    private final S3Client primary;
+    private final S3Client fallback;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final long openDurationNanos;
+    private final int halfOpenProbes;
+
+    // sliding window of the outcome (failed, slow) of the recent primary requests.
+    private final boolean[] windowFailed;
+    private final boolean[] windowSlow;
+    private int windowPos;
+    private int windowCount;
+    private int failedCount;
+    private int slowCount;
+
+    private State state = State.CLOSED;
+    private long stateSince = System.nanoTime();
+    private long openUntil;
+    private int probesIssued;
+    private int probesSucceeded;
+    private final long[] timeInState = new long[State.values().length];
+    private long transitions;
+
+    private final AtomicLong primaryCalls = new AtomicLong();
+    private final AtomicLong fallbackCalls = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+
+    /**
+     * Creates a breaker with the default thresholds: a window of 20 calls (min. 5), a failure rate of 50%, a slow
+     * call rate of 50% of calls slower than 1000 ms, an open duration of 5000 ms and 3 half-open probes.
+     * @param primary client receiving the requests while the breaker is closed
+     * @param fallback client receiving the requests while the breaker is open
+     */
+    public CircuitBreakerS3Client(S3Client primary, S3Client fallback) {
+        this(primary, fallback, 20, 5, 50, 1000, 50, 5000, 3);
+    }
+
+    /**
+     * Creates a breaker.
+     * @param primary client receiving the requests while the breaker is closed
+     * @param fallback client receiving the requests while the breaker is open
+     * @param windowSize number of recent primary requests tracked
+     * @param minimumCalls min. number of tracked requests before the breaker may open
+     * @param failureRatePct failure rate (percent) at which the breaker opens
+     * @param slowCallMs latency above which a request is slow
+     * @param slowCallRatePct slow call rate (percent) at which the breaker opens
+     * @param openDurationMs time the breaker stays open before probing the primary
+     * @param halfOpenProbes number of successful probe requests needed to close the breaker
+     */
+    public CircuitBreakerS3Client(S3Client primary, S3Client fallback, int windowSize, int minimumCalls,
+                                  int failureRatePct, long slowCallMs, int slowCallRatePct, long openDurationMs,
+                                  int halfOpenProbes) {
+        this.primary = primary;
+        this.fallback = fallback;
+        this.windowFailed = new boolean[Math.max(windowSize, 1)];
+        this.windowSlow = new boolean[windowFailed.length];
+        this.minimumCalls = Math.min(Math.max(minimumCalls, 1), windowFailed.length);
+        this.failureRateThreshold = failureRatePct / 100.0;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        this.slowCallRateThreshold = slowCallRatePct / 100.0;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMs);
+        this.halfOpenProbes = Math.max(halfOpenProbes, 1);
+    }
+
+    @Override
+    public String serviceName() {
+        return primary.serviceName();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest) {
+        return call(client -> client.getObject(getObjectRequest));
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest getObjectRequest,
+                                       ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+        return call(client -> client.getObject(getObjectRequest, responseTransformer));
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+        return call(client -> client.headObject(headObjectRequest));
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request listObjectsV2Request) {
+        return call(client -> client.listObjectsV2(listObjectsV2Request));
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest putObjectRequest, RequestBody requestBody) {
+        return call(client -> client.putObject(putObjectRequest, requestBody));
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest deleteObjectRequest) {
+        return call(client -> client.deleteObject(deleteObjectRequest));
+    }
+
+    @Override
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest deleteObjectsRequest) {
+        return call(client -> client.deleteObjects(deleteObjectsRequest));
+    }
+
+    @Override
+    public HeadBucketResponse headBucket(HeadBucketRequest headBucketRequest) {
+        return call(client -> client.headBucket(headBucketRequest));
+    }
+
+    @Override
+    public ListBucketsResponse listBuckets(ListBucketsRequest listBucketsRequest) {
+        return call(client -> client.listBuckets(listBucketsRequest));
+    }
+
+    /**
+     * Returns the current state of the breaker.
+     * @return CLOSED if requests go to the primary, OPEN if they go to the fallback, HALF_OPEN while probe requests
+     *         test whether the primary has recovered
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the breaker metrics.
+     * @return current state, number of transitions, time spent in each state, requests sent to the primary and the
+     *         fallback, requests failed over from the primary, and the failure / slow call rate of the window
+     */
+    public synchronized Map<String, String> getStats() {
+        long now = System.nanoTime();
+        Map<String, String> stats = new HashMap<>();
+        stats.put("state", state.name().toLowerCase());
+        stats.put("transitions", String.valueOf(transitions));
+        for (State s : State.values()) {
+            long nanos = timeInState[s.ordinal()] + (s == state ? now - stateSince : 0);
+            stats.put("timeIn_" + s.name().toLowerCase(), String.format("%.2f ms", nanos / 1e6));
+        }
+        stats.put("primaryCalls", String.valueOf(primaryCalls.get()));
+        stats.put("fallbackCalls", String.valueOf(fallbackCalls.get()));
+        stats.put("failovers", String.valueOf(failovers.get()));
+        stats.put("failureRate", String.format("%.2f %%", windowCount > 0 ? 100.0 * failedCount / windowCount : 0.0));
+        stats.put("slowCallRate", String.format("%.2f %%", windowCount > 0 ? 100.0 * slowCount / windowCount : 0.0));
+        return stats;
+    }
+
+    /**
+     * Sends a request to the client selected by the breaker, and records the outcome of primary requests.
+     * @param op request
+     * @return response
+     */
+    private <T> T call(Function<S3Client, T> op) {
+        Route route = acquire();
+        if (route == Route.FALLBACK) {
+            fallbackCalls.incrementAndGet();
+            return op.apply(fallback);
+        }
+
+        primaryCalls.incrementAndGet();
+        long startTime = System.nanoTime();
+        try {
+            T resp = op.apply(primary);
+            onResult(route, false, System.nanoTime() - startTime);
+            return resp;
+        } catch (RuntimeException e) {
+            if (!isFailure(e)) {
+                // e.g. NoSuchKey, the primary is healthy.
+                onResult(route, false, System.nanoTime() - startTime);
+                throw e;
+            }
+            onResult(route, true, System.nanoTime() - startTime);
+        }
+
+        // fail the request over to the fallback.
+        failovers.incrementAndGet();
+        fallbackCalls.incrementAndGet();
+        return op.apply(fallback);
+    }
+
+    /**
+     * Selects the client of a request, moving an open breaker to half-open once the open duration has passed.
+     * @return route of the request
+     */
+    private synchronized Route acquire() {
+        if (state == State.OPEN && System.nanoTime() >= openUntil) {
+            transition(State.HALF_OPEN);
+        }
+        switch (state) {
+            case CLOSED:
+                return Route.PRIMARY;
+            case HALF_OPEN:
+                if (probesIssued < halfOpenProbes) {
+                    probesIssued++;
+                    return Route.PROBE;
+                }
+                return Route.FALLBACK;
+            default:
+                return Route.FALLBACK;
+        }
+    }
+
+    /**
+     * Records the outcome of a primary request and opens / closes the breaker accordingly.
+     * @param route route of the request
+     * @param failed whether the request failed
+     * @param nanos latency of the request
+     */
+    private synchronized void onResult(Route route, boolean failed, long nanos) {
+        boolean slow = nanos > slowCallNanos;
+        if (route == Route.PROBE) {
+            if (state != State.HALF_OPEN) {
+                return;
+            }
+            if (failed || slow) {
+                transition(State.OPEN);
+            } else if (++probesSucceeded >= halfOpenProbes) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        if (state != State.CLOSED) {
+            return;
+        }
+
+        // replace the oldest outcome in the window.
+        if (windowCount == windowFailed.length) {
+            failedCount -= windowFailed[windowPos] ? 1 : 0;
+            slowCount -= windowSlow[windowPos] ? 1 : 0;
+        } else {
+            windowCount++;
+        }
+        windowFailed[windowPos] = failed;
+        windowSlow[windowPos] = slow;
+        failedCount += failed ? 1 : 0;
+        slowCount += slow ? 1 : 0;
+        windowPos = (windowPos + 1) % windowFailed.length;
+
+        if (windowCount >= minimumCalls &&
+                ((double) failedCount / windowCount >= failureRateThreshold ||
+                        (double) slowCount / windowCount >= slowCallRateThreshold)) {
+            transition(State.OPEN);
+        }
+    }
+
+    private void transition(State newState) {
+        long now = System.nanoTime();
+        timeInState[state.ordinal()] += now - stateSince;
+        stateSince = now;
+        state = newState;
+        transitions++;
+        if (newState == State.OPEN) {
+            openUntil = now + openDurationNanos;
+        } else if (newState == State.HALF_OPEN) {
+            probesIssued = 0;
+            probesSucceeded = 0;
+        } else {
+            windowPos = 0;
+            windowCount = 0;
+            failedCount = 0;
+            slowCount = 0;
+        }
+    }
+
+    /**
+     * Returns whether an exception indicates a degraded primary (as opposed to e.g. a missing key).
+     * @param e exception thrown by the primary
+     * @return true if the request failed
+     */
+    private static boolean isFailure(RuntimeException e) {
+        if (e instanceof SdkClientException) {
+            return true;
+        }
+        if (e instanceof SdkServiceException) {
+            int statusCode = ((SdkServiceException) e).statusCode();
+            return statusCode >= 500 || statusCode == 429;
+        }
+        return false;
+    }
+}
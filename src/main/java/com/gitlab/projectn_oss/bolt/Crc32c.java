@@ -0,0 +1,65 @@
+package com.gitlab.projectn_oss.bolt;
+
+import java.util.zip.Checksum;
+
+/**
+ * Crc32c computes the CRC-32C (Castagnoli) checksum of a stream of bytes, using slicing-by-8 lookup tables, as a
+ * faster alternative to MD5 for comparing object contents. (java.util.zip.CRC32C is not available on Java 8.)
+ */
+public class Crc32c implements Checksum {
+
+    // reversed Castagnoli polynomial.
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int t = 1; t < 8; t++) {
+                TABLES[t][i] = (TABLES[t - 1][i] >>> 8) ^ TABLES[0][TABLES[t - 1][i] & 0xff];
+            }
+        }
+    }
+
+    private int crc = 0xffffffff;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        int end = off + len;
+        // 8 bytes at a time.
+        while (end - off >= 8) {
+            int lo = c ^ ((b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | b[off + 3] << 24);
+            c = TABLES[7][lo & 0xff] ^ TABLES[6][(lo >>> 8) & 0xff] ^ TABLES[5][(lo >>> 16) & 0xff] ^
+                    TABLES[4][lo >>> 24] ^
+                    TABLES[3][b[off + 4] & 0xff] ^ TABLES[2][b[off + 5] & 0xff] ^
+                    TABLES[1][b[off + 6] & 0xff] ^ TABLES[0][b[off + 7] & 0xff];
+            off += 8;
+        }
+        while (off < end) {
+            c = (c >>> 8) ^ TABLES[0][(c ^ b[off++]) & 0xff];
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffffffff;
+    }
+}
@@ -0,0 +1,255 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HedgedS3Client is an S3Client that sends Get Object requests to a primary client (typically a BoltS3Client) and,
+ * if the primary has not produced the first byte of the object within a threshold, sends a hedged request to a
+ * second client (plain S3, or a second Bolt client). The response that produces its first byte first is returned
+ * and the other one is aborted.
+ *
+ * The threshold is the given percentile of the time to first byte of the recent primary requests (a sliding window),
+ * so that only the slowest requests are hedged. Until the window holds enough samples, the initial threshold is used.
+ *
+ * Head Object, List Objects V2, Put Object and Delete Object are sent to the primary client only. The wrapped clients
+ * are not closed by close().
+ */
+public class HedgedS3Client implements S3Client {
+
+    // min. number of samples in the window before the percentile threshold is used.
+    private static final int MIN_SAMPLES = 20;
+    // number of samples after which the threshold is recomputed.
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    private final S3Client primary;
+    private final S3Client hedge;
+    private final double hedgePercentile;
+    private final ExecutorService executor;
+
+    // sliding window of the primary's time to first byte (ns).
+    private final long[] window;
+    private int windowPos;
+    private int windowSize;
+    private int samplesSinceRecompute;
+    private volatile long thresholdNanos;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong abortedRequests = new AtomicLong();
+
+    /**
+     * Creates a hedging client.
+     * @param primary client receiving all requests
+     * @param hedge client receiving the hedged requests
+     * @param hedgePercentile percentile, in (0, 1), of the primary's time to first byte after which a request is hedged
+     * @param windowSize number of recent primary requests the percentile is computed over
+     * @param initialThresholdMs threshold until the window holds enough samples
+     */
+    public HedgedS3Client(S3Client primary, S3Client hedge, double hedgePercentile, int windowSize,
+                          long initialThresholdMs) {
+        this.primary = primary;
+        this.hedge = hedge;
+        this.hedgePercentile = hedgePercentile;
+        this.window = new long[Math.max(windowSize, MIN_SAMPLES)];
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(initialThresholdMs);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "bolt-hedged-get");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String serviceName() {
+        return primary.serviceName();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gets an object, hedging the request if the primary is slow to produce the first byte.
+     * @param getObjectRequest request
+     * @return response stream of the first client to produce the first byte
+     */
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest) {
+        requests.incrementAndGet();
+        AtomicBoolean decided = new AtomicBoolean(false);
+        CompletionService<ResponseInputStream<GetObjectResponse>> completionService =
+                new ExecutorCompletionService<>(executor);
+
+        Future<ResponseInputStream<GetObjectResponse>> primaryFuture =
+                completionService.submit(() -> firstByte(primary, getObjectRequest, decided, true));
+        Future<ResponseInputStream<GetObjectResponse>> hedgeFuture = null;
+        int pending = 1;
+        Exception failure = null;
+        try {
+            Future<ResponseInputStream<GetObjectResponse>> done =
+                    completionService.poll(thresholdNanos, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                // primary is slow, hedge the request.
+                hedgedRequests.incrementAndGet();
+                hedgeFuture = completionService.submit(() -> firstByte(hedge, getObjectRequest, decided, false));
+                pending++;
+                done = completionService.take();
+            }
+            while (true) {
+                pending--;
+                try {
+                    ResponseInputStream<GetObjectResponse> resp = done.get();
+                    if (resp != null) {
+                        if (done == hedgeFuture) {
+                            hedgeWins.incrementAndGet();
+                        }
+                        return resp;
+                    }
+                } catch (ExecutionException e) {
+                    // wait for the other request, if any.
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+                if (pending == 0) {
+                    break;
+                }
+                done = completionService.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            decided.set(true);
+            primaryFuture.cancel(true);
+            if (hedgeFuture != null) {
+                hedgeFuture.cancel(true);
+            }
+            throw SdkClientException.create("Interrupted while waiting for Get Object", e);
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw SdkClientException.create("Get Object failed", failure);
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest getObjectRequest,
+                                       ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+        return primary.getObject(getObjectRequest, responseTransformer);
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+        return primary.headObject(headObjectRequest);
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request listObjectsV2Request) {
+        return primary.listObjectsV2(listObjectsV2Request);
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest putObjectRequest, RequestBody requestBody) {
+        return primary.putObject(putObjectRequest, requestBody);
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest deleteObjectRequest) {
+        return primary.deleteObject(deleteObjectRequest);
+    }
+
+    /**
+     * Returns the hedging counters.
+     * @return number of requests, hedged requests, requests won by the hedge, aborted requests, the extra request
+     *         ratio and the current threshold
+     */
+    public Map<String, String> getStats() {
+        long requestCount = requests.get();
+        long hedgedCount = hedgedRequests.get();
+        return new HashMap<String, String>() {{
+            put("requests", String.valueOf(requestCount));
+            put("hedgedRequests", String.valueOf(hedgedCount));
+            put("hedgeWins", String.valueOf(hedgeWins.get()));
+            put("abortedRequests", String.valueOf(abortedRequests.get()));
+            put("extraRequests", String.format("%.2f %%",
+                    requestCount > 0 ? 100.0 * hedgedCount / requestCount : 0.0));
+            put("threshold", String.format("%.2f ms", thresholdNanos / 1e6));
+        }};
+    }
+
+    /**
+     * Sends a Get Object request and waits for the first byte of the object. The first request to get its first byte
+     * wins; a request that loses is aborted.
+     * @param client client to send the request to
+     * @param getObjectRequest request
+     * @param decided whether a request has already won
+     * @param isPrimary whether the client is the primary, whose time to first byte is sampled
+     * @return response stream positioned at the start of the object, or null if the request lost
+     * @throws Exception
+     */
+    private ResponseInputStream<GetObjectResponse> firstByte(S3Client client, GetObjectRequest getObjectRequest,
+                                                             AtomicBoolean decided, boolean isPrimary)
+            throws Exception {
+        long startTime = System.nanoTime();
+        ResponseInputStream<GetObjectResponse> resp = client.getObject(getObjectRequest);
+        int firstByte = resp.read();
+        if (isPrimary) {
+            recordSample(System.nanoTime() - startTime);
+        }
+
+        if (!decided.compareAndSet(false, true)) {
+            // the other request won, abort the connection instead of draining it.
+            abortedRequests.incrementAndGet();
+            resp.abort();
+            resp.close();
+            return null;
+        }
+
+        // put the first byte back in front of the rest of the object.
+        InputStream body = firstByte < 0 ? resp :
+                new SequenceInputStream(new ByteArrayInputStream(new byte[] {(byte) firstByte}), resp);
+        return new ResponseInputStream<>(resp.response(), AbortableInputStream.create(body, resp::abort));
+    }
+
+    /**
+     * Records a time to first byte of the primary in the window, and recomputes the threshold every
+     * RECOMPUTE_INTERVAL samples.
+     * @param nanos time to first byte
+     */
+    private synchronized void recordSample(long nanos) {
+        window[windowPos] = nanos;
+        windowPos = (windowPos + 1) % window.length;
+        windowSize = Math.min(windowSize + 1, window.length);
+        if (windowSize >= MIN_SAMPLES && ++samplesSinceRecompute >= RECOMPUTE_INTERVAL) {
+            samplesSinceRecompute = 0;
+            PerfSampleRecorder samples = new PerfSampleRecorder(windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                samples.add(window[i]);
+            }
+            thresholdNanos = (long) samples.percentile(hedgePercentile);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * LocalS3Client is an in-memory stand-in for S3 / Bolt, used by perf scenarios that must not depend on real
+ * endpoints. Every request takes a fixed latency. Faults can be injected: while degraded, every request takes the
+ * fault latency and then fails with a client exception, as a timed out request would.
+ *
+ * Get / Head / Put / Delete Object and List Objects V2 are supported.
+ */
+public class LocalS3Client implements S3Client {
+
+    // objects, by bucket and key.
+    private final Map<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    private final long latencyMs;
+    private final long faultLatencyMs;
+    private volatile boolean degraded;
+
+    /**
+     * Creates a stand-in.
+     * @param latencyMs latency of every request
+     * @param faultLatencyMs latency of a failing request while degraded
+     */
+    public LocalS3Client(long latencyMs, long faultLatencyMs) {
+        this.latencyMs = latencyMs;
+        this.faultLatencyMs = faultLatencyMs;
+    }
+
+    /**
+     * Injects (or clears) a fault.
+     * @param degraded whether requests fail
+     */
+    public void setDegraded(boolean degraded) {
+        this.degraded = degraded;
+    }
+
+    @Override
+    public String serviceName() {
+        return "s3";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest) {
+        byte[] data = getData(getObjectRequest.bucket(), getObjectRequest.key());
+        return new ResponseInputStream<>(getObjectResponse(data),
+                AbortableInputStream.create(new ByteArrayInputStream(data)));
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest getObjectRequest,
+                                       ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+        byte[] data = getData(getObjectRequest.bucket(), getObjectRequest.key());
+        try {
+            return responseTransformer.transform(getObjectResponse(data),
+                    AbortableInputStream.create(new ByteArrayInputStream(data)));
+        } catch (Exception e) {
+            throw SdkClientException.create("Unable to transform response", e);
+        }
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+        byte[] data = getData(headObjectRequest.bucket(), headObjectRequest.key());
+        return HeadObjectResponse.builder()
+                .contentLength((long) data.length)
+                .eTag(eTag(data))
+                .build();
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest putObjectRequest, RequestBody requestBody) {
+        request();
+        byte[] data;
+        try (InputStream in = requestBody.contentStreamProvider().newStream()) {
+            data = BoltS3Perf.readAllBytes(in);
+        } catch (IOException e) {
+            throw SdkClientException.create("Unable to read request body", e);
+        }
+        objects.put(objectName(putObjectRequest.bucket(), putObjectRequest.key()), data);
+        return PutObjectResponse.builder().eTag(eTag(data)).build();
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest deleteObjectRequest) {
+        request();
+        objects.remove(objectName(deleteObjectRequest.bucket(), deleteObjectRequest.key()));
+        return DeleteObjectResponse.builder().build();
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request listObjectsV2Request) {
+        request();
+        String bucketPrefix = objectName(listObjectsV2Request.bucket(), "");
+        String prefix = listObjectsV2Request.prefix() != null ? listObjectsV2Request.prefix() : "";
+        int maxKeys = listObjectsV2Request.maxKeys() != null ? listObjectsV2Request.maxKeys() : 1000;
+        // the continuation token is the last key listed.
+        String after = listObjectsV2Request.continuationToken() != null ?
+                listObjectsV2Request.continuationToken() : listObjectsV2Request.startAfter();
+        List<S3Object> contents = new ArrayList<>();
+        boolean truncated = false;
+        for (Map.Entry<String, byte[]> object : objects.entrySet()) {
+            String name = object.getKey();
+            if (after != null && name.compareTo(bucketPrefix + after) <= 0) {
+                continue;
+            }
+            if (name.startsWith(bucketPrefix) && name.startsWith(prefix, bucketPrefix.length())) {
+                if (contents.size() >= maxKeys) {
+                    truncated = true;
+                    break;
+                }
+                contents.add(S3Object.builder()
+                        .key(name.substring(bucketPrefix.length()))
+                        .size((long) object.getValue().length)
+                        .eTag(eTag(object.getValue()))
+                        .build());
+            }
+        }
+        return ListObjectsV2Response.builder()
+                .contents(contents)
+                .keyCount(contents.size())
+                .isTruncated(truncated)
+                .nextContinuationToken(truncated ? contents.get(contents.size() - 1).key() : null)
+                .build();
+    }
+
+    private byte[] getData(String bucket, String key) {
+        request();
+        byte[] data = objects.get(objectName(bucket, key));
+        if (data == null) {
+            throw NoSuchKeyException.builder()
+                    .statusCode(404)
+                    .message("The specified key does not exist.")
+                    .build();
+        }
+        return data;
+    }
+
+    /**
+     * Waits for the latency of a request, and fails the request while degraded.
+     */
+    private void request() {
+        boolean failing = degraded;
+        try {
+            Thread.sleep(failing ? faultLatencyMs : latencyMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted", e);
+        }
+        if (failing) {
+            throw SdkClientException.create("Unable to execute HTTP request: Read timed out (injected fault)");
+        }
+    }
+
+    private static GetObjectResponse getObjectResponse(byte[] data) {
+        return GetObjectResponse.builder()
+                .contentLength((long) data.length)
+                .eTag(eTag(data))
+                .build();
+    }
+
+    private static String objectName(String bucket, String key) {
+        return bucket + "/" + key;
+    }
+
+    private static String eTag(byte[] data) {
+        return String.format("\"%08x\"", Arrays.hashCode(data));
+    }
+}
@@ -0,0 +1,114 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * ObjectDigest computes the digest (MD5, or the faster CRC32C) of object data streamed from S3 / Bolt, decompressing
+ * gzip encoded objects, without holding the object in memory.
+ */
+public class ObjectDigest {
+
+    // digest algorithms supported
+    enum Algorithm {
+        MD5,
+        CRC32C
+    }
+
+    // size of the buffer used to stream object data through the digest.
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    // size of the gzip decompression input buffer.
+    static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    // read buffer, reused across objects digested by the same thread.
+    private static final ThreadLocal<byte[]> READ_BUFFER = ThreadLocal.withInitial(() -> new byte[READ_BUFFER_SIZE]);
+
+    private final Algorithm algorithm;
+    private final MessageDigest md;
+    private final Checksum checksum;
+
+    public ObjectDigest(Algorithm algorithm) throws NoSuchAlgorithmException {
+        this.algorithm = algorithm;
+        this.md = algorithm == Algorithm.MD5 ? MessageDigest.getInstance("MD5") : null;
+        this.checksum = algorithm == Algorithm.CRC32C ? new Crc32c() : null;
+    }
+
+    /**
+     * Returns the digest algorithm named by an event parameter.
+     * @param algorithmStr name of the algorithm, MD5 if null or empty
+     * @return digest algorithm
+     */
+    static Algorithm algorithmOf(String algorithmStr) {
+        return (algorithmStr != null && !algorithmStr.isEmpty()) ?
+                Algorithm.valueOf(algorithmStr.toUpperCase()) : Algorithm.MD5;
+    }
+
+    /**
+     * Returns whether an object is gzip encoded, from its content encoding or its key.
+     * @param response Get Object response
+     * @param key key name
+     * @return true if the object is gzip encoded
+     */
+    static boolean isGzip(GetObjectResponse response, String key) {
+        String encoding = response.contentEncoding();
+        return (encoding != null && encoding.equalsIgnoreCase("gzip")) || key.endsWith(".gz");
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public void update(byte[] b, int off, int len) {
+        if (md != null) {
+            md.update(b, off, len);
+        } else {
+            checksum.update(b, off, len);
+        }
+    }
+
+    /**
+     * Reads a stream to its end and adds its data to the digest.
+     * @param in object data
+     * @param gzip whether the data is gzip encoded, and is to be decompressed before digesting it
+     * @return number of (decompressed) bytes digested
+     * @throws IOException
+     */
+    public long update(InputStream in, boolean gzip) throws IOException {
+        byte[] buffer = READ_BUFFER.get();
+        InputStream data = gzip ? new GZIPInputStream(in, GZIP_BUFFER_SIZE) : in;
+        long bytes = 0;
+        int len;
+        try {
+            while ((len = data.read(buffer)) != -1) {
+                update(buffer, 0, len);
+                bytes += len;
+            }
+        } finally {
+            // release the native memory of the inflater, also if reading fails.
+            if (gzip) {
+                data.close();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the digest, as upper case hex, and resets it.
+     * @return digest
+     */
+    public String digest() {
+        if (md != null) {
+            return DatatypeConverter.printHexBinary(md.digest()).toUpperCase();
+        }
+        String value = String.format("%08X", checksum.getValue());
+        checksum.reset();
+        return value;
+    }
+}
@@ -0,0 +1,50 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * PerfAttemptInterceptor counts the attempts (the first try and the SDK retries) of the last S3 / Bolt request sent
+ * by the current thread, so that perf tests can report how often requests were retried. It is registered as a global
+ * SDK interceptor (see software/amazon/awssdk/global/handlers/execution.interceptors), so that it applies to every S3
+ * and Bolt client. Requests of the synchronous clients run on the calling thread.
+ */
+public class PerfAttemptInterceptor implements ExecutionInterceptor {
+
+    // attempts, start of the request (ns) and start of its last attempt (ns), of the last request of the thread.
+    private static final ThreadLocal<long[]> LAST_REQUEST = ThreadLocal.withInitial(() -> new long[3]);
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        long[] lastRequest = LAST_REQUEST.get();
+        lastRequest[0] = 0;
+        lastRequest[1] = System.nanoTime();
+        lastRequest[2] = lastRequest[1];
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        long[] lastRequest = LAST_REQUEST.get();
+        lastRequest[0]++;
+        lastRequest[2] = System.nanoTime();
+    }
+
+    /**
+     * Returns the number of attempts of the last request of the current thread.
+     * @return attempts (1 if the request was not retried, 0 if it failed before being sent)
+     */
+    static int lastAttempts() {
+        return (int) LAST_REQUEST.get()[0];
+    }
+
+    /**
+     * Returns the time the last request of the current thread spent before its last attempt, i.e. in failed attempts
+     * and backoff.
+     * @return time spent in retries (ns)
+     */
+    static long lastRetryNanos() {
+        long[] lastRequest = LAST_REQUEST.get();
+        return lastRequest[0] > 1 ? lastRequest[2] - lastRequest[1] : 0;
+    }
+}
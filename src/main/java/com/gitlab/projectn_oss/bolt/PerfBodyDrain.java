@@ -0,0 +1,116 @@
+package com.gitlab.projectn_oss.bolt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * PerfBodyDrain reads and discards the body of Get Object responses in perf tests, with a read buffer that is
+ * reused across responses read by the same thread, so that draining neither allocates per object nor caps the client
+ * at small reads. It also measures the read side: bytes read and the time spent reading them, so that the effective
+ * MB/s of the client can be compared with the object throughput, to confirm the client is not the bottleneck.
+ * Recording is not thread-safe.
+ */
+public class PerfBodyDrain {
+
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    // largest array the JVM can allocate.
+    private static final long MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    // read buffer, reused across responses read by the same thread.
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<>();
+
+    private final int bufferSize;
+    private long bytesRead;
+    private long readNanos;
+
+    public PerfBodyDrain(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Creates a drain from the event parameters (drainBufferSize).
+     * @param event incoming Lambda event object
+     * @return drain
+     */
+    static PerfBodyDrain fromEvent(Map<String, String> event) {
+        String bufferSizeStr = event.get("drainBufferSize");
+        if (bufferSizeStr == null || bufferSizeStr.isEmpty()) {
+            return new PerfBodyDrain(DEFAULT_BUFFER_SIZE);
+        }
+        long bufferSize = BoltS3Perf.parseSize(bufferSizeStr);
+        if (bufferSize < 1 || bufferSize > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Invalid drainBufferSize " + bufferSizeStr + ", expected 1 to " +
+                    MAX_BUFFER_SIZE + " bytes");
+        }
+        return new PerfBodyDrain((int) bufferSize);
+    }
+
+    /**
+     * Returns a drain with the same buffer size, and its own read-side stats.
+     * @return drain
+     */
+    PerfBodyDrain copy() {
+        return new PerfBodyDrain(bufferSize);
+    }
+
+    /**
+     * Reads and discards all remaining data of a response stream.
+     * @param in response stream
+     * @return number of bytes read
+     * @throws IOException
+     */
+    public long drain(InputStream in) throws IOException {
+        long startTime = System.nanoTime();
+        long bytes = 0;
+        byte[] buffer = BUFFER.get();
+        if (buffer == null || buffer.length != bufferSize) {
+            buffer = new byte[bufferSize];
+            BUFFER.set(buffer);
+        }
+        int len;
+        while ((len = in.read(buffer, 0, buffer.length)) != -1) {
+            bytes += len;
+        }
+        readNanos += System.nanoTime() - startTime;
+        bytesRead += bytes;
+        return bytes;
+    }
+
+    /**
+     * Returns the read-side stats, as part of the performance statistics.
+     * @return buffer size, bytes read, time spent reading and the effective read throughput
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<>();
+        map.put("bufferSize", String.format("%d bytes", bufferSize));
+        putReadStats(map, bytesRead, readNanos / 1e6);
+        return map;
+    }
+
+    /**
+     * Merges the read-side stats of a worker into those of the previous workers (see BoltS3PerfCoordinator). Bytes
+     * and read time are summed, and the read throughput recomputed.
+     * @param merged read-side stats of the previous workers, updated in place
+     * @param drain read-side stats of the next worker
+     */
+    static void merge(Map<String, String> merged, Map<String, String> drain) {
+        merged.put("bufferSize", drain.get("bufferSize"));
+        putReadStats(merged, parseValue(merged.get("bytesRead")) + parseValue(drain.get("bytesRead")),
+                parseValue(merged.get("readTime")) + parseValue(drain.get("readTime")));
+    }
+
+    private static void putReadStats(Map<String, String> map, double bytesRead, double readTimeMs) {
+        // bytes and time are parsed back when merged, so they are formatted independently of the default locale.
+        map.put("bytesRead", String.format(Locale.ROOT, "%d bytes", (long) bytesRead));
+        map.put("readTime", String.format(Locale.ROOT, "%.2f ms", readTimeMs));
+        map.put("readThroughput", String.format("%.2f MB/s",
+                readTimeMs > 0 ? bytesRead / 1048576.0 / (readTimeMs / 1000.0) : 0.0));
+    }
+
+    private static double parseValue(String value) {
+        return value != null ? Double.parseDouble(value.substring(0, value.indexOf(' '))) : 0.0;
+    }
+}
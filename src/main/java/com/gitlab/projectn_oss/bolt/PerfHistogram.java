@@ -0,0 +1,169 @@
+package com.gitlab.projectn_oss.bolt;
+
+/**
+ * PerfHistogram is a log-linear histogram of non-negative values (latencies, throughputs, object sizes) used to merge
+ * the raw performance samples of several perf workers into global statistics. Values below 128 are counted exactly,
+ * larger values are counted in buckets with a relative width of at most 1/64, so percentiles of merged histograms are
+ * within 1% of the exact percentiles. Count, sum, min and max are tracked exactly.
+ */
+public class PerfHistogram {
+
+    // values below SUB_BUCKET_COUNT have a bucket of their own.
+    private static final int SUB_BUCKET_COUNT = 128;
+    // number of buckets per power of two, above SUB_BUCKET_COUNT.
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    // log2 of SUB_BUCKET_COUNT.
+    private static final int SUB_BUCKET_BITS = 7;
+    // total number of buckets, covering values up to Long.MAX_VALUE.
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * @param value value to be recorded
+     */
+    public void record(long value) {
+        long v = Math.max(value, 0);
+        counts[bucketIndex(v)]++;
+        count++;
+        sum += v;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Adds all values recorded by another histogram to this histogram.
+     * @param other histogram to be merged
+     */
+    public void merge(PerfHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count > 0 ? (double) sum / count : 0.0;
+    }
+
+    /**
+     * Returns the value at the given percentile, using the same rank as the percentiles computed by BoltS3Perf on
+     * sorted samples (the sample at index count * percentile).
+     * @param percentile percentile in [0, 1)
+     * @return value at the percentile
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.min((long) (count * percentile) + 1, count);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // clamp the bucket's representative value to the exact range of recorded values.
+                return Math.max(min, Math.min(max, bucketValue(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Encodes the histogram as "count,sum,min,max;index:count,index:count,...", listing only non-empty buckets.
+     * @return encoded histogram
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(count).append(',').append(sum).append(',').append(getMin()).append(',').append(max).append(';');
+        boolean first = true;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] != 0) {
+                if (!first) {
+                    sb.append(',');
+                }
+                sb.append(i).append(':').append(counts[i]);
+                first = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes a histogram encoded by encode.
+     * @param encoded encoded histogram
+     * @return decoded histogram
+     */
+    public static PerfHistogram decode(String encoded) {
+        PerfHistogram histogram = new PerfHistogram();
+        String[] parts = encoded.split(";", -1);
+        String[] totals = parts[0].split(",");
+        histogram.count = Long.parseLong(totals[0]);
+        histogram.sum = Long.parseLong(totals[1]);
+        histogram.min = histogram.count > 0 ? Long.parseLong(totals[2]) : Long.MAX_VALUE;
+        histogram.max = Long.parseLong(totals[3]);
+        if (parts.length > 1 && !parts[1].isEmpty()) {
+            for (String bucket : parts[1].split(",")) {
+                int sep = bucket.indexOf(':');
+                histogram.counts[Integer.parseInt(bucket.substring(0, sep))] =
+                        Long.parseLong(bucket.substring(sep + 1));
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the index of the bucket that counts the given value.
+     * @param value non-negative value
+     * @return bucket index
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT +
+                (subBucket - HALF_SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * Returns the value that represents the given bucket (the middle of the range of values it counts).
+     * @param index bucket index
+     * @return representative value
+     */
+    private static long bucketValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = SUB_BUCKET_BITS + (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT;
+        int shift = exponent - (SUB_BUCKET_BITS - 1);
+        long subBucket = HALF_SUB_BUCKET_COUNT + (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT;
+        long low = subBucket << shift;
+        return low + ((1L << shift) >>> 1);
+    }
+}
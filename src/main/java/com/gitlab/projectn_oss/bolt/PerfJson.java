@@ -0,0 +1,263 @@
+package com.gitlab.projectn_oss.bolt;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PerfJson encodes and decodes the JSON documents exchanged between the perf coordinator and its workers (events and
+ * performance statistics). Perf events and statistics are string-valued, so decoded numbers and booleans are returned
+ * as their literal text; objects are decoded as maps (in document order) and arrays as lists.
+ */
+public class PerfJson {
+
+    private final String json;
+    private int pos;
+
+    private PerfJson(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Encodes a value (map, list, string, number, boolean or null) as JSON.
+     * @param value value to be encoded
+     * @return JSON text
+     */
+    public static String encode(Object value) {
+        StringBuilder sb = new StringBuilder();
+        encode(value, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Decodes JSON text.
+     * @param json JSON text
+     * @return decoded value (map, list, string or null)
+     */
+    public static Object decode(String json) {
+        PerfJson parser = new PerfJson(json);
+        Object value = parser.parseValue();
+        parser.skipWhitespace();
+        if (parser.pos != json.length()) {
+            throw parser.error("unexpected trailing characters");
+        }
+        return value;
+    }
+
+    private static void encode(Object value, StringBuilder sb) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                encodeString(String.valueOf(entry.getKey()), sb);
+                sb.append(':');
+                encode(entry.getValue(), sb);
+                first = false;
+            }
+            sb.append('}');
+        } else if (value instanceof List) {
+            sb.append('[');
+            boolean first = true;
+            for (Object item : (List<?>) value) {
+                if (!first) {
+                    sb.append(',');
+                }
+                encode(item, sb);
+                first = false;
+            }
+            sb.append(']');
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else {
+            encodeString(value.toString(), sb);
+        }
+    }
+
+    private static void encodeString(String str, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+    }
+
+    private Object parseValue() {
+        skipWhitespace();
+        if (pos >= json.length()) {
+            throw error("unexpected end of input");
+        }
+        char c = json.charAt(pos);
+        switch (c) {
+            case '{':
+                return parseObject();
+            case '[':
+                return parseArray();
+            case '"':
+                return parseString();
+            default:
+                return parseLiteral();
+        }
+    }
+
+    private Map<String, Object> parseObject() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("expected object key");
+            }
+            String key = parseString();
+            skipWhitespace();
+            expect(':');
+            map.put(key, parseValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return map;
+            }
+        }
+    }
+
+    private List<Object> parseArray() {
+        List<Object> list = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            list.add(parseValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return list;
+            }
+        }
+    }
+
+    private String parseString() {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (true) {
+            if (pos >= json.length()) {
+                throw error("unterminated string");
+            }
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= json.length()) {
+                throw error("unterminated escape sequence");
+            }
+            char e = json.charAt(pos++);
+            switch (e) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > json.length()) {
+                        throw error("invalid unicode escape");
+                    }
+                    sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default:
+                    sb.append(e);
+                    break;
+            }
+        }
+    }
+
+    private String parseLiteral() {
+        int start = pos;
+        while (pos < json.length() && ",:]} \t\r\n".indexOf(json.charAt(pos)) < 0) {
+            pos++;
+        }
+        String literal = json.substring(start, pos);
+        if (literal.isEmpty()) {
+            throw error("unexpected character");
+        }
+        return literal.equals("null") ? null : literal;
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char peek() {
+        if (pos >= json.length()) {
+            throw error("unexpected end of input");
+        }
+        return json.charAt(pos);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException("Invalid JSON at offset " + pos + ": " + msg);
+    }
+}
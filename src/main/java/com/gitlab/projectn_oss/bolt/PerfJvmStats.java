@@ -0,0 +1,176 @@
+package com.gitlab.projectn_oss.bolt;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * PerfJvmStats measures the JVM activity inside a timed window of a perf test: CPU time used and bytes allocated by
+ * the measuring thread, and the number and duration of garbage collections, which would otherwise silently distort
+ * the measured latencies. CPU time and allocations per operation (begin / end pair) show the client-side cost of a
+ * request, e.g. the routing and signing BoltS3Client adds on top of the plain S3Client, which latency can't separate
+ * from the time spent waiting on the network.
+ */
+public class PerfJvmStats {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final List<GarbageCollectorMXBean> GC_MX_BEANS = ManagementFactory.getGarbageCollectorMXBeans();
+
+    static {
+        // thread CPU time measurement is usually enabled by default, but may be disabled.
+        try {
+            if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() && !THREAD_MX_BEAN.isThreadCpuTimeEnabled()) {
+                THREAD_MX_BEAN.setThreadCpuTimeEnabled(true);
+            }
+        } catch (UnsupportedOperationException | SecurityException e) {
+            // CPU time is reported as unavailable.
+        }
+    }
+
+    private long beginAllocatedBytes;
+    private long beginCpuTime;
+    private long beginGcCount;
+    private long beginGcTime;
+    private long ops;
+    private long allocatedBytes;
+    // CPU time of the measuring thread (ns).
+    private long cpuTime;
+    private long gcCount;
+    private long gcTime;
+
+    /**
+     * Begins (or resumes) the timed window. The stats of all begin / end pairs are accumulated, so that only the
+     * timed calls themselves are measured.
+     */
+    public void begin() {
+        beginGcCount = gcCount();
+        beginGcTime = gcTime();
+        // read last, so that the reads above are not counted.
+        beginCpuTime = currentThreadCpuTime();
+        beginAllocatedBytes = currentThreadAllocatedBytes();
+    }
+
+    /**
+     * Ends (or pauses) the timed window.
+     */
+    public void end() {
+        // read first, so that the reads below are not counted.
+        long endAllocatedBytes = currentThreadAllocatedBytes();
+        long endCpuTime = currentThreadCpuTime();
+        ops++;
+        if (allocatedBytes >= 0) {
+            allocatedBytes = (beginAllocatedBytes >= 0 && endAllocatedBytes >= 0) ?
+                    allocatedBytes + endAllocatedBytes - beginAllocatedBytes : -1;
+        }
+        if (cpuTime >= 0) {
+            cpuTime = (beginCpuTime >= 0 && endCpuTime >= 0) ? cpuTime + endCpuTime - beginCpuTime : -1;
+        }
+        gcCount += gcCount() - beginGcCount;
+        gcTime += gcTime() - beginGcTime;
+    }
+
+    /**
+     * Returns the JVM stats of the timed window, as part of the performance statistics.
+     * @return number of operations, CPU time and allocated bytes (in total and per operation), gc count and gc time
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<>();
+        map.put("ops", String.valueOf(ops));
+        map.put("gcCount", String.valueOf(gcCount));
+        map.put("gcTime", String.format(Locale.ROOT, "%d ms", gcTime));
+        putPerOp(map, ops, allocatedBytes, cpuTime);
+        return map;
+    }
+
+    /**
+     * Merges the JVM stats of a worker into the JVM stats of the previous workers (see BoltS3PerfCoordinator).
+     * Operations, CPU time, allocated bytes and gc activity are summed, and the per operation cost recomputed.
+     * @param merged JVM stats of the previous workers, updated in place
+     * @param jvm JVM stats of the next worker
+     */
+    static void merge(Map<String, String> merged, Map<String, String> jvm) {
+        long ops = parseLong(merged.get("ops")) + parseLong(jvm.get("ops"));
+        long allocatedBytes = sumAvailable(merged.get("allocatedBytes"), jvm.get("allocatedBytes"), 1);
+        long cpuTime = sumAvailable(merged.get("cpuTime"), jvm.get("cpuTime"), 1000);
+        merged.put("ops", String.valueOf(ops));
+        merged.put("gcCount", String.valueOf(parseLong(merged.get("gcCount")) + parseLong(jvm.get("gcCount"))));
+        merged.put("gcTime", String.format(Locale.ROOT, "%d ms", parseLong(merged.get("gcTime")) + parseLong(jvm.get("gcTime"))));
+        putPerOp(merged, ops, allocatedBytes, cpuTime);
+    }
+
+    private static void putPerOp(Map<String, String> map, long ops, long allocatedBytes, long cpuTime) {
+        // totals are parsed back when merged, so they are formatted independently of the default locale.
+        map.put("allocatedBytes", allocatedBytes >= 0 ?
+                String.format(Locale.ROOT, "%d bytes", allocatedBytes) : "unavailable");
+        map.put("allocatedBytesPerOp", allocatedBytes >= 0 ?
+                String.format("%d bytes", ops > 0 ? allocatedBytes / ops : 0) : "unavailable");
+        map.put("cpuTime", cpuTime >= 0 ? String.format(Locale.ROOT, "%d us", cpuTime / 1000) : "unavailable");
+        map.put("cpuTimePerOp", cpuTime >= 0 ?
+                String.format("%.2f us", ops > 0 ? cpuTime / 1000.0 / ops : 0.0) : "unavailable");
+    }
+
+    /**
+     * Sums two reported values (e.g. "123 bytes", null if not reported yet), -1 if either is unavailable.
+     * @param v1 value
+     * @param v2 value
+     * @param scale multiplier from the reported unit to the unit of the result
+     * @return sum
+     */
+    private static long sumAvailable(String v1, String v2, long scale) {
+        if ("unavailable".equals(v1) || "unavailable".equals(v2)) {
+            return -1;
+        }
+        return (parseLong(v1) + parseLong(v2)) * scale;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int sep = value.indexOf(' ');
+        return Long.parseLong(sep >= 0 ? value.substring(0, sep) : value);
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or -1 if the JVM does not support it.
+     * @return allocated bytes
+     */
+    static long currentThreadAllocatedBytes() {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            if (threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled()) {
+                return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the CPU time used so far by the current thread (ns), or -1 if the JVM does not support it.
+     * @return CPU time
+     */
+    static long currentThreadCpuTime() {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_MX_BEAN.isThreadCpuTimeEnabled() ?
+                THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : GC_MX_BEANS) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : GC_MX_BEANS) {
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return time;
+    }
+}
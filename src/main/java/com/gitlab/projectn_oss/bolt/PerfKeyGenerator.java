@@ -0,0 +1,174 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PerfKeyGenerator generates the key names used in Bolt / S3 Performance tests, following one of several key-naming
+ * strategies, so that per-prefix (partition) limits of Bolt and S3 can be exercised.
+ */
+public class PerfKeyGenerator {
+
+    // key-naming strategies supported
+    enum KeyStrategy {
+        // bolt-s3-perf0 .. bolt-s3-perfN, under a single prefix.
+        SEQUENTIAL,
+        // 4 hex digit hash prefix, e.g. 3f2a/bolt-s3-perf7.
+        HASHED,
+        // hourly date partitions, e.g. 2021/06/30/14/bolt-s3-perf7.
+        DATE,
+        // directory tree of keyDepth levels with keyFanout directories each, e.g. d1/d3/d0/d2/bolt-s3-perf7.
+        DEEP,
+        // keys replayed from a manifest (one key per line) in a local file or in S3 (s3://bucket/key), read modes only.
+        MANIFEST
+    }
+
+    private static final String KEY_NAME = "bolt-s3-perf";
+
+    private final KeyStrategy keyStrategy;
+    private final int datePartitions;
+    private final int keyDepth;
+    private final int keyFanout;
+    private final String keyManifest;
+
+    /**
+     * Creates a key generator from the event parameters (keyStrategy, datePartitions, keyDepth, keyFanout,
+     * keyManifest).
+     * @param event incoming Lambda event object
+     */
+    public PerfKeyGenerator(Map<String, String> event) {
+        String keyStrategyStr = event.get("keyStrategy");
+        keyStrategy = (keyStrategyStr != null && !keyStrategyStr.isEmpty()) ?
+                KeyStrategy.valueOf(keyStrategyStr.toUpperCase()) : KeyStrategy.SEQUENTIAL;
+        datePartitions = Math.max(BoltS3Perf.intParam(event, "datePartitions", 24), 1);
+        keyDepth = Math.max(BoltS3Perf.intParam(event, "keyDepth", 4), 1);
+        keyFanout = Math.max(BoltS3Perf.intParam(event, "keyFanout", 4), 1);
+        keyManifest = event.get("keyManifest");
+        if (keyStrategy == KeyStrategy.MANIFEST && (keyManifest == null || keyManifest.isEmpty())) {
+            throw new IllegalArgumentException("keyManifest is required by keyStrategy 'manifest'");
+        }
+    }
+
+    public KeyStrategy getKeyStrategy() {
+        return keyStrategy;
+    }
+
+    /**
+     * Generates key names.
+     * @param numKeys number of keys
+     * @param s3 S3 client used to read a manifest stored in S3
+     * @return key names
+     * @throws IOException
+     */
+    public List<String> generate(int numKeys, S3Client s3) throws IOException {
+        if (keyStrategy == KeyStrategy.MANIFEST) {
+            return readManifest(numKeys, s3);
+        }
+
+        List<String> keys = new ArrayList<>(numKeys);
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy/MM/dd/HH");
+        for (int i = 0; i < numKeys; i++) {
+            String name = KEY_NAME + i;
+            switch (keyStrategy) {
+                case HASHED:
+                    keys.add(String.format("%04x/%s", hash(name) & 0xffff, name));
+                    break;
+                case DATE:
+                    keys.add(now.minusHours(i % datePartitions).format(dateFormatter) + "/" + name);
+                    break;
+                case DEEP:
+                    StringBuilder sb = new StringBuilder();
+                    int path = i;
+                    for (int level = 0; level < keyDepth; level++) {
+                        sb.append('d').append(path % keyFanout).append('/');
+                        path /= keyFanout;
+                    }
+                    keys.add(sb.append(name).toString());
+                    break;
+                default:
+                    keys.add(name);
+                    break;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the prefix (leaf partition, i.e. everything before the last '/') of a key, used to report throughput
+     * per prefix. Date keys are thus grouped by hour and deep keys by leaf directory, not all under their first
+     * path segment.
+     * @param key key name
+     * @return prefix of the key, or "/" if the key has no prefix
+     */
+    public static String prefixOf(String key) {
+        int sep = key.lastIndexOf('/');
+        return sep > 0 ? key.substring(0, sep) : "/";
+    }
+
+    /**
+     * Reads up to numKeys keys, one per line, from the manifest.
+     * @param numKeys max. number of keys
+     * @param s3 S3 client used to read a manifest stored in S3
+     * @return key names
+     * @throws IOException
+     */
+    private List<String> readManifest(int numKeys, S3Client s3) throws IOException {
+        List<String> keys = new ArrayList<>();
+        BufferedReader reader;
+        if (keyManifest.startsWith("s3://")) {
+            String path = keyManifest.substring("s3://".length());
+            int sep = path.indexOf('/');
+            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                    .bucket(path.substring(0, sep))
+                    .key(path.substring(sep + 1))
+                    .build();
+            ResponseInputStream<GetObjectResponse> resp = s3.getObject(getObjectRequest);
+            reader = new BufferedReader(new InputStreamReader(resp, StandardCharsets.UTF_8));
+        } else {
+            reader = Files.newBufferedReader(Paths.get(keyManifest), StandardCharsets.UTF_8);
+        }
+
+        try {
+            String line;
+            while (keys.size() < numKeys && (line = reader.readLine()) != null) {
+                String key = line.trim();
+                if (!key.isEmpty()) {
+                    keys.add(key);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return keys;
+    }
+
+    /**
+     * FNV-1a hash of a key name, used for hashed prefixes.
+     * @param name key name
+     * @return hash
+     */
+    private static int hash(String name) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+}
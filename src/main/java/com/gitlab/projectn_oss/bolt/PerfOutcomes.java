@@ -0,0 +1,173 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * PerfOutcomes records the outcome of each operation of a perf test (success, or failure by error code), the
+ * throttled operations (503 SlowDown, 429 and other throttling errors), and the attempts each operation took and the
+ * time spent in retries (see PerfAttemptInterceptor), so that a failing operation is reported instead of aborting the
+ * test, and retries don't silently inflate latencies. Recording is not thread-safe.
+ */
+public class PerfOutcomes {
+
+    private long succeeded;
+    private long failed;
+    private long throttled;
+    private long retries;
+    private long maxAttempts;
+    // time of all operations, and time spent in failed attempts and backoff before their last attempt (ns).
+    private long opTimeNanos;
+    private long retryNanos;
+    private final Map<String, Long> errors = new TreeMap<>();
+    private final PerfSampleRecorder failedTimes;
+
+    /**
+     * Creates an outcome recorder.
+     * @param capacity expected number of operations
+     */
+    public PerfOutcomes(int capacity) {
+        failedTimes = new PerfSampleRecorder(Math.min(capacity, 64));
+    }
+
+    /**
+     * Records a successful operation, and the retries of its last request.
+     * @param opTime latency of the operation
+     */
+    public void success(long opTime) {
+        succeeded++;
+        recordAttempts(opTime);
+    }
+
+    /**
+     * Records a failed operation, and the retries of its last request.
+     * @param e exception the operation failed with
+     * @param opTime latency of the failed operation
+     */
+    public void failure(Exception e, long opTime) {
+        failed++;
+        recordAttempts(opTime);
+        failedTimes.add(opTime);
+
+        String code = e.getClass().getSimpleName();
+        if (e instanceof SdkServiceException) {
+            SdkServiceException se = (SdkServiceException) e;
+            if (se instanceof AwsServiceException && ((AwsServiceException) se).awsErrorDetails() != null &&
+                    ((AwsServiceException) se).awsErrorDetails().errorCode() != null) {
+                code = ((AwsServiceException) se).awsErrorDetails().errorCode();
+            } else {
+                code = "HTTP " + se.statusCode();
+            }
+            if (se.isThrottlingException() || se.statusCode() == 503 || se.statusCode() == 429) {
+                throttled++;
+            }
+        }
+        errors.merge(code, 1L, Long::sum);
+    }
+
+    private void recordAttempts(long opTime) {
+        int attempts = Math.max(PerfAttemptInterceptor.lastAttempts(), 1);
+        retries += attempts - 1;
+        maxAttempts = Math.max(maxAttempts, attempts);
+        opTimeNanos += opTime * 1000000L;
+        retryNanos += PerfAttemptInterceptor.lastRetryNanos();
+    }
+
+    /**
+     * Returns the outcomes, as part of the performance statistics.
+     * @return number of requests, successes, failures and throttles, error and throttle rates, retries, attempts per
+     *         operation, share of the latency spent in retries, failures by error code, and the latency of failed
+     *         operations
+     */
+    public Map<String, String> toMap() {
+        long requests = succeeded + failed;
+        Map<String, String> outcomes = new HashMap<>();
+        outcomes.put("requests", String.valueOf(requests));
+        outcomes.put("succeeded", String.valueOf(succeeded));
+        outcomes.put("failed", String.valueOf(failed));
+        outcomes.put("throttled", String.valueOf(throttled));
+        outcomes.put("retries", String.valueOf(retries));
+        outcomes.put("errorRate", String.format("%.2f %%", requests > 0 ? 100.0 * failed / requests : 0.0));
+        outcomes.put("throttleRate", String.format("%.2f %%", requests > 0 ? 100.0 * throttled / requests : 0.0));
+        outcomes.put("attemptsAverage",
+                String.format("%.2f", requests > 0 ? (double) (requests + retries) / requests : 0.0));
+        outcomes.put("attemptsMax", String.valueOf(maxAttempts));
+        // times are parsed back when merged, so they are formatted independently of the default locale.
+        outcomes.put("totalTime", String.format(Locale.ROOT, "%.2f ms", opTimeNanos / 1e6));
+        outcomes.put("retryTime", String.format(Locale.ROOT, "%.2f ms", retryNanos / 1e6));
+        outcomes.put("retryLatencyShare",
+                String.format("%.2f %%", opTimeNanos > 0 ? 100.0 * retryNanos / opTimeNanos : 0.0));
+        if (failed > 0) {
+            outcomes.put("errors", formatErrors(errors));
+            outcomes.put("failedLatencyAverage", String.format("%.2f ms", failedTimes.mean()));
+            outcomes.put("failedLatencyP50", String.format("%d ms", (long) failedTimes.percentile(0.5)));
+            outcomes.put("failedLatencyP90", String.format("%d ms", (long) failedTimes.percentile(0.9)));
+        }
+        return outcomes;
+    }
+
+    /**
+     * Merges the outcomes of a worker into the outcomes of the previous workers (see BoltS3PerfCoordinator). Counts
+     * and failures by error code are summed and the rates recomputed; the latency of failed operations can't be
+     * merged and is dropped.
+     * @param merged outcomes of the previous workers, updated in place
+     * @param outcomes outcomes of the next worker
+     */
+    static void merge(Map<String, String> merged, Map<String, String> outcomes) {
+        for (String counter : new String[] {"requests", "succeeded", "failed", "throttled", "retries"}) {
+            long value = Long.parseLong(merged.getOrDefault(counter, "0")) +
+                    Long.parseLong(outcomes.getOrDefault(counter, "0"));
+            merged.put(counter, String.valueOf(value));
+        }
+        merged.put("attemptsMax", String.valueOf(Math.max(Long.parseLong(merged.getOrDefault("attemptsMax", "0")),
+                Long.parseLong(outcomes.getOrDefault("attemptsMax", "0")))));
+        for (String time : new String[] {"totalTime", "retryTime"}) {
+            double value = millis(merged.get(time)) + millis(outcomes.get(time));
+            merged.put(time, String.format(Locale.ROOT, "%.2f ms", value));
+        }
+
+        Map<String, Long> errors = new TreeMap<>();
+        for (String errorStr : new String[] {merged.get("errors"), outcomes.get("errors")}) {
+            if (errorStr != null && !errorStr.isEmpty()) {
+                for (String error : errorStr.split(",")) {
+                    int sep = error.lastIndexOf(':');
+                    errors.merge(error.substring(0, sep), Long.parseLong(error.substring(sep + 1)), Long::sum);
+                }
+            }
+        }
+        if (!errors.isEmpty()) {
+            merged.put("errors", formatErrors(errors));
+        }
+
+        long requests = Long.parseLong(merged.get("requests"));
+        long failed = Long.parseLong(merged.get("failed"));
+        long throttled = Long.parseLong(merged.get("throttled"));
+        long retries = Long.parseLong(merged.get("retries"));
+        double totalTime = millis(merged.get("totalTime"));
+        double retryTime = millis(merged.get("retryTime"));
+        merged.put("errorRate", String.format("%.2f %%", requests > 0 ? 100.0 * failed / requests : 0.0));
+        merged.put("throttleRate", String.format("%.2f %%", requests > 0 ? 100.0 * throttled / requests : 0.0));
+        merged.put("attemptsAverage",
+                String.format("%.2f", requests > 0 ? (double) (requests + retries) / requests : 0.0));
+        merged.put("retryLatencyShare",
+                String.format("%.2f %%", totalTime > 0 ? 100.0 * retryTime / totalTime : 0.0));
+        merged.remove("failedLatencyAverage");
+        merged.remove("failedLatencyP50");
+        merged.remove("failedLatencyP90");
+    }
+
+    private static String formatErrors(Map<String, Long> errors) {
+        StringBuilder sb = new StringBuilder();
+        errors.forEach((code, count) -> sb.append(sb.length() > 0 ? "," : "").append(code).append(':').append(count));
+        return sb.toString();
+    }
+
+    private static double millis(String time) {
+        return time != null ? Double.parseDouble(time.substring(0, time.indexOf(' '))) : 0.0;
+    }
+}
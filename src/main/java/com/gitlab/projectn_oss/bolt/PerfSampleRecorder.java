@@ -0,0 +1,131 @@
+package com.gitlab.projectn_oss.bolt;
+
+import java.util.Arrays;
+
+/**
+ * PerfSampleRecorder records performance samples (latencies, throughputs, object sizes) in a preallocated primitive
+ * array, so that recording a sample inside a timed window neither boxes nor allocates, and extracts percentiles by
+ * selection instead of sorting. Recording is not thread-safe.
+ */
+public class PerfSampleRecorder {
+
+    private double[] samples;
+    private int size;
+    private double sum;
+
+    /**
+     * Creates a recorder with room for the expected number of samples. The recorder grows if more samples are added,
+     * which allocates outside of the expected capacity only.
+     * @param capacity expected number of samples
+     */
+    public PerfSampleRecorder(int capacity) {
+        samples = new double[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Records a sample.
+     * @param sample sample value
+     */
+    public void add(double sample) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[size++] = sample;
+        sum += sample;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public double sum() {
+        return sum;
+    }
+
+    public double mean() {
+        return size > 0 ? sum / size : 0.0;
+    }
+
+    /**
+     * Returns the sample at the given percentile, i.e. the sample at index size * percentile of the sorted samples.
+     * The samples are partially reordered in place; recorded values are preserved.
+     * @param percentile percentile in [0, 1)
+     * @return sample at the percentile, 0 if no samples were recorded
+     */
+    public double percentile(double percentile) {
+        if (size == 0) {
+            return 0.0;
+        }
+        int k = Math.min((int) (size * percentile), size - 1);
+        return select(k);
+    }
+
+    /**
+     * Records all samples, multiplied by scale, in a histogram.
+     * @param histogram histogram to record samples in
+     * @param scale scale of the recorded values
+     */
+    public void recordTo(PerfHistogram histogram, double scale) {
+        for (int i = 0; i < size; i++) {
+            histogram.record(Math.round(samples[i] * scale));
+        }
+    }
+
+    /**
+     * Returns the k-th smallest sample, using quickselect with median-of-three pivots (expected linear time).
+     * @param k 0-based rank
+     * @return k-th smallest sample
+     */
+    private double select(int k) {
+        int lo = 0;
+        int hi = size - 1;
+        while (hi > lo) {
+            int mid = (lo + hi) >>> 1;
+            // order samples[lo], samples[mid], samples[hi] and use the median as the pivot.
+            if (samples[mid] < samples[lo]) {
+                swap(lo, mid);
+            }
+            if (samples[hi] < samples[lo]) {
+                swap(lo, hi);
+            }
+            if (samples[hi] < samples[mid]) {
+                swap(mid, hi);
+            }
+            double pivot = samples[mid];
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (samples[i] < pivot) {
+                    i++;
+                }
+                while (samples[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return samples[k];
+            }
+        }
+        return samples[k];
+    }
+
+    private void swap(int i, int j) {
+        double tmp = samples[i];
+        samples[i] = samples[j];
+        samples[j] = tmp;
+    }
+}
@@ -0,0 +1,351 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PerfScenario runs a YCSB-style mixed workload against Bolt / S3: a number of threads issue a weighted mix of Get,
+ * Put, Head, List and Delete Object requests, interleaved, against a shared key space, so that each operation is
+ * measured while the others compete with it, as in production traffic. Puts insert new keys into the key space,
+ * Deletes remove keys from it, and Gets / Heads read keys picked uniformly from the keys present at the time.
+ *
+ * The mix is either one of the presets, or given as weights, e.g. "get=80,put=15,list=5".
+ */
+public class PerfScenario {
+
+    // operations of a scenario.
+    enum OpType {
+        GET,
+        PUT,
+        HEAD,
+        LIST,
+        DELETE
+    }
+
+    // built-in scenarios.
+    enum Preset {
+        // large scans of existing data, with some metadata lookups.
+        READ_HEAVY_ANALYTICS("get=80,head=10,list=10"),
+        // mostly new data landing, read back by downstream consumers and expired.
+        INGEST_HEAVY("put=70,get=20,delete=10"),
+        // catalog / crawler style traffic: existence checks and listings, little data.
+        METADATA_HEAVY("head=50,list=40,get=5,put=5");
+
+        private final String mix;
+
+        Preset(String mix) {
+            this.mix = mix;
+        }
+    }
+
+    // max. number of keys returned by a List request of the scenario.
+    private static final int LIST_MAX_KEYS = 1000;
+
+    private final String name;
+    private final int[] weights = new int[OpType.values().length];
+    private final int totalWeight;
+    private final int concurrency;
+    private final int requests;
+    private final PerfBodyDrain bodyDrain;
+
+    /**
+     * Creates a scenario from the event parameters (scenario, mix, concurrency, requests).
+     * @param event incoming Lambda event object
+     */
+    public PerfScenario(Map<String, String> event) {
+        String mix = event.get("mix");
+        if (mix != null && !mix.isEmpty()) {
+            name = "custom";
+        } else {
+            String scenarioStr = event.get("scenario");
+            Preset preset = (scenarioStr != null && !scenarioStr.isEmpty()) ?
+                    Preset.valueOf(scenarioStr.toUpperCase()) : Preset.READ_HEAVY_ANALYTICS;
+            name = preset.name().toLowerCase();
+            mix = preset.mix;
+        }
+
+        int total = 0;
+        for (String weightStr : mix.split(",")) {
+            int sep = weightStr.indexOf('=');
+            if (sep < 0) {
+                throw new IllegalArgumentException("Invalid mix " + mix + ", expected e.g. get=80,put=15,list=5");
+            }
+            OpType opType = OpType.valueOf(weightStr.substring(0, sep).trim().toUpperCase());
+            int weight = Math.max(Integer.parseInt(weightStr.substring(sep + 1).trim()), 0);
+            weights[opType.ordinal()] += weight;
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Invalid mix " + mix + ", all weights are 0");
+        }
+        totalWeight = total;
+        concurrency = Math.max(BoltS3Perf.intParam(event, "concurrency", 8), 1);
+        requests = Math.max(BoltS3Perf.intParam(event, "requests", 1000), 1);
+        bodyDrain = PerfBodyDrain.fromEvent(event);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Returns the mix of the scenario, as weights.
+     * @return e.g. get=80,put=15,list=5
+     */
+    public String getMix() {
+        StringBuilder sb = new StringBuilder();
+        for (OpType opType : OpType.values()) {
+            if (weights[opType.ordinal()] > 0) {
+                sb.append(sb.length() > 0 ? "," : "").append(opType.name().toLowerCase()).append('=')
+                        .append(weights[opType.ordinal()]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Picks the next operation, by weight.
+     * @param random random number generator of the calling thread
+     * @return operation
+     */
+    OpType next(Random random) {
+        int r = random.nextInt(totalWeight);
+        for (OpType opType : OpType.values()) {
+            r -= weights[opType.ordinal()];
+            if (r < 0) {
+                return opType;
+            }
+        }
+        return OpType.GET;
+    }
+
+    /**
+     * Runs the scenario against one endpoint.
+     * @param client Bolt / S3 client
+     * @param bucket bucket name
+     * @param keys keys present before the run (the initial key space)
+     * @param keyTag tag of the keys inserted by the run, e.g. the endpoint name
+     * @param objLength length of the objects put
+     * @param deadline time (System.currentTimeMillis()) at which to stop, 0 if none
+     * @return statistics of each operation, and the keys present after the run
+     * @throws Exception
+     */
+    public Run run(S3Client client, String bucket, List<String> keys, String keyTag, int objLength,
+                   long deadline) throws Exception {
+        Run run = new Run(keys, requests);
+        byte[] value = new byte[objLength];
+        new Random().nextBytes(value);
+        AtomicInteger issued = new AtomicInteger();
+        AtomicLong inserted = new AtomicLong();
+
+        List<Callable<PerfJvmStats[]>> workers = new ArrayList<>();
+        for (int t = 0; t < concurrency; t++) {
+            workers.add(() -> {
+                Random random = new Random();
+                PerfBodyDrain drain = bodyDrain.copy();
+                PerfJvmStats[] jvmStats = new PerfJvmStats[OpType.values().length];
+                for (int i = 0; i < jvmStats.length; i++) {
+                    jvmStats[i] = new PerfJvmStats();
+                }
+                while (issued.getAndIncrement() < requests) {
+                    if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+                        run.partial = true;
+                        break;
+                    }
+                    OpType opType = next(random);
+                    // a deleted key is taken out of the key space first, so that no other thread reads it meanwhile.
+                    String key = opType == OpType.DELETE ? run.removeRandomKey(random) : run.randomKey(random);
+                    if (key == null && opType != OpType.LIST) {
+                        // the key space is empty, grow it.
+                        opType = OpType.PUT;
+                    }
+                    if (opType == OpType.PUT) {
+                        long n = inserted.getAndIncrement();
+                        String baseKey = keys.isEmpty() ? "bolt-s3-perf" : keys.get((int) (n % keys.size()));
+                        key = baseKey + "-" + keyTag + "-" + n;
+                    }
+                    execute(client, bucket, opType, key, value, run, drain, jvmStats[opType.ordinal()]);
+                }
+                return jvmStats;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            long startTime = System.currentTimeMillis();
+            List<Future<PerfJvmStats[]>> results = executor.invokeAll(workers);
+            run.elapsed = System.currentTimeMillis() - startTime;
+            for (Future<PerfJvmStats[]> result : results) {
+                PerfJvmStats[] jvmStats;
+                try {
+                    jvmStats = result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                for (int i = 0; i < jvmStats.length; i++) {
+                    PerfJvmStats.merge(run.jvm.get(i), jvmStats[i].toMap());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return run;
+    }
+
+    /**
+     * Executes and measures one operation. Failed operations are recorded as outcomes, and don't stop the run.
+     */
+    private static void execute(S3Client client, String bucket, OpType opType, String key, byte[] value, Run run,
+                                PerfBodyDrain drain, PerfJvmStats jvmStats) throws IOException {
+        jvmStats.begin();
+        long opStartTime = System.currentTimeMillis();
+        try {
+            switch (opType) {
+                case GET:
+                    try (ResponseInputStream<GetObjectResponse> resp =
+                                 client.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build())) {
+                        drain.drain(resp);
+                    }
+                    break;
+                case PUT:
+                    client.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(),
+                            RequestBody.fromBytes(value));
+                    run.addKey(key);
+                    break;
+                case HEAD:
+                    client.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build());
+                    break;
+                case LIST:
+                    String prefix = key != null ? PerfKeyGenerator.prefixOf(key) : "/";
+                    client.listObjectsV2(ListObjectsV2Request.builder()
+                            .bucket(bucket)
+                            .prefix(prefix.equals("/") ? null : prefix + "/")
+                            .maxKeys(LIST_MAX_KEYS)
+                            .build());
+                    break;
+                case DELETE:
+                    client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+                    break;
+            }
+            long opEndTime = System.currentTimeMillis();
+            jvmStats.end();
+            run.success(opType, opEndTime - opStartTime);
+        } catch (SdkException e) {
+            jvmStats.end();
+            run.failure(opType, e, System.currentTimeMillis() - opStartTime);
+        }
+    }
+
+    /**
+     * Run holds the shared key space and the statistics of each operation of a scenario run on one endpoint.
+     */
+    public static class Run {
+
+        private final List<String> liveKeys;
+        private final PerfSampleRecorder[] opTimes = new PerfSampleRecorder[OpType.values().length];
+        private final PerfOutcomes[] outcomes = new PerfOutcomes[OpType.values().length];
+        private final List<Map<String, String>> jvm = new ArrayList<>();
+        private volatile boolean partial;
+        private long elapsed;
+
+        Run(List<String> keys, int requests) {
+            liveKeys = new ArrayList<>(keys);
+            for (int i = 0; i < opTimes.length; i++) {
+                opTimes[i] = new PerfSampleRecorder(requests);
+                outcomes[i] = new PerfOutcomes(requests);
+                jvm.add(new HashMap<>());
+            }
+        }
+
+        synchronized String randomKey(Random random) {
+            return liveKeys.isEmpty() ? null : liveKeys.get(random.nextInt(liveKeys.size()));
+        }
+
+        synchronized void addKey(String key) {
+            liveKeys.add(key);
+        }
+
+        synchronized String removeRandomKey(Random random) {
+            if (liveKeys.isEmpty()) {
+                return null;
+            }
+            // swap with the last key, so that removal doesn't shift the list.
+            int i = random.nextInt(liveKeys.size());
+            String key = liveKeys.get(i);
+            liveKeys.set(i, liveKeys.get(liveKeys.size() - 1));
+            liveKeys.remove(liveKeys.size() - 1);
+            return key;
+        }
+
+        // called by the thread that executed the operation, so that its retries are attributed correctly.
+        void success(OpType opType, long opTime) {
+            synchronized (opTimes[opType.ordinal()]) {
+                opTimes[opType.ordinal()].add(opTime);
+                outcomes[opType.ordinal()].success(opTime);
+            }
+        }
+
+        void failure(OpType opType, Exception e, long opTime) {
+            synchronized (opTimes[opType.ordinal()]) {
+                outcomes[opType.ordinal()].failure(e, opTime);
+            }
+        }
+
+        /**
+         * Returns the keys present after the run, e.g. to clean them up.
+         * @return keys
+         */
+        public synchronized List<String> getLiveKeys() {
+            return new ArrayList<>(liveKeys);
+        }
+
+        public PerfSampleRecorder getOpTimes(OpType opType) {
+            return opTimes[opType.ordinal()];
+        }
+
+        public PerfOutcomes getOutcomes(OpType opType) {
+            return outcomes[opType.ordinal()];
+        }
+
+        public Map<String, String> getJvm(OpType opType) {
+            return jvm.get(opType.ordinal());
+        }
+
+        public boolean isPartial() {
+            return partial;
+        }
+
+        public long getElapsed() {
+            return elapsed;
+        }
+    }
+}
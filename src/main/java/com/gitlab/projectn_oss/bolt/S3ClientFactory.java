@@ -0,0 +1,127 @@
+package com.gitlab.projectn_oss.bolt;
+
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryMode;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.backoff.FullJitterBackoffStrategy;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * S3ClientFactory builds the S3 and Bolt clients used by the handlers, with the retry policy and timeouts of each
+ * endpoint configurable through the event. Parameters are prefixed by the endpoint ('s3' or 'bolt'):
+ * - RetryMode: standard, legacy, adaptive or none (no retries). SDK default if not set.
+ * - MaxAttempts: max. number of attempts of a request, including the first one.
+ * - BackoffBaseMs, MaxBackoffMs: base and max. delay of the full jitter backoff between attempts (default 100 ms
+ *   and 20000 ms, if either is set).
+ * - ApiCallTimeoutMs: timeout of a request, including all its attempts.
+ * - AttemptTimeoutMs: timeout of a single attempt.
+ * e.g. {"boltRetryMode": "standard", "boltMaxAttempts": "2", "boltAttemptTimeoutMs": "500"}. Clients of an endpoint
+ * with none of these parameters set are built with the SDK defaults, as before.
+ * S3 requests can also be sent to an S3 compatible local stand-in, with path style addressing, via 's3EndpointUrl'
+ * (the Bolt endpoint is configured via the 'BOLT_URL' environment variable).
+ */
+public class S3ClientFactory {
+
+    // prefixes of the parameters of each endpoint.
+    static final String S3 = "s3";
+    static final String BOLT = "bolt";
+
+    private static final int DEFAULT_BACKOFF_BASE_MS = 100;
+    private static final int DEFAULT_MAX_BACKOFF_MS = 20000;
+
+    private S3ClientFactory() {
+    }
+
+    /**
+     * Builds an S3 client.
+     * @param event event with the retry and timeout parameters of S3, or null for the SDK defaults
+     * @return S3 client
+     */
+    static S3Client s3(Map<String, String> event) {
+        S3ClientBuilder builder = S3Client.builder();
+        ClientOverrideConfiguration config = overrideConfiguration(S3, event);
+        if (config != null) {
+            builder.overrideConfiguration(config);
+        }
+        String endpointUrl = event != null ? param(event, S3, "EndpointUrl") : null;
+        if (endpointUrl != null) {
+            builder.endpointOverride(URI.create(endpointUrl))
+                    .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds a Bolt client.
+     * @param event event with the retry and timeout parameters of Bolt, or null for the SDK defaults
+     * @return Bolt client
+     */
+    static S3Client bolt(Map<String, String> event) {
+        ClientOverrideConfiguration config = overrideConfiguration(BOLT, event);
+        return config != null ? BoltS3Client.builder().overrideConfiguration(config).build() :
+                BoltS3Client.builder().build();
+    }
+
+    /**
+     * Builds the retry policy and timeouts of an endpoint from the event.
+     * @param endpoint endpoint prefix of the parameters (s3 or bolt)
+     * @param event event with the retry and timeout parameters, or null
+     * @return override configuration, or null if none of the parameters of the endpoint are set
+     */
+    static ClientOverrideConfiguration overrideConfiguration(String endpoint, Map<String, String> event) {
+        if (event == null) {
+            return null;
+        }
+        String retryModeStr = param(event, endpoint, "RetryMode");
+        String maxAttemptsStr = param(event, endpoint, "MaxAttempts");
+        String backoffBaseMsStr = param(event, endpoint, "BackoffBaseMs");
+        String maxBackoffMsStr = param(event, endpoint, "MaxBackoffMs");
+        String apiCallTimeoutMsStr = param(event, endpoint, "ApiCallTimeoutMs");
+        String attemptTimeoutMsStr = param(event, endpoint, "AttemptTimeoutMs");
+        if (retryModeStr == null && maxAttemptsStr == null && backoffBaseMsStr == null && maxBackoffMsStr == null &&
+                apiCallTimeoutMsStr == null && attemptTimeoutMsStr == null) {
+            return null;
+        }
+
+        ClientOverrideConfiguration.Builder config = ClientOverrideConfiguration.builder();
+        if (retryModeStr != null && retryModeStr.equalsIgnoreCase("none")) {
+            config.retryPolicy(RetryPolicy.none());
+        } else if (retryModeStr != null || maxAttemptsStr != null || backoffBaseMsStr != null ||
+                maxBackoffMsStr != null) {
+            RetryPolicy.Builder retryPolicy = retryModeStr != null ?
+                    RetryPolicy.builder(RetryMode.valueOf(retryModeStr.toUpperCase())) : RetryPolicy.builder();
+            if (maxAttemptsStr != null) {
+                retryPolicy.numRetries(Math.max(Integer.parseInt(maxAttemptsStr) - 1, 0));
+            }
+            if (backoffBaseMsStr != null || maxBackoffMsStr != null) {
+                int backoffBaseMs = backoffBaseMsStr != null ? Integer.parseInt(backoffBaseMsStr) :
+                        DEFAULT_BACKOFF_BASE_MS;
+                int maxBackoffMs = maxBackoffMsStr != null ? Integer.parseInt(maxBackoffMsStr) :
+                        DEFAULT_MAX_BACKOFF_MS;
+                retryPolicy.backoffStrategy(FullJitterBackoffStrategy.builder()
+                        .baseDelay(Duration.ofMillis(backoffBaseMs))
+                        .maxBackoffTime(Duration.ofMillis(maxBackoffMs))
+                        .build());
+            }
+            config.retryPolicy(retryPolicy.build());
+        }
+        if (apiCallTimeoutMsStr != null) {
+            config.apiCallTimeout(Duration.ofMillis(Long.parseLong(apiCallTimeoutMsStr)));
+        }
+        if (attemptTimeoutMsStr != null) {
+            config.apiCallAttemptTimeout(Duration.ofMillis(Long.parseLong(attemptTimeoutMsStr)));
+        }
+        return config.build();
+    }
+
+    private static String param(Map<String, String> event, String endpoint, String name) {
+        String value = event.get(endpoint + name);
+        return (value != null && !value.isEmpty()) ? value : null;
+    }
+}
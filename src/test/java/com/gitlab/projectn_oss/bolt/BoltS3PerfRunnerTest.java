@@ -0,0 +1,22 @@
+package com.gitlab.projectn_oss.bolt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BoltS3PerfRunnerTest {
+
+    @Test
+    public void backoffDoublesAfterConsecutiveFailures() {
+        assertEquals(0, BoltS3PerfRunner.backoff(0));
+        assertEquals(BoltS3PerfRunner.MIN_BACKOFF_MS, BoltS3PerfRunner.backoff(1));
+        assertEquals(2 * BoltS3PerfRunner.MIN_BACKOFF_MS, BoltS3PerfRunner.backoff(2));
+        assertEquals(4 * BoltS3PerfRunner.MIN_BACKOFF_MS, BoltS3PerfRunner.backoff(3));
+    }
+
+    @Test
+    public void backoffIsCapped() {
+        assertEquals(BoltS3PerfRunner.MAX_BACKOFF_MS, BoltS3PerfRunner.backoff(10));
+        assertEquals(BoltS3PerfRunner.MAX_BACKOFF_MS, BoltS3PerfRunner.backoff(Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,128 @@
+package com.gitlab.projectn_oss.bolt;
+
+import org.junit.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BoltS3ReconcilerTest {
+
+    private static final String BUCKET = "bucket";
+
+    private final LocalS3Client s3 = new LocalS3Client(0, 0);
+    private final LocalS3Client boltS3 = new LocalS3Client(0, 0);
+
+    @Test
+    public void matchingListings() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            put(s3, "key" + i, "value" + i);
+            put(boltS3, "key" + i, "value" + i);
+        }
+        Map<String, String> result = reconcile(null, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals("10", result.get("keysCompared"));
+        assertEquals("10", result.get("matched"));
+        assertEquals("0", result.get("missingInBolt"));
+        assertEquals("0", result.get("extraInBolt"));
+        assertEquals("true", result.get("complete"));
+        assertFalse(result.containsKey("nextStartAfter"));
+    }
+
+    @Test
+    public void reportsMissingExtraAndMismatchedKeys() throws Exception {
+        put(s3, "a", "1");
+        put(boltS3, "a", "1");
+        put(s3, "b", "only in s3");
+        put(s3, "c", "short");
+        put(boltS3, "c", "longer");
+        put(s3, "d", "same size");
+        put(boltS3, "d", "SAME SIZE");
+        put(boltS3, "e", "only in bolt");
+        put(s3, "f", "1");
+        put(boltS3, "f", "1");
+
+        Map<String, String> result = reconcile(null, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals("6", result.get("keysCompared"));
+        assertEquals("2", result.get("matched"));
+        assertEquals("1", result.get("missingInBolt"));
+        assertEquals("b", result.get("missingKeys"));
+        assertEquals("1", result.get("extraInBolt"));
+        assertEquals("e", result.get("extraKeys"));
+        assertEquals("1", result.get("sizeMismatched"));
+        assertEquals("2", result.get("eTagMismatched"));
+        assertEquals("c,d", result.get("mismatchedKeys"));
+    }
+
+    @Test
+    public void joinsAcrossPages() throws Exception {
+        // more keys than a page, with differences on both sides of the page boundaries.
+        for (int i = 0; i < 2500; i++) {
+            String key = String.format("key%05d", i);
+            if (i % 700 != 1) {
+                put(s3, key, "v");
+            }
+            if (i % 900 != 2) {
+                put(boltS3, key, "v");
+            }
+        }
+        Map<String, String> result = reconcile(null, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals("2500", result.get("keysCompared"));
+        assertEquals("3", result.get("missingInBolt"));
+        assertEquals("4", result.get("extraInBolt"));
+        assertEquals("2493", result.get("matched"));
+        assertEquals("key00002,key00902,key01802", result.get("missingKeys"));
+        assertEquals("key00001,key00701,key01401,key02101", result.get("extraKeys"));
+    }
+
+    @Test
+    public void resumesAfterMaxKeys() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            put(s3, "key" + i, "v");
+            if (i != 7) {
+                put(boltS3, "key" + i, "v");
+            }
+        }
+        Map<String, String> first = reconcile(null, 5, Long.MAX_VALUE);
+        assertEquals("5", first.get("keysCompared"));
+        assertEquals("false", first.get("complete"));
+        assertEquals("key4", first.get("nextStartAfter"));
+
+        Map<String, String> rest = reconcile(first.get("nextStartAfter"), 100, Long.MAX_VALUE);
+        assertEquals("5", rest.get("keysCompared"));
+        assertEquals("true", rest.get("complete"));
+        assertEquals("key7", rest.get("missingKeys"));
+    }
+
+    @Test
+    public void stopsAtDeadline() throws Exception {
+        put(s3, "a", "1");
+        put(boltS3, "a", "1");
+        Map<String, String> result = reconcile(null, 100, 0);
+        assertEquals("0", result.get("keysCompared"));
+        assertEquals("false", result.get("complete"));
+    }
+
+    @Test
+    public void comparesKeysByUtf8Bytes() {
+        // U+FFFD sorts before U+1F600 in UTF-8 (and code point) order, but not in UTF-16 order.
+        String bmp = "k\ufffd";
+        String supplementary = "k\ud83d\ude00";
+        assertTrue(BoltS3Reconciler.compareUtf8(bmp, supplementary) < 0);
+        assertTrue(BoltS3Reconciler.compareUtf8(supplementary, bmp) > 0);
+        assertTrue(bmp.compareTo(supplementary) > 0);
+        assertEquals(0, BoltS3Reconciler.compareUtf8(supplementary, "k\ud83d\ude00"));
+        assertTrue(BoltS3Reconciler.compareUtf8("ab", "abc") < 0);
+    }
+
+    private Map<String, String> reconcile(String startAfter, long maxKeys, long deadline) throws Exception {
+        return new BoltS3Reconciler(s3, boltS3).reconcile(BUCKET, null, startAfter, maxKeys, deadline);
+    }
+
+    private static void put(LocalS3Client client, String key, String value) {
+        client.putObject(PutObjectRequest.builder().bucket(BUCKET).key(key).build(), RequestBody.fromString(value));
+    }
+}
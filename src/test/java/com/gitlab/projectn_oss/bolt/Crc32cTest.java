@@ -0,0 +1,69 @@
+package com.gitlab.projectn_oss.bolt;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class Crc32cTest {
+
+    @Test
+    public void checkValue() {
+        assertEquals(0xe3069283L, crc32c("123456789".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(0L, crc32c(new byte[0]));
+    }
+
+    @Test
+    public void rfc3720Vectors() {
+        byte[] zeros = new byte[32];
+        assertEquals(0x8a9136aaL, crc32c(zeros));
+
+        byte[] ones = new byte[32];
+        Arrays.fill(ones, (byte) 0xff);
+        assertEquals(0x62a8ab43L, crc32c(ones));
+
+        byte[] ascending = new byte[32];
+        byte[] descending = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            ascending[i] = (byte) i;
+            descending[i] = (byte) (31 - i);
+        }
+        assertEquals(0x46dd794eL, crc32c(ascending));
+        assertEquals(0x113fdb5cL, crc32c(descending));
+    }
+
+    @Test
+    public void splitUpdatesMatchSingleUpdate() {
+        Random random = new Random(3);
+        for (int n = 0; n < 200; n++) {
+            byte[] data = new byte[random.nextInt(100)];
+            random.nextBytes(data);
+            long expected = crc32c(data);
+
+            // updates of arbitrary lengths, at arbitrary offsets, exercise both the 8 byte and the single byte paths.
+            Crc32c crc = new Crc32c();
+            int off = 0;
+            while (off < data.length) {
+                int len = Math.min(random.nextInt(20), data.length - off);
+                crc.update(data, off, len);
+                off += len;
+            }
+            assertEquals(expected, crc.getValue());
+
+            crc.reset();
+            for (byte b : data) {
+                crc.update(b);
+            }
+            assertEquals(expected, crc.getValue());
+        }
+    }
+
+    private static long crc32c(byte[] data) {
+        Crc32c crc = new Crc32c();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+}
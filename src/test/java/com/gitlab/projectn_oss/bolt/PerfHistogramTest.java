@@ -0,0 +1,117 @@
+package com.gitlab.projectn_oss.bolt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PerfHistogramTest {
+
+    private static final double[] PERCENTILES = {0.0, 0.1, 0.5, 0.9, 0.99, 0.999};
+
+    @Test
+    public void smallValuesAreExact() {
+        PerfHistogram histogram = new PerfHistogram();
+        long[] values = new long[128];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 127 - i;
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : PERCENTILES) {
+            assertEquals("p=" + p, values[(int) (values.length * p)], histogram.getPercentile(p));
+        }
+        assertEquals(0, histogram.getMin());
+        assertEquals(127, histogram.getMax());
+        assertEquals(63.5, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void percentilesAreWithinOnePercent() {
+        Random random = new Random(7);
+        PerfHistogram histogram = new PerfHistogram();
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            // log-uniform values from 1 to about 10^9.
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(1e9));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : PERCENTILES) {
+            long exact = values[(int) (values.length * p)];
+            long actual = histogram.getPercentile(p);
+            assertTrue("p=" + p + " exact=" + exact + " actual=" + actual,
+                    Math.abs(actual - exact) <= Math.max(exact / 100, 1));
+        }
+        assertEquals(values[0], histogram.getMin());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void encodeDecodeRoundTrip() {
+        PerfHistogram histogram = new PerfHistogram();
+        for (long value : new long[] {0, 3, 3, 127, 128, 5000, 1L << 40, Long.MAX_VALUE / 2}) {
+            histogram.record(value);
+        }
+        String encoded = histogram.encode();
+        PerfHistogram decoded = PerfHistogram.decode(encoded);
+        assertEquals(encoded, decoded.encode());
+        assertEquals(histogram.getCount(), decoded.getCount());
+        assertEquals(histogram.getSum(), decoded.getSum());
+        assertEquals(histogram.getMin(), decoded.getMin());
+        assertEquals(histogram.getMax(), decoded.getMax());
+        for (double p : PERCENTILES) {
+            assertEquals(histogram.getPercentile(p), decoded.getPercentile(p));
+        }
+    }
+
+    @Test
+    public void emptyHistogramRoundTrip() {
+        PerfHistogram decoded = PerfHistogram.decode(new PerfHistogram().encode());
+        assertEquals(0, decoded.getCount());
+        assertEquals(0, decoded.getMin());
+        assertEquals(0, decoded.getPercentile(0.5));
+        assertEquals(0.0, decoded.getMean(), 0.0);
+
+        // an empty histogram doesn't lower the min of a merge.
+        PerfHistogram histogram = new PerfHistogram();
+        histogram.record(42);
+        histogram.merge(decoded);
+        assertEquals(42, histogram.getMin());
+        assertEquals(1, histogram.getCount());
+    }
+
+    @Test
+    public void mergeEqualsRecordingAllValues() {
+        Random random = new Random(11);
+        PerfHistogram all = new PerfHistogram();
+        PerfHistogram merged = new PerfHistogram();
+        for (int worker = 0; worker < 4; worker++) {
+            PerfHistogram part = new PerfHistogram();
+            for (int i = 0; i < 1000; i++) {
+                long value = random.nextInt(100000);
+                part.record(value);
+                all.record(value);
+            }
+            // merge as the coordinator does, from the encoded histogram of each worker.
+            merged.merge(PerfHistogram.decode(part.encode()));
+        }
+        assertEquals(all.encode(), merged.encode());
+        for (double p : PERCENTILES) {
+            assertEquals(all.getPercentile(p), merged.getPercentile(p));
+        }
+    }
+
+    @Test
+    public void negativeValuesAreRecordedAsZero() {
+        PerfHistogram histogram = new PerfHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMax());
+    }
+}
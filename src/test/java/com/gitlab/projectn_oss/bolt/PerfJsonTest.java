@@ -0,0 +1,84 @@
+package com.gitlab.projectn_oss.bolt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PerfJsonTest {
+
+    @Test
+    public void roundTripsNestedMapsAndLists() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("average", "12.50 ms");
+        stats.put("histogram", "3,30,5,15;5:1,10:1,15:1");
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("s3_get_obj_perf_stats", stats);
+        value.put("keys", new ArrayList<>(Arrays.asList("a", "b/c", "")));
+        value.put("empty", new LinkedHashMap<>());
+
+        String json = PerfJson.encode(value);
+        assertEquals(value, PerfJson.decode(json));
+        assertEquals(json, PerfJson.encode(PerfJson.decode(json)));
+    }
+
+    @Test
+    public void escapesStrings() {
+        String str = "quote\" backslash\\ newline\n tab\t cr\r control\u0001 unicode\u00e9\u20ac";
+        String json = PerfJson.encode(str);
+        assertEquals("\"quote\\\" backslash\\\\ newline\\n tab\\t cr\\r control\\u0001 unicode\u00e9\u20ac\"", json);
+        assertEquals(str, PerfJson.decode(json));
+        assertEquals("\u00e9/\b\f", PerfJson.decode("\"\\u00e9\\/\\b\\f\""));
+    }
+
+    @Test
+    public void decodesLiteralsAsText() {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) PerfJson.decode(
+                " { \"n\" : 12.5 , \"b\" : true , \"z\" : null , \"l\" : [ 1 , -2 ] } ");
+        assertEquals("12.5", map.get("n"));
+        assertEquals("true", map.get("b"));
+        assertNull(map.get("z"));
+        assertEquals(Arrays.asList("1", "-2"), map.get("l"));
+        assertEquals("{\"n\":1,\"b\":false,\"z\":null}", PerfJson.encode(new LinkedHashMap<String, Object>() {{
+            put("n", 1);
+            put("b", false);
+            put("z", null);
+        }}));
+    }
+
+    @Test
+    public void keepsDocumentOrder() {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) PerfJson.decode("{\"z\":\"1\",\"a\":\"2\",\"m\":\"3\"}");
+        assertEquals(Arrays.asList("z", "a", "m"), new ArrayList<>(map.keySet()));
+        List<?> list = (List<?>) PerfJson.decode("[]");
+        assertEquals(0, list.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTrailingCharacters() {
+        PerfJson.decode("{\"a\":\"1\"} x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnterminatedString() {
+        PerfJson.decode("{\"a\":\"1}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingValue() {
+        PerfJson.decode("{\"a\":}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnterminatedObject() {
+        PerfJson.decode("{\"a\":\"1\"");
+    }
+}
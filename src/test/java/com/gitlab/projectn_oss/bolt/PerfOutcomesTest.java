@@ -0,0 +1,61 @@
+package com.gitlab.projectn_oss.bolt;
+
+import org.junit.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class PerfOutcomesTest {
+
+    private static S3Exception slowDown() {
+        return (S3Exception) S3Exception.builder()
+                .statusCode(503)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("SlowDown").build())
+                .build();
+    }
+
+    @Test
+    public void countsFailuresByErrorCode() {
+        PerfOutcomes outcomes = new PerfOutcomes(4);
+        outcomes.success(10);
+        outcomes.failure(slowDown(), 20);
+        outcomes.failure(slowDown(), 30);
+        outcomes.failure(new IllegalStateException(), 40);
+
+        Map<String, String> map = outcomes.toMap();
+        assertEquals("4", map.get("requests"));
+        assertEquals("1", map.get("succeeded"));
+        assertEquals("3", map.get("failed"));
+        assertEquals("2", map.get("throttled"));
+        assertEquals("IllegalStateException:1,SlowDown:2", map.get("errors"));
+    }
+
+    @Test
+    public void mergesIndependentlyOfTheDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        // a locale with a decimal comma.
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            PerfOutcomes worker1 = new PerfOutcomes(2);
+            worker1.success(1);
+            worker1.failure(slowDown(), 2);
+            PerfOutcomes worker2 = new PerfOutcomes(1);
+            worker2.success(4);
+
+            Map<String, String> merged = new HashMap<>();
+            PerfOutcomes.merge(merged, worker1.toMap());
+            PerfOutcomes.merge(merged, worker2.toMap());
+            assertEquals("3", merged.get("requests"));
+            assertEquals("1", merged.get("failed"));
+            assertEquals("SlowDown:1", merged.get("errors"));
+            assertEquals("7.00 ms", merged.get("totalTime"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+}
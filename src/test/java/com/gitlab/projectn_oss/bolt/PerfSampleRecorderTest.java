@@ -0,0 +1,98 @@
+package com.gitlab.projectn_oss.bolt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PerfSampleRecorderTest {
+
+    private static final double[] PERCENTILES = {0.0, 0.1, 0.5, 0.9, 0.99, 0.999, 1.0};
+
+    @Test
+    public void percentilesMatchSortedSamples() {
+        Random random = new Random(42);
+        for (int n : new int[] {1, 2, 3, 10, 101, 1000, 4099}) {
+            PerfSampleRecorder recorder = new PerfSampleRecorder(n);
+            double[] samples = new double[n];
+            for (int i = 0; i < n; i++) {
+                samples[i] = random.nextInt(500) + random.nextDouble();
+                recorder.add(samples[i]);
+            }
+            Arrays.sort(samples);
+            for (double p : PERCENTILES) {
+                int k = Math.min((int) (n * p), n - 1);
+                assertEquals("n=" + n + " p=" + p, samples[k], recorder.percentile(p), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void percentilesOfDuplicateSamples() {
+        PerfSampleRecorder recorder = new PerfSampleRecorder(100);
+        for (int i = 0; i < 100; i++) {
+            recorder.add(i < 90 ? 5 : 7);
+        }
+        assertEquals(5.0, recorder.percentile(0.5), 0.0);
+        assertEquals(5.0, recorder.percentile(0.89), 0.0);
+        assertEquals(7.0, recorder.percentile(0.9), 0.0);
+        assertEquals(7.0, recorder.percentile(1.0), 0.0);
+    }
+
+    @Test
+    public void percentilesPreserveRecordedSamples() {
+        PerfSampleRecorder recorder = new PerfSampleRecorder(4);
+        double[] samples = {9, 3, 7, 1, 5, 8, 2, 6, 4, 0};
+        for (double sample : samples) {
+            recorder.add(sample);
+        }
+        recorder.percentile(0.3);
+        recorder.percentile(0.9);
+
+        // the reordering of percentile doesn't lose or change samples.
+        PerfHistogram histogram = new PerfHistogram();
+        recorder.recordTo(histogram, 1);
+        PerfHistogram expected = new PerfHistogram();
+        for (double sample : samples) {
+            expected.record((long) sample);
+        }
+        assertEquals(expected.encode(), histogram.encode());
+        assertEquals(45.0, recorder.sum(), 0.0);
+        assertEquals(4.5, recorder.mean(), 0.0);
+    }
+
+    @Test
+    public void growsBeyondCapacity() {
+        PerfSampleRecorder recorder = new PerfSampleRecorder(1);
+        for (int i = 1; i <= 1000; i++) {
+            recorder.add(i);
+        }
+        assertEquals(1000, recorder.size());
+        assertEquals(500500.0, recorder.sum(), 0.0);
+        assertEquals(501.0, recorder.percentile(0.5), 0.0);
+    }
+
+    @Test
+    public void emptyRecorderReportsZero() {
+        PerfSampleRecorder recorder = new PerfSampleRecorder(0);
+        assertTrue(recorder.isEmpty());
+        assertEquals(0.0, recorder.mean(), 0.0);
+        assertEquals(0.0, recorder.percentile(0.5), 0.0);
+        assertEquals(0.0, recorder.percentile(1.0), 0.0);
+    }
+
+    @Test
+    public void recordToScalesSamples() {
+        PerfSampleRecorder recorder = new PerfSampleRecorder(2);
+        recorder.add(0.25);
+        recorder.add(1.5);
+        PerfHistogram histogram = new PerfHistogram();
+        recorder.recordTo(histogram, 1000);
+        assertEquals(2, histogram.getCount());
+        assertEquals(250, histogram.getMin());
+        assertEquals(1500, histogram.getMax());
+    }
+}